@@ -1,12 +1,18 @@
 package bookrecommender.libri;
 
+import bookrecommender.condivisi.libri.CampoRicerca;
 import bookrecommender.condivisi.libri.CercaLibriService;
 import bookrecommender.condivisi.libri.Libro;
+import bookrecommender.condivisi.libri.LibroSintesi;
+import bookrecommender.condivisi.libri.RisultatoRicercaFuzzy;
+import bookrecommender.condivisi.libri.Suggerimento;
 import bookrecommender.utili.ViewsController;
+import javafx.application.Platform;
 import javafx.beans.property.StringProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
+import javafx.geometry.Side;
 import javafx.fxml.Initializable;
 import javafx.scene.control.*;
 import javafx.scene.layout.GridPane;
@@ -22,6 +28,8 @@ import java.rmi.registry.Registry;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -37,6 +45,13 @@ public class CercaLibriController implements Initializable {
 
     private CercaLibriService cercaLibriService;
 
+    // Autocompletamento: i suggerimenti compaiono da questo numero di caratteri in su
+    private static final int CARATTERI_MINIMI_SUGGERIMENTI = 3;
+    private static final int NUMERO_SUGGERIMENTI = 8;
+    private static final int NUMERO_RISULTATI_FUZZY = 50;
+    // Vero mentre il testo viene sostituito con un suggerimento scelto, per non richiederne altri
+    private boolean sceltaSuggerimentoInCorso;
+
     // --- CAMPI FXML AGGIORNATI ---
 
     // ToggleButtons per la selezione della modalità
@@ -81,6 +96,9 @@ public class CercaLibriController implements Initializable {
         setupTableColumns();
         setupToggleListener();
         setupDemoData();
+        setupAutocompletamento(titleField, Suggerimento.Tipo.TITOLO);
+        setupAutocompletamento(authorField, Suggerimento.Tipo.AUTORE);
+        setupAutocompletamento(authorYearAuthorField, Suggerimento.Tipo.AUTORE);
 
         updateVisibleInputFields(); // Imposta la visibilità iniziale corretta
         if (messageLabel != null) {
@@ -131,6 +149,73 @@ public class CercaLibriController implements Initializable {
         });
     }
 
+    /**
+     * Mostra sotto il campo i titoli o gli autori che completano il testo digitato.
+     * La richiesta al server avviene fuori dal thread JavaFX; le risposte arrivate dopo
+     * una digitazione successiva vengono scartate.
+     */
+    private void setupAutocompletamento(TextField campo, Suggerimento.Tipo tipo) {
+        ContextMenu menu = new ContextMenu();
+        AtomicInteger ultimaRichiesta = new AtomicInteger();
+
+        campo.textProperty().addListener((obs, vecchioTesto, nuovoTesto) -> {
+            if (sceltaSuggerimentoInCorso || cercaLibriService == null || !campo.isFocused()
+                    || nuovoTesto == null || nuovoTesto.strip().length() < CARATTERI_MINIMI_SUGGERIMENTI) {
+                menu.hide();
+                return;
+            }
+            int richiesta = ultimaRichiesta.incrementAndGet();
+            CercaLibriService servizio = cercaLibriService;
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    // Se ne chiedono di piu' perche' il server mescola titoli e autori
+                    return servizio.suggerisci(nuovoTesto, NUMERO_SUGGERIMENTI * 2);
+                } catch (RemoteException e) {
+                    logger.debug("Suggerimenti non disponibili per '{}'", nuovoTesto, e);
+                    return List.<Suggerimento>of();
+                }
+            }).thenAccept(suggerimenti -> Platform.runLater(() -> {
+                if (richiesta == ultimaRichiesta.get() && campo.isFocused()) {
+                    mostraSuggerimenti(campo, menu, suggerimenti, tipo);
+                }
+            }));
+        });
+        campo.focusedProperty().addListener((obs, avevaFocus, haFocus) -> {
+            if (!haFocus) {
+                menu.hide();
+            }
+        });
+    }
+
+    private void mostraSuggerimenti(TextField campo, ContextMenu menu, List<Suggerimento> suggerimenti, Suggerimento.Tipo tipo) {
+        List<MenuItem> voci = suggerimenti.stream()
+            .filter(s -> s.tipo() == tipo)
+            .limit(NUMERO_SUGGERIMENTI)
+            .map(s -> {
+                MenuItem voce = new MenuItem(s.testo());
+                voce.setOnAction(e -> {
+                    sceltaSuggerimentoInCorso = true;
+                    try {
+                        campo.setText(s.testo());
+                        campo.positionCaret(s.testo().length());
+                    } finally {
+                        sceltaSuggerimentoInCorso = false;
+                    }
+                });
+                return voce;
+            })
+            .collect(Collectors.toList());
+
+        if (voci.isEmpty()) {
+            menu.hide();
+            return;
+        }
+        menu.getItems().setAll(voci);
+        if (!menu.isShowing()) {
+            menu.show(campo, Side.BOTTOM, 0, 0);
+        }
+    }
+
     /**
      * Inizializza la lista di libri demo per il fallback.
      */
@@ -228,9 +313,13 @@ public class CercaLibriController implements Initializable {
         if (titolo.isEmpty()) { showMessage("Il titolo non può essere vuoto."); return; }
 
         if (cercaLibriService != null) {
-            List<Libro> libri = cercaLibriService.cercaLibro_Per_Titolo(titolo);
+            List<LibroSintesi> libri = cercaLibriService.cercaLibro_Per_Titolo(titolo);
+            if (libri.isEmpty()) {
+                searchFuzzy(titolo, CampoRicerca.TITOLO);
+                return;
+            }
             List<BookRecord> results = libri.stream()
-                .map(this::mapLibroToRecord)
+                .map(this::mapSintesiToRecord)
                 .collect(Collectors.toList());
             resultsTable.setItems(FXCollections.observableArrayList(results));
             showMessage(String.format("%d risultato/i trovato/i per titolo '%s'.", results.size(), titolo));
@@ -248,9 +337,13 @@ public class CercaLibriController implements Initializable {
         if (autore.isEmpty()) { showMessage("L'autore non può essere vuoto."); return; }
 
         if (cercaLibriService != null) {
-            List<Libro> libri = cercaLibriService.cercaLibro_Per_Autore(autore);
+            List<LibroSintesi> libri = cercaLibriService.cercaLibro_Per_Autore(autore);
+            if (libri.isEmpty()) {
+                searchFuzzy(autore, CampoRicerca.AUTORE);
+                return;
+            }
             List<BookRecord> results = libri.stream()
-                .map(this::mapLibroToRecord)
+                .map(this::mapSintesiToRecord)
                 .collect(Collectors.toList());
             resultsTable.setItems(FXCollections.observableArrayList(results));
             showMessage(String.format("%d risultato/i trovato/i per autore '%s'.", results.size(), autore));
@@ -263,6 +356,27 @@ public class CercaLibriController implements Initializable {
         }
     }
 
+    /**
+     * Ripete una ricerca senza risultati tollerando gli errori di battitura e mostra
+     * la correzione proposta dal server.
+     */
+    private void searchFuzzy(String testo, CampoRicerca campo) throws RemoteException {
+        RisultatoRicercaFuzzy risultato = cercaLibriService.cercaLibri_Fuzzy(testo, campo, NUMERO_RISULTATI_FUZZY);
+        List<BookRecord> results = risultato.libri().stream()
+            .map(this::mapSintesiToRecord)
+            .collect(Collectors.toList());
+        resultsTable.setItems(FXCollections.observableArrayList(results));
+
+        if (risultato.forseCercavi().isEmpty()) {
+            showMessage(String.format("Nessun risultato per '%s'.", testo));
+        } else if (results.isEmpty()) {
+            showMessage(String.format("Nessun risultato per '%s'. Forse cercavi: %s", testo, risultato.forseCercavi().get(0)));
+        } else {
+            showMessage(String.format("Nessun risultato per '%s'. Forse cercavi: %s (%d risultato/i)",
+                testo, risultato.forseCercavi().get(0), results.size()));
+        }
+    }
+
     private void searchByAuthorAndYear() throws RemoteException {
         String autore = safeGet(authorYearAuthorField);
         String anno = safeGet(authorYearField);
@@ -271,9 +385,9 @@ public class CercaLibriController implements Initializable {
         if (!isValidYear(anno)) { showMessage("Inserisci un anno valido (es. 1984)."); return; }
 
         if (cercaLibriService != null) {
-            List<Libro> libri = cercaLibriService.cercaLibro_Per_Autore_e_Anno(autore, anno);
+            List<LibroSintesi> libri = cercaLibriService.cercaLibro_Per_Autore_e_Anno(autore, anno);
             List<BookRecord> results = libri.stream()
-                .map(this::mapLibroToRecord)
+                .map(this::mapSintesiToRecord)
                 .collect(Collectors.toList());
             resultsTable.setItems(FXCollections.observableArrayList(results));
             showMessage(String.format("%d risultato/i trovato/i per autore '%s' e anno '%s'.", results.size(), autore, anno));
@@ -321,6 +435,10 @@ public class CercaLibriController implements Initializable {
     }
     
     private BookRecord mapLibroToRecord(Libro libro) {
+        return libro == null ? null : mapSintesiToRecord(LibroSintesi.di(libro));
+    }
+
+    private BookRecord mapSintesiToRecord(LibroSintesi libro) {
         if (libro == null) return null;
         String id = String.valueOf(libro.getId());
         String titolo = libro.getTitolo() != null ? libro.getTitolo() : "N/D";
@@ -0,0 +1,115 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Misura il guadagno degli indici trigram sulle ricerche per sottostringa.
+ * <p>
+ * Crea in dbBR una tabella temporanea con un catalogo sintetico (di default un milione di righe),
+ * esegue le stesse query del server ({@code LOWER(colonna) LIKE '%...%'}) prima e dopo la
+ * creazione degli indici GIN con gin_trgm_ops e stampa i tempi mediani e lo speedup.
+ * La tabella Libri non viene toccata.
+ *
+ * Uso:
+ *   java -cp DBCreatorBR-1.0-jar-with-dependencies.jar BenchmarkIndiciTrigram <db_user> <db_password> [righe]
+ */
+public class BenchmarkIndiciTrigram {
+
+    private static final String DB_URL = "jdbc:postgresql://localhost:5432/dbBR";
+    private static final int RIPETIZIONI = 7;
+
+    // Pattern di ricerca di 3-5 caratteri, come quelli digitati dagli utenti
+    private static final String[] PATTERN_TITOLO = {"rosa", "amor", "ston", "notte", "mare"};
+    private static final String[] PATTERN_AUTORE = {"eco", "levi", "rossi", "bianc", "mann"};
+
+    // Titoli e autori sintetici composti da parole reali, cosi' la distribuzione dei trigrammi
+    // assomiglia a quella di un catalogo vero
+    private static final String creaCatalogo = """
+            CREATE TEMP TABLE libri_benchmark AS
+            SELECT g AS id,
+                   (ARRAY['Il','La','Storia','Notte','Amore','Mare','Guerra','Viaggio','Citta','Rosa'])[1 + g % 10]
+                     || ' ' || (ARRAY['del','della','di','nel','sul'])[1 + (g / 10) % 5]
+                     || ' ' || (ARRAY['tempo','mondo','cuore','silenzio','vento','fuoco','sogno','destino'])[1 + (g / 50) % 8]
+                     || ' ' || substr(md5(g::text), 1, 6) AS titolo,
+                   (ARRAY['Umberto','Primo','Italo','Elsa','Natalia','Thomas','Luigi','Grazia'])[1 + (g / 7) % 8]
+                     || ' ' || (ARRAY['Eco','Levi','Calvino','Morante','Ginzburg','Mann','Rossi','Bianchi','Deledda'])[1 + (g / 3) % 9]
+                     || ' ' || substr(md5((g * 31)::text), 1, 5) AS autori
+            FROM generate_series(1, ?) AS g
+            """;
+
+    public static void main(String[] args) throws SQLException {
+        if (args.length < 2) {
+            System.out.println("Utilizzo: java -cp DBCreatorBR-1.0-jar-with-dependencies.jar BenchmarkIndiciTrigram <user> <password> [righe]");
+            System.exit(1);
+        }
+        int righe = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, args[0], args[1])) {
+            System.out.println("Creazione catalogo sintetico di " + righe + " righe...");
+            try (PreparedStatement ps = conn.prepareStatement(creaCatalogo)) {
+                ps.setInt(1, righe);
+                ps.executeUpdate();
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ANALYZE libri_benchmark");
+            }
+
+            double[] senzaIndiceTitolo = misura(conn, "titolo", PATTERN_TITOLO);
+            double[] senzaIndiceAutore = misura(conn, "autori", PATTERN_AUTORE);
+
+            System.out.println("Creazione indici trigram...");
+            long inizio = System.nanoTime();
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+                stmt.execute("CREATE INDEX ON libri_benchmark USING gin (LOWER(titolo) gin_trgm_ops)");
+                stmt.execute("CREATE INDEX ON libri_benchmark USING gin (LOWER(autori) gin_trgm_ops)");
+                stmt.execute("ANALYZE libri_benchmark");
+            }
+            System.out.printf("Indici creati in %.1f s%n", (System.nanoTime() - inizio) / 1e9);
+
+            double[] conIndiceTitolo = misura(conn, "titolo", PATTERN_TITOLO);
+            double[] conIndiceAutore = misura(conn, "autori", PATTERN_AUTORE);
+
+            System.out.println();
+            System.out.printf("%-10s %-8s %14s %14s %9s%n", "colonna", "pattern", "senza (ms)", "con (ms)", "speedup");
+            stampa("titolo", PATTERN_TITOLO, senzaIndiceTitolo, conIndiceTitolo);
+            stampa("autori", PATTERN_AUTORE, senzaIndiceAutore, conIndiceAutore);
+        }
+    }
+
+    /**
+     * Esegue ogni pattern {@link #RIPETIZIONI} volte e restituisce il tempo mediano in millisecondi.
+     */
+    private static double[] misura(Connection conn, String colonna, String[] pattern) throws SQLException {
+        String sql = "SELECT id, titolo, autori FROM libri_benchmark WHERE LOWER(" + colonna + ") LIKE ? ORDER BY titolo";
+        double[] mediane = new double[pattern.length];
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int p = 0; p < pattern.length; p++) {
+                ps.setString(1, "%" + pattern[p] + "%");
+                double[] tempi = new double[RIPETIZIONI];
+                for (int r = 0; r < RIPETIZIONI; r++) {
+                    long inizio = System.nanoTime();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            rs.getLong(1);
+                        }
+                    }
+                    tempi[r] = (System.nanoTime() - inizio) / 1e6;
+                }
+                Arrays.sort(tempi);
+                mediane[p] = tempi[RIPETIZIONI / 2];
+            }
+        }
+        return mediane;
+    }
+
+    private static void stampa(String colonna, String[] pattern, double[] senza, double[] con) {
+        for (int p = 0; p < pattern.length; p++) {
+            System.out.printf("%-10s %-8s %14.2f %14.2f %8.1fx%n", colonna, pattern[p], senza[p], con[p], senza[p] / con[p]);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Confronta la lettura del catalogo riga per riga ({@link LeggiFileCSV#splitLine(String)}) con
+ * {@link TokenizzatoreCSV} sul file mappato in memoria.
+ * <p>
+ * Entrambi i metodi producono i campi caricati nella tabella Libri, senza usare il database;
+ * viene stampato il throughput mediano in MB/s. Senza file viene generato un CSV sintetico
+ * con descrizioni tra virgolette che contengono virgole e virgolette raddoppiate.
+ *
+ * Uso:
+ *   java -cp DBCreatorBR-1.0-jar-with-dependencies.jar BenchmarkTokenizzatoreCSV [file.csv | MB]
+ */
+public class BenchmarkTokenizzatoreCSV {
+
+    private static final int RIPETIZIONI = 7;
+
+    private static final String[] PAROLE = {"storia", "notte", "amore", "mare", "guerra", "viaggio", "citta",
+            "rosa", "tempo", "mondo", "cuore", "silenzio", "vento", "fuoco", "sogno", "destino"};
+
+    public static void main(String[] args) throws IOException {
+        Path file;
+        boolean sintetico = args.length == 0 || args[0].matches("\\d+");
+        if (sintetico) {
+            int mb = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+            file = Files.createTempFile("libri-benchmark", ".csv");
+            file.toFile().deleteOnExit();
+            System.out.println("Generazione CSV sintetico di " + mb + " MB...");
+            generaCSV(file, mb * (1L << 20));
+        } else {
+            file = Path.of(args[0]);
+        }
+        long dimensione = Files.size(file);
+        if (dimensione > Integer.MAX_VALUE) {
+            System.out.println("Il file supera i 2 GB che si possono mappare in un solo buffer");
+            System.exit(1);
+        }
+        double mb = dimensione / (double) (1 << 20);
+
+        double[] righe = new double[RIPETIZIONI];
+        double[] tokenizzatore = new double[RIPETIZIONI];
+        long libriRighe = 0;
+        long libriTokenizzatore = 0;
+        // Le due letture si alternano, cosi' la cache del sistema operativo le favorisce allo stesso modo
+        for (int r = 0; r < RIPETIZIONI; r++) {
+            long inizio = System.nanoTime();
+            libriRighe = leggiRighe(file);
+            righe[r] = mb / ((System.nanoTime() - inizio) / 1e9);
+
+            inizio = System.nanoTime();
+            libriTokenizzatore = leggiTokenizzatore(file, dimensione);
+            tokenizzatore[r] = mb / ((System.nanoTime() - inizio) / 1e9);
+        }
+
+        System.out.println();
+        System.out.printf("File: %s (%.1f MB)%n", file, mb);
+        System.out.printf("%-28s %10s %12s%n", "metodo", "libri", "MB/s");
+        System.out.printf("%-28s %10d %12.1f%n", "BufferedReader + splitLine", libriRighe, mediana(righe));
+        System.out.printf("%-28s %10d %12.1f%n", "TokenizzatoreCSV (mmap)", libriTokenizzatore, mediana(tokenizzatore));
+        System.out.printf("Speedup: %.2fx%n", mediana(tokenizzatore) / mediana(righe));
+        if (libriRighe != libriTokenizzatore) {
+            // Succede se il file ha descrizioni su piu' righe, che la lettura per righe non ricompone
+            System.out.println("Attenzione: i due metodi hanno letto un numero diverso di libri");
+        }
+    }
+
+    private static long leggiRighe(Path file) throws IOException {
+        long libri = 0;
+        long controllo = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(file.toFile()))) {
+            String line;
+            boolean primo = true;
+            while ((line = br.readLine()) != null) {
+                if (primo) {
+                    primo = false;
+                    if (LeggiFileCSV.isIntestazione(line)) {
+                        continue;
+                    }
+                }
+                String[] campi = LeggiFileCSV.campiLibro(line);
+                if (campi != null) {
+                    controllo += usa(campi);
+                    libri++;
+                }
+            }
+        }
+        return controllo < 0 ? -1 : libri;
+    }
+
+    private static long leggiTokenizzatore(Path file, long dimensione) throws IOException {
+        MappedByteBuffer mappa = TokenizzatoreCSV.mappa(file, 0, dimensione);
+        TokenizzatoreCSV csv = new TokenizzatoreCSV(mappa);
+        long libri = 0;
+        long controllo = 0;
+        boolean primo = true;
+        while (csv.prossimoRecord()) {
+            if (primo) {
+                primo = false;
+                if (LeggiFileCSV.isIntestazione(csv.record())) {
+                    continue;
+                }
+            }
+            String[] campi = LeggiFileCSV.campiLibro(csv);
+            if (campi != null) {
+                controllo += usa(campi);
+                libri++;
+            }
+        }
+        return controllo < 0 ? -1 : libri;
+    }
+
+    // Impedisce al JIT di eliminare le stringhe create e mai usate
+    private static long usa(String[] campi) {
+        return campi == null ? 0 : campi[1].length() + campi[4].length();
+    }
+
+    private static void generaCSV(Path file, long byteDaScrivere) throws IOException {
+        long scritti = 0;
+        int id = 0;
+        StringBuilder riga = new StringBuilder(512);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("Id,Title,Authors,Description,Category,Publisher,Price,Publish Date (Month),Publish Date (Year)\n");
+            while (scritti < byteDaScrivere) {
+                id++;
+                riga.setLength(0);
+                riga.append(id).append(',')
+                        .append(parola(id)).append(' ').append(parola(id / 7)).append(' ').append(id % 1000).append(',')
+                        .append("\"Rossi, ").append(Character.toUpperCase(parola(id / 3).charAt(0))).append(parola(id / 3).substring(1)).append("\",")
+                        .append('"');
+                for (int i = 0; i < 20 + id % 30; i++) {
+                    riga.append(parola(id + i * 13)).append(i % 9 == 4 ? ", " : " ");
+                }
+                riga.append("detto \"\"").append(parola(id / 11)).append("\"\".\",")
+                        .append("\"Narrativa , Romanzo\",")
+                        .append("Editore ").append(parola(id / 5)).append(',')
+                        .append("Price From: $").append(id % 50).append('.').append(id % 90 + 10).append(',')
+                        .append(id % 2 == 0 ? "\"Monday, March\"" : "").append(',')
+                        .append(1900 + id % 124).append('\n');
+                out.append(riga);
+                scritti += riga.length();
+            }
+        }
+    }
+
+    private static String parola(int i) {
+        return PAROLE[Math.floorMod(i, PAROLE.length)];
+    }
+
+    private static double mediana(double[] valori) {
+        double[] ordinati = valori.clone();
+        Arrays.sort(ordinati);
+        return ordinati[ordinati.length / 2];
+    }
+}
@@ -0,0 +1,134 @@
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Caricamento della tabella Libri con {@code COPY ... FROM STDIN}.
+ * <p>
+ * Invece di accumulare tutte le righe in un batch di PreparedStatement, le righe lette dal CSV
+ * vengono riscritte in formato CSV in un buffer di dimensione fissa e inviate al server a ogni
+ * riempimento: la memoria usata non dipende dalla dimensione del file e PostgreSQL riceve un
+ * solo flusso di dati invece di un insert per riga.
+ * <p>
+ * Come per il batch, il COPY e' un'unica istruzione: una riga rifiutata dal database (es. un
+ * titolo troppo lungo) annulla l'intero caricamento.
+ *
+ * @author Taha
+ * @author Sara
+ */
+public class CaricatoreCopy {
+
+    // Byte accumulati prima di ogni invio al server
+    private static final int DIMENSIONE_BUFFER = 1 << 20;
+    // Ogni quante righe stampare l'avanzamento
+    private static final int RIGHE_PER_AVANZAMENTO = 100_000;
+
+    private static final String SQL_COPY = "COPY Libri (" + LeggiFileCSV.COLONNE_LIBRI + ") FROM STDIN WITH (FORMAT csv)";
+
+    /**
+     * Legge il file CSV e ne carica i libri con COPY.
+     *
+     * @param filePath Percorso del file CSV da leggere
+     * @param connection Connessione al database (driver PostgreSQL)
+     * @return Numero di libri inseriti, 0 se il caricamento e' fallito
+     */
+    public static int popolaDatabaseConCopy(String filePath, Connection connection) {
+        long inizio = System.nanoTime();
+        int libriInviati = 0;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+            CopyIn copia = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(SQL_COPY);
+            try {
+                byte[] buffer = new byte[DIMENSIONE_BUFFER];
+                int usati = 0;
+                StringBuilder riga = new StringBuilder(512);
+                String line;
+                boolean primaRiga = true;
+
+                while ((line = br.readLine()) != null) {
+                    if (primaRiga) {
+                        primaRiga = false;
+                        if (LeggiFileCSV.isIntestazione(line)) {
+                            continue;
+                        }
+                    }
+                    String[] campi = LeggiFileCSV.campiLibro(line);
+                    if (campi == null) {
+                        continue;
+                    }
+
+                    riga.setLength(0);
+                    for (int i = 0; i < campi.length; i++) {
+                        if (i > 0) {
+                            riga.append(',');
+                        }
+                        aggiungiCampo(riga, campi[i]);
+                    }
+                    riga.append('\n');
+                    byte[] dati = riga.toString().getBytes(StandardCharsets.UTF_8);
+
+                    if (usati + dati.length > buffer.length) {
+                        copia.writeToCopy(buffer, 0, usati);
+                        usati = 0;
+                    }
+                    if (dati.length > buffer.length) {
+                        copia.writeToCopy(dati, 0, dati.length);
+                    } else {
+                        System.arraycopy(dati, 0, buffer, usati, dati.length);
+                        usati += dati.length;
+                    }
+
+                    libriInviati++;
+                    if (libriInviati % RIGHE_PER_AVANZAMENTO == 0) {
+                        System.out.printf("Inviati %d libri (%.0f righe/s)%n", libriInviati, righeAlSecondo(libriInviati, inizio));
+                    }
+                }
+                if (usati > 0) {
+                    copia.writeToCopy(buffer, 0, usati);
+                }
+                long inseriti = copia.endCopy();
+                System.out.printf("Inseriti %d libri nel database con COPY in %.1f s (%.0f righe/s).%n",
+                        inseriti, (System.nanoTime() - inizio) / 1e9, righeAlSecondo(inseriti, inizio));
+                return (int) inseriti;
+            } finally {
+                if (copia.isActive()) {
+                    copia.cancelCopy();
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Errore durante il COPY nel database dopo " + libriInviati + " libri: " + e.getMessage());
+            e.printStackTrace();
+        } catch (IOException e) {
+            System.err.println("Errore nella lettura del file CSV: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * Aggiunge il campo tra virgolette, raddoppiando quelle interne: in formato csv un campo
+     * vuoto senza virgolette sarebbe NULL, mentre il batch inserisce la stringa vuota
+     */
+    private static void aggiungiCampo(StringBuilder riga, String campo) {
+        riga.append('"');
+        for (int i = 0; i < campo.length(); i++) {
+            char c = campo.charAt(i);
+            if (c == '"') {
+                riga.append('"');
+            }
+            riga.append(c);
+        }
+        riga.append('"');
+    }
+
+    private static double righeAlSecondo(long righe, long inizio) {
+        double secondi = (System.nanoTime() - inizio) / 1e9;
+        return secondi <= 0 ? 0 : righe / secondi;
+    }
+}
@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Aggiornamento incrementale della tabella Libri da un nuovo file CSV, senza ricreare il database.
+ * <p>
+ * Per ogni libro la tabella Libri_Hash conserva un hash del contenuto dell'ultima riga caricata.
+ * Le righe del file il cui hash e' uguale a quello salvato vengono saltate; le altre vengono
+ * inserite o aggiornate con {@code INSERT ... ON CONFLICT (id) DO UPDATE}, e i libri che non sono
+ * piu' nel file vengono eliminati. Le tabelle degli utenti, delle librerie e delle valutazioni
+ * non vengono modificate: un libro ancora presente in una libreria o in un consiglio non viene
+ * eliminato, ma solo segnalato.
+ * <p>
+ * Tutto avviene in un'unica transazione: le query sulla tabella vedono i dati vecchi fino al
+ * commit e un errore lascia la tabella com'era.
+ * <p>
+ * Un server gia' avviato non vede le modifiche nemmeno dopo il commit: catalogo in memoria,
+ * autocompletamento e cache dei risultati restano quelli letti all'avvio, compresi i libri
+ * eliminati. Bisogna invocare l'operazione JMX {@code ricarica} di
+ * {@code bookrecommender:type=Catalogo,nome="libri"} (ad esempio da jconsole) oppure riavviare il server.
+ *
+ * @author Taha
+ * @author Sara
+ */
+public class CaricatoreIncrementale {
+
+    private static final int RIGHE_PER_BATCH = 1_000;
+
+    private static final String SQL_HASH_SALVATI = "SELECT l.id, h.hash FROM Libri l LEFT JOIN Libri_Hash h ON h.id = l.id";
+
+    // La clausola WHERE evita di riscrivere righe uguali, ad esempio alla prima esecuzione,
+    // quando gli hash non sono ancora stati salvati
+    private static final String SQL_UPSERT = "INSERT INTO Libri (" + LeggiFileCSV.COLONNE_LIBRI + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?) "
+            + "ON CONFLICT (id) DO UPDATE SET titolo = EXCLUDED.titolo, autori = EXCLUDED.autori, anno = EXCLUDED.anno, "
+            + "descrizione = EXCLUDED.descrizione, categorie = EXCLUDED.categorie, editore = EXCLUDED.editore, prezzo = EXCLUDED.prezzo "
+            + "WHERE (Libri.titolo, Libri.autori, Libri.anno, Libri.descrizione, Libri.categorie, Libri.editore, Libri.prezzo) "
+            + "IS DISTINCT FROM (EXCLUDED.titolo, EXCLUDED.autori, EXCLUDED.anno, EXCLUDED.descrizione, EXCLUDED.categorie, EXCLUDED.editore, EXCLUDED.prezzo)";
+
+    private static final String SQL_UPSERT_HASH = "INSERT INTO Libri_Hash (id, hash) VALUES (?, ?) "
+            + "ON CONFLICT (id) DO UPDATE SET hash = EXCLUDED.hash";
+
+    // Libreria_Libro e ConsigliLibri impediscono di eliminare un libro a cui fanno riferimento:
+    // quei libri vengono lasciati dove sono. L'hash dei libri eliminati sparisce con ON DELETE CASCADE
+    private static final String SQL_ELIMINA = """
+            DELETE FROM Libri l
+            WHERE l.id = ANY (?)
+              AND NOT EXISTS (SELECT 1 FROM Libreria_Libro ll WHERE ll.libro_id = l.id)
+              AND NOT EXISTS (SELECT 1 FROM ConsigliLibri c WHERE c.libro_consigliato_id = l.id)
+            RETURNING l.id
+            """;
+
+    private final MessageDigest sha256;
+    private final byte[] separatore = {0};
+
+    private int nuovi;
+    private int aggiornati;
+    private int invariati;
+    private int scartate;
+
+    private CaricatoreIncrementale() {
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+
+    /**
+     * Confronta il file CSV con il contenuto della tabella Libri e applica solo le differenze.
+     * La tabella Libri_Hash deve esistere.
+     *
+     * @param filePath Percorso del file CSV da leggere
+     * @param connection Connessione al database
+     * @return Numero di libri inseriti, aggiornati o eliminati; -1 se l'aggiornamento e' fallito
+     */
+    public static int aggiornaDaCSV(String filePath, Connection connection) {
+        return new CaricatoreIncrementale().aggiorna(filePath, connection);
+    }
+
+    private int aggiorna(String filePath, Connection connection) {
+        long inizio = System.nanoTime();
+        try {
+            connection.setAutoCommit(false);
+            try {
+                // id -> hash salvato (null per i libri caricati prima dell'esistenza di Libri_Hash);
+                // gli id ritrovati nel file vengono tolti, quelli rimasti alla fine vanno eliminati
+                Map<Long, Long> salvati = leggiHashSalvati(connection);
+                System.out.println("Libri presenti nel database: " + salvati.size());
+
+                applicaModifiche(Path.of(filePath), connection, salvati);
+                int eliminati = elimina(connection, salvati);
+
+                if (nuovi + aggiornati + eliminati > 0) {
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute("ANALYZE Libri");
+                    }
+                }
+                connection.commit();
+
+                System.out.printf("Aggiornamento completato in %.1f s: %d nuovi, %d aggiornati, %d eliminati, %d invariati.%n",
+                        (System.nanoTime() - inizio) / 1e9, nuovi, aggiornati, eliminati, invariati);
+                if (scartate > 0) {
+                    System.out.println("Righe scartate perche' non valide: " + scartate);
+                }
+                return nuovi + aggiornati + eliminati;
+            } catch (SQLException | IOException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            SQLException causa = e.getNextException() != null ? e.getNextException() : e;
+            System.err.println("Errore durante l'aggiornamento, nessuna modifica applicata: " + causa.getMessage());
+            e.printStackTrace();
+        } catch (IOException e) {
+            System.err.println("Errore nella lettura del file CSV, nessuna modifica applicata: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    private static Map<Long, Long> leggiHashSalvati(Connection connection) throws SQLException {
+        Map<Long, Long> salvati = new HashMap<>();
+        try (Statement stmt = connection.createStatement()) {
+            // Con autocommit disattivato il driver legge il risultato a blocchi invece che tutto insieme
+            stmt.setFetchSize(10_000);
+            try (ResultSet rs = stmt.executeQuery(SQL_HASH_SALVATI)) {
+                while (rs.next()) {
+                    long hash = rs.getLong(2);
+                    salvati.put(rs.getLong(1), rs.wasNull() ? null : hash);
+                }
+            }
+        }
+        return salvati;
+    }
+
+    /**
+     * Legge il file e invia in batch solo le righe nuove o con un hash diverso da quello salvato
+     */
+    private void applicaModifiche(Path file, Connection connection, Map<Long, Long> salvati) throws IOException, SQLException {
+        try (PreparedStatement psLibri = connection.prepareStatement(SQL_UPSERT);
+             PreparedStatement psHash = connection.prepareStatement(SQL_UPSERT_HASH)) {
+            int inBatch = 0;
+            // Intervalli di al massimo qualche centinaio di MB, letti uno dopo l'altro
+            for (SuddivisoreCSV.Intervallo intervallo : SuddivisoreCSV.suddividi(file, 1, ForkJoinPool.commonPool())) {
+                TokenizzatoreCSV csv = new TokenizzatoreCSV(TokenizzatoreCSV.mappa(file, intervallo.inizio(), intervallo.lunghezza()));
+                while (csv.prossimoRecord()) {
+                    if (intervallo.inizio() == 0 && csv.inizioRecord() == 0 && LeggiFileCSV.isIntestazione(csv.record())) {
+                        continue;
+                    }
+                    String[] campi = LeggiFileCSV.campiLibro(csv);
+                    if (campi == null) {
+                        scartate++;
+                        continue;
+                    }
+
+                    long id = Long.parseLong(campi[0]);
+                    long hash = hash(campi);
+                    boolean presente = salvati.containsKey(id);
+                    Long salvato = salvati.remove(id);
+                    if (salvato != null && salvato == hash) {
+                        invariati++;
+                        continue;
+                    }
+                    if (presente) {
+                        aggiornati++;
+                    } else {
+                        nuovi++;
+                    }
+
+                    psLibri.setLong(1, id);
+                    for (int i = 1; i < campi.length; i++) {
+                        psLibri.setString(i + 1, campi[i]);
+                    }
+                    psLibri.addBatch();
+                    psHash.setLong(1, id);
+                    psHash.setLong(2, hash);
+                    psHash.addBatch();
+
+                    if (++inBatch == RIGHE_PER_BATCH) {
+                        psLibri.executeBatch();
+                        psHash.executeBatch();
+                        inBatch = 0;
+                    }
+                }
+            }
+            if (inBatch > 0) {
+                psLibri.executeBatch();
+                psHash.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Elimina i libri che non compaiono piu' nel file, tranne quelli ancora usati dagli utenti
+     *
+     * @return numero di libri eliminati
+     */
+    private static int elimina(Connection connection, Map<Long, Long> daEliminare) throws SQLException {
+        if (daEliminare.isEmpty()) {
+            return 0;
+        }
+        int eliminati = 0;
+        try (PreparedStatement ps = connection.prepareStatement(SQL_ELIMINA)) {
+            Array ids = connection.createArrayOf("bigint", daEliminare.keySet().toArray());
+            ps.setArray(1, ids);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    daEliminare.remove(rs.getLong(1));
+                    eliminati++;
+                }
+            }
+            ids.free();
+        }
+        if (!daEliminare.isEmpty()) {
+            List<Long> trattenuti = new ArrayList<>(daEliminare.keySet());
+            System.out.println("Libri non piu' presenti nel file ma non eliminati perche' in una libreria o in un consiglio: "
+                    + trattenuti.size() + " (es. id " + trattenuti.subList(0, Math.min(10, trattenuti.size())) + ")");
+        }
+        return eliminati;
+    }
+
+    /**
+     * Primi 64 bit dello SHA-256 dei campi caricati: basta a distinguere due versioni della stessa riga
+     */
+    private long hash(String[] campi) {
+        for (String campo : campi) {
+            sha256.update(campo.getBytes(StandardCharsets.UTF_8));
+            sha256.update(separatore);
+        }
+        return ByteBuffer.wrap(sha256.digest()).getLong();
+    }
+}
@@ -0,0 +1,262 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caricamento della tabella Libri a pipeline, con commit per blocco.
+ * <p>
+ * Il file viene diviso con {@link SuddivisoreCSV} in intervalli di byte allineati ai record, che
+ * un pool fork-join legge in parallelo con {@link TokenizzatoreCSV}. I libri di ogni intervallo
+ * vengono raccolti in blocchi di record consecutivi e passati agli scrittori, ognuno con la
+ * propria connessione, che inseriscono ogni blocco con un solo executeBatch e lo confermano con
+ * un commit. La coda verso gli scrittori e' limitata, quindi in memoria restano solo pochi
+ * blocchi alla volta.
+ * <p>
+ * Un errore del database (es. id duplicato o campo troppo lungo) annulla solo il blocco in cui
+ * si trova: viene segnalato con le righe del file che lo compongono e il caricamento prosegue.
+ *
+ * @author Taha
+ * @author Sara
+ */
+public class CaricatoreParallelo {
+
+    // Configurabili da riga di comando (es. -Dcaricamento.scrittori=8)
+    private static final int SCRITTORI = Integer.getInteger("caricamento.scrittori", 4);
+    private static final int PARSER = Integer.getInteger("caricamento.parser", Runtime.getRuntime().availableProcessors());
+    private static final int RIGHE_PER_BLOCCO = Integer.getInteger("caricamento.righePerBlocco", 5_000);
+
+    private static final String SQL_INSERT = "INSERT INTO Libri (" + LeggiFileCSV.COLONNE_LIBRI + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Libri di record consecutivi; la fine del file e' segnalata da un blocco con libri null
+     *
+     * @param primaRiga numero nel file della prima riga del blocco, per i messaggi di errore
+     */
+    private record BloccoLibri(long primaRiga, long ultimaRiga, List<String[]> libri) { }
+
+    private static final BloccoLibri FINE_LIBRI = new BloccoLibri(-1, -1, null);
+
+    private final AtomicLong inseriti = new AtomicLong();
+    private final AtomicLong scartate = new AtomicLong();
+    private final AtomicLong blocchiFalliti = new AtomicLong();
+    private final AtomicLong libriPersi = new AtomicLong();
+
+    /**
+     * Legge il file CSV e ne carica i libri con piu' connessioni in parallelo.
+     *
+     * @param filePath Percorso del file CSV da leggere
+     * @param jdbcUrl URL del database da popolare; ogni scrittore apre la propria connessione
+     * @return Numero di libri inseriti, esclusi quelli dei blocchi annullati
+     */
+    public static int popolaDatabaseInParallelo(String filePath, String jdbcUrl, String user, String password) {
+        return new CaricatoreParallelo().carica(filePath, jdbcUrl, user, password);
+    }
+
+    private int carica(String filePath, String jdbcUrl, String user, String password) {
+        long inizio = System.nanoTime();
+
+        // Connessioni aperte prima di partire: se una fallisce non si carica nulla
+        List<Connection> connessioni = new ArrayList<>();
+        try {
+            for (int i = 0; i < SCRITTORI; i++) {
+                Connection c = DriverManager.getConnection(jdbcUrl, user, password);
+                connessioni.add(c);
+                c.setAutoCommit(false);
+            }
+        } catch (SQLException e) {
+            System.err.println("Errore nell'apertura delle connessioni per il caricamento: " + e.getMessage());
+            connessioni.forEach(CaricatoreParallelo::chiudi);
+            return 0;
+        }
+
+        BlockingQueue<BloccoLibri> codaLibri = new ArrayBlockingQueue<>(2 * SCRITTORI);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < SCRITTORI; i++) {
+            Connection c = connessioni.get(i);
+            threads.add(new Thread(() -> scrivi(c, codaLibri), "csv-scrittore-" + (i + 1)));
+        }
+        threads.forEach(Thread::start);
+
+        ForkJoinPool pool = new ForkJoinPool(PARSER);
+        try {
+            leggi(Path.of(filePath), pool, codaLibri);
+        } finally {
+            pool.shutdown();
+            for (int i = 0; i < SCRITTORI; i++) {
+                metti(codaLibri, FINE_LIBRI);
+            }
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        connessioni.forEach(CaricatoreParallelo::chiudi);
+
+        double secondi = (System.nanoTime() - inizio) / 1e9;
+        System.out.printf("Inseriti %d libri nel database in %.1f s (%.0f righe/s) con %d connessioni.%n",
+                inseriti.get(), secondi, secondi <= 0 ? 0 : inseriti.get() / secondi, SCRITTORI);
+        if (scartate.get() > 0) {
+            System.out.println("Righe scartate perche' non valide: " + scartate.get());
+        }
+        if (blocchiFalliti.get() > 0) {
+            System.out.println("Blocchi annullati per errori del database: " + blocchiFalliti.get()
+                    + " (" + libriPersi.get() + " libri non inseriti)");
+        }
+        return (int) inseriti.get();
+    }
+
+    /**
+     * Fasi di suddivisione e parsing: ogni intervallo del file e' letto da un compito del pool
+     */
+    private void leggi(Path file, ForkJoinPool pool, BlockingQueue<BloccoLibri> codaLibri) {
+        try {
+            // Piu' intervalli che thread, cosi' quelli che finiscono prima non restano fermi
+            List<SuddivisoreCSV.Intervallo> intervalli = SuddivisoreCSV.suddividi(file, 4 * PARSER, pool);
+            List<Callable<Void>> compiti = new ArrayList<>(intervalli.size());
+            for (SuddivisoreCSV.Intervallo intervallo : intervalli) {
+                compiti.add(() -> {
+                    analizza(file, intervallo, codaLibri);
+                    return null;
+                });
+            }
+            List<Future<Void>> esiti = pool.invokeAll(compiti);
+            for (int i = 0; i < esiti.size(); i++) {
+                try {
+                    esiti.get(i).get();
+                } catch (ExecutionException e) {
+                    // Gli altri intervalli sono gia' stati caricati: si segnala solo quello perso
+                    System.err.println("Errore nella lettura del file CSV dalla riga " + intervalli.get(i).primaRiga()
+                            + ", resto dell'intervallo non caricato: " + e.getCause().getMessage());
+                    e.getCause().printStackTrace();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nella lettura del file CSV, caricamento interrotto: " + e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Caricamento interrotto", e);
+        }
+    }
+
+    /**
+     * Fase di parsing di un intervallo: i record non validi vengono segnalati e scartati.
+     * Il thread del pool si blocca se la coda degli scrittori e' piena.
+     */
+    private void analizza(Path file, SuddivisoreCSV.Intervallo intervallo, BlockingQueue<BloccoLibri> codaLibri)
+            throws IOException {
+        MappedByteBuffer mappa = TokenizzatoreCSV.mappa(file, intervallo.inizio(), intervallo.lunghezza());
+        TokenizzatoreCSV csv = new TokenizzatoreCSV(mappa);
+        // Se l'ultimo record non termina con un a capo la sua ultima riga non e' stata contata
+        boolean terminato = mappa.get(mappa.limit() - 1) == '\n';
+
+        List<String[]> libri = new ArrayList<>(RIGHE_PER_BLOCCO);
+        int record = 0;
+        long primaRiga = intervallo.primaRiga();
+        while (csv.prossimoRecord()) {
+            if (intervallo.inizio() == 0 && csv.inizioRecord() == 0 && LeggiFileCSV.isIntestazione(csv.record())) {
+                primaRiga = intervallo.primaRiga() + csv.righeLette();
+                continue;
+            }
+            String[] campi = LeggiFileCSV.campiLibro(csv);
+            if (campi != null) {
+                libri.add(campi);
+            } else {
+                scartate.incrementAndGet();
+            }
+            if (++record == RIGHE_PER_BLOCCO) {
+                long rigaSuccessiva = intervallo.primaRiga() + csv.righeLette();
+                metti(codaLibri, new BloccoLibri(primaRiga, rigaSuccessiva - 1, libri));
+                libri = new ArrayList<>(RIGHE_PER_BLOCCO);
+                record = 0;
+                primaRiga = rigaSuccessiva;
+            }
+        }
+        if (record > 0) {
+            long ultimaRiga = intervallo.primaRiga() + csv.righeLette() - (terminato ? 1 : 0);
+            metti(codaLibri, new BloccoLibri(primaRiga, ultimaRiga, libri));
+        }
+    }
+
+    /**
+     * Fase di scrittura: un executeBatch e un commit per blocco, rollback del solo blocco in errore
+     */
+    private void scrivi(Connection connessione, BlockingQueue<BloccoLibri> codaLibri) {
+        try (PreparedStatement ps = connessione.prepareStatement(SQL_INSERT)) {
+            BloccoLibri blocco;
+            while ((blocco = prendi(codaLibri)) != FINE_LIBRI) {
+                try {
+                    for (String[] campi : blocco.libri()) {
+                        ps.setInt(1, Integer.parseInt(campi[0]));
+                        for (int i = 1; i < campi.length; i++) {
+                            ps.setString(i + 1, campi[i]);
+                        }
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    connessione.commit();
+                    inseriti.addAndGet(blocco.libri().size());
+                } catch (SQLException e) {
+                    blocchiFalliti.incrementAndGet();
+                    libriPersi.addAndGet(blocco.libri().size());
+                    SQLException causa = e.getNextException() != null ? e.getNextException() : e;
+                    System.err.println("Blocco delle righe " + blocco.primaRiga() + "-" + blocco.ultimaRiga()
+                            + " annullato: " + causa.getMessage());
+                    ps.clearBatch();
+                    connessione.rollback();
+                }
+            }
+        } catch (SQLException e) {
+            // La connessione non e' piu' utilizzabile: i blocchi che le toccano vanno persi, ma la
+            // coda va smaltita comunque per non bloccare la lettura
+            System.err.println("Scrittore " + Thread.currentThread().getName() + " interrotto: " + e.getMessage());
+            e.printStackTrace();
+            BloccoLibri blocco;
+            while ((blocco = prendi(codaLibri)) != FINE_LIBRI) {
+                blocchiFalliti.incrementAndGet();
+                libriPersi.addAndGet(blocco.libri().size());
+            }
+        }
+    }
+
+    private static <T> T prendi(BlockingQueue<T> coda) {
+        try {
+            return coda.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Caricamento interrotto", e);
+        }
+    }
+
+    private static <T> void metti(BlockingQueue<T> coda, T elemento) {
+        try {
+            coda.put(elemento);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Caricamento interrotto", e);
+        }
+    }
+
+    private static void chiudi(Connection connessione) {
+        try {
+            connessione.close();
+        } catch (SQLException ignored) { }
+    }
+}
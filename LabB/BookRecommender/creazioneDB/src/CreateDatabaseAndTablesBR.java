@@ -10,7 +10,15 @@ import java.util.List;
  * Crea il database "dbBR" e le tabelle relative.
  *
  * Uso:
- *   java -jar DBCreatorBR-1.0-jar-with-dependencies.jar <db_user> <db_password>
+ *   java -jar DBCreatorBR-1.0-jar-with-dependencies.jar <db_user> <db_password> [batch|copy|parallelo|incrementale]
+ *
+ * La modalita' di caricamento dei libri e' opzionale: "batch" (predefinita) usa un batch di insert,
+ * "copy" invia le righe al server con COPY ... FROM STDIN, molto piu' veloce sui file grandi,
+ * "parallelo" legge il file su piu' core e inserisce blocchi di righe con piu' connessioni e un
+ * commit per blocco, cosi' una riga rifiutata annulla solo il proprio blocco (vedi
+ * CaricatoreParallelo per i parametri).
+ * "incrementale" non ricrea database e tabelle: confronta il file con il catalogo gia' caricato e
+ * inserisce, aggiorna o elimina solo i libri cambiati (vedi CaricatoreIncrementale).
  *
  * Nota: il comando di DROP/CREATE database richiede privilegi adeguati (tipicamente l'utente postgres
  * o un utente con permessi CREATE DATABASE).
@@ -39,6 +47,15 @@ public class CreateDatabaseAndTablesBR {
             );
             """;
 
+    // Vettore per la ricerca full-text, calcolato da PostgreSQL a ogni insert/update
+    // (pesi: A=titolo, B=autori, C=descrizione; stemming italiano e inglese)
+    private static final String colonnaRicercaFts = """
+            ricerca_fts   tsvector GENERATED ALWAYS AS (
+                setweight(to_tsvector('italian', coalesce(titolo, '')) || to_tsvector('english', coalesce(titolo, '')), 'A') ||
+                setweight(to_tsvector('italian', coalesce(autori, '')) || to_tsvector('english', coalesce(autori, '')), 'B') ||
+                setweight(to_tsvector('italian', coalesce(descrizione, '')) || to_tsvector('english', coalesce(descrizione, '')), 'C')
+              ) STORED""";
+
     private static final String createLibri = """
             CREATE TABLE Libri (
               id            BIGINT PRIMARY KEY,
@@ -48,7 +65,21 @@ public class CreateDatabaseAndTablesBR {
               descrizione   TEXT,
               categorie     VARCHAR(500),
               editore       VARCHAR(500),
-              prezzo        VARCHAR(256)
+              prezzo        VARCHAR(256),
+              %s
+            );
+            """.formatted(colonnaRicercaFts);
+
+    // Porta alla struttura attuale una tabella Libri creata da una versione precedente dello script,
+    // senza toccarne i dati; su una tabella gia' aggiornata non fa niente
+    private static final String aggiornaColonneLibri =
+            "ALTER TABLE Libri ADD COLUMN IF NOT EXISTS " + colonnaRicercaFts;
+
+    // Hash del contenuto di ogni libro, usato dall'aggiornamento incrementale per saltare le righe invariate
+    private static final String createLibriHash = """
+            CREATE TABLE IF NOT EXISTS Libri_Hash (
+              id            BIGINT PRIMARY KEY REFERENCES Libri(id) ON DELETE CASCADE,
+              hash          BIGINT NOT NULL
             );
             """;
 
@@ -118,24 +149,51 @@ public class CreateDatabaseAndTablesBR {
             );
             """;
 
+    // Indici creati dopo il caricamento del CSV (costruirli a tabella piena e' piu' veloce
+    // che aggiornarli riga per riga durante gli insert)
+    // Gli indici trigram (pg_trgm) servono le ricerche "contiene" del server, che filtrano con
+    // LOWER(titolo) LIKE '%...%' e LOWER(autori) LIKE '%...%': le espressioni devono coincidere.
+    // IF NOT EXISTS permette di aggiungere gli indici mancanti a un database esistente
+    private static final String createIndiciLibri = """
+            CREATE EXTENSION IF NOT EXISTS pg_trgm;
+            CREATE INDEX IF NOT EXISTS idx_libri_titolo_id ON Libri (titolo, id);
+            CREATE INDEX IF NOT EXISTS idx_libri_titolo_trgm ON Libri USING gin (LOWER(titolo) gin_trgm_ops);
+            CREATE INDEX IF NOT EXISTS idx_libri_autori_trgm ON Libri USING gin (LOWER(autori) gin_trgm_ops);
+            CREATE INDEX IF NOT EXISTS idx_libri_ricerca_fts ON Libri USING gin (ricerca_fts);
+            CREATE INDEX IF NOT EXISTS idx_libri_anno ON Libri (((substring(anno from '[0-9]{4}'))::int));
+            CREATE INDEX IF NOT EXISTS idx_libri_prezzo ON Libri (((substring(prezzo from '[0-9]+(?:[.][0-9]+)?'))::numeric));
+            CREATE INDEX IF NOT EXISTS idx_libri_editore ON Libri (btrim(editore));
+            """;
+
    
     public static void main(String[] args) {
         String LIBRI_FILE = "Libri.dati.csv";
       
-        if (args.length != 2) {
-            System.out.println("Utilizzo: java -jar DBCreatorBR-1.0-jar-with-dependencies.jar <user> <password>");
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Utilizzo: java -jar DBCreatorBR-1.0-jar-with-dependencies.jar <user> <password> [batch|copy|parallelo|incrementale]");
             System.exit(1);
         }
         user = args[0];
         password = args[1];
+        String modalita = args.length == 3 ? args[2] : "batch";
+        if (!List.of("batch", "copy", "parallelo", "incrementale").contains(modalita)) {
+            System.out.println("Modalita' di caricamento sconosciuta: " + modalita + " (valori ammessi: batch, copy, parallelo, incrementale)");
+            System.exit(1);
+        }
 
         // Verifica preliminare della struttura del CSV
         System.out.println("Verifica struttura del file CSV...");
         
 
+        if (modalita.equals("incrementale")) {
+            // Database, tabelle e indici restano quelli esistenti
+            aggiornaLibriDaCSV(LIBRI_FILE);
+            return;
+        }
         createDatabase();
         createTables();
-        populateLibriFromCSV(LIBRI_FILE);
+        populateLibriFromCSV(LIBRI_FILE, modalita);
+        createIndexes();
     }
 
     /**
@@ -189,6 +247,7 @@ public class CreateDatabaseAndTablesBR {
                 DROP TABLE IF EXISTS ValutazioniLibri CASCADE;
                 DROP TABLE IF EXISTS Libreria_Libro CASCADE;
                 DROP TABLE IF EXISTS Librerie CASCADE;
+                DROP TABLE IF EXISTS Libri_Hash CASCADE;
                 DROP TABLE IF EXISTS Libri CASCADE;
                 DROP TABLE IF EXISTS UtentiRegistrati CASCADE;
                 """;
@@ -200,6 +259,7 @@ public class CreateDatabaseAndTablesBR {
             // Crea tabelle nell'ordine corretto per le FK
             stmt.executeUpdate(createUtentiRegistrati);
             stmt.executeUpdate(createLibri);
+            stmt.executeUpdate(createLibriHash);
             stmt.executeUpdate(createLibrerie);
             stmt.executeUpdate(createLibreriaLibro);
             stmt.executeUpdate(createValutazioniLibri);
@@ -214,6 +274,33 @@ public class CreateDatabaseAndTablesBR {
         }
     }
 
+    /**
+     * Crea gli indici sulla tabella Libri usati dalle ricerche del server:
+     * paginazione keyset su titolo e id, ricerche per sottostringa su titolo e autori
+     * e ricerca full-text per parole chiave.
+     * Richiede i privilegi per creare l'estensione pg_trgm.
+     */
+    public static void createIndexes() {
+        try {
+            conn = DBConnectionSingleton.initialiseConnectionAndGet(DB_URL, user, password);
+        } catch (SQLException e) {
+            System.out.println("Errore nella connessione al database specifico: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(createIndiciLibri);
+            stmt.executeUpdate("ANALYZE Libri");
+            System.out.println("Indici sulla tabella Libri creati con successo.");
+        } catch (SQLException e) {
+            System.out.println("Errore nella creazione degli indici: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DBConnectionSingleton.closeConnectionQuietly();
+        }
+    }
+
     /**
      * Semplice singleton per gestire la connessione JDBC.
      * Lo mettiamo nello stesso file per comodità; se hai già una classe simile usa quella.
@@ -245,7 +332,13 @@ public class CreateDatabaseAndTablesBR {
 
     }
 
-    public static void populateLibriFromCSV(String csvPath) {
+    public static void populateLibriFromCSV(String csvPath, String modalita) {
+        if (modalita.equals("parallelo")) {
+            // Ogni scrittore apre la propria connessione
+            int libriInseriti = CaricatoreParallelo.popolaDatabaseInParallelo(csvPath, DB_URL, user, password);
+            System.out.println("Tabella Libri popolata da CSV. Inseriti " + libriInseriti + " libri.");
+            return;
+        }
         try {
             conn = DBConnectionSingleton.initialiseConnectionAndGet(DB_URL, user, password);
         } catch (SQLException e) {
@@ -255,7 +348,9 @@ public class CreateDatabaseAndTablesBR {
         }
     
         // Utilizzo la nuova classe LeggiFileCSV per popolare direttamente il database
-        int libriInseriti = LeggiFileCSV.popolaDatabaseDaCSV(csvPath, conn);
+        int libriInseriti = modalita.equals("copy")
+                ? CaricatoreCopy.popolaDatabaseConCopy(csvPath, conn)
+                : LeggiFileCSV.popolaDatabaseDaCSV(csvPath, conn);
         
         if (libriInseriti > 0) {
             System.out.println("Tabella Libri popolata correttamente da CSV. Inseriti " + libriInseriti + " libri.");
@@ -264,4 +359,42 @@ public class CreateDatabaseAndTablesBR {
         }
     }
 
+    /**
+     * Aggiorna la tabella Libri di un database gia' esistente con le sole differenze rispetto al
+     * file CSV. Le tabelle degli utenti, delle librerie e delle valutazioni non vengono modificate.
+     */
+    public static void aggiornaLibriDaCSV(String csvPath) {
+        try {
+            conn = DBConnectionSingleton.initialiseConnectionAndGet(DB_URL, user, password);
+        } catch (SQLException e) {
+            System.out.println("Errore nella connessione al database specifico: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            // Database creati da versioni precedenti dello script possono non avere la colonna per
+            // la ricerca full-text, gli indici usati dal server e la tabella degli hash
+            System.out.println("Verifica della struttura della tabella Libri (la prima volta puo' richiedere alcuni minuti)...");
+            stmt.executeUpdate(aggiornaColonneLibri);
+            stmt.executeUpdate(createIndiciLibri);
+            stmt.executeUpdate(createLibriHash);
+
+            int modifiche = CaricatoreIncrementale.aggiornaDaCSV(csvPath, conn);
+            if (modifiche == 0) {
+                System.out.println("La tabella Libri e' gia' aggiornata.");
+            } else if (modifiche > 0) {
+                System.out.println("Tabella Libri aggiornata da CSV. Libri modificati: " + modifiche);
+                System.out.println("Un server BookRecommender gia' avviato continua a usare i dati vecchi: invocare "
+                        + "l'operazione JMX 'ricarica' di bookrecommender:type=Catalogo,nome=\"libri\" (es. da jconsole) "
+                        + "oppure riavviare il server.");
+            }
+        } catch (SQLException e) {
+            System.out.println("Errore nell'aggiornamento della struttura della tabella Libri: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DBConnectionSingleton.closeConnectionQuietly();
+        }
+    }
+
 }
@@ -16,6 +16,10 @@ import java.util.List;
  */
 public class LeggiFileCSV {
 
+    // Colonne di Libri caricate dal CSV, nell'ordine dei campi restituiti da campiLibro. La colonna
+    // ricerca_fts non compare perche' e' generata: PostgreSQL la calcola per ogni riga inserita
+    static final String COLONNE_LIBRI = "id, titolo, autori, anno, descrizione, categorie, editore, prezzo";
+
     /**
      * Legge un file CSV e popola direttamente la tabella Libri nel database.
      * 
@@ -31,51 +35,32 @@ public class LeggiFileCSV {
             boolean primaRiga = true; // Per saltare l'header se presente
             
             // Preparo la query SQL una sola volta
-            String sql = "INSERT INTO Libri (id, titolo, autori, anno, descrizione, categorie, editore, prezzo) " +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+            String sql = "INSERT INTO Libri (" + COLONNE_LIBRI + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
             
             try (PreparedStatement ps = connection.prepareStatement(sql)) {
                 
                 while ((line = br.readLine()) != null) {
                     // Salto la prima riga se sembra un header
-                    if (primaRiga && (line.toLowerCase().contains("id") || line.toLowerCase().contains("titolo"))) {
+                    if (primaRiga) {
                         primaRiga = false;
-                        continue;
+                        if (isIntestazione(line)) {
+                            continue;
+                        }
                     }
                     
-                    String[] fields = splitLine(line);
-                    
-                    if (fields.length == 9) {
-                        try {
-                            // Estraggo i campi direttamente
-                            int id = Integer.parseInt(fields[0].trim());
-                            String titolo = fields[1].trim();
-                            String autori = fields[2].trim();
-                            String anno = fields[8].trim(); // Anno di pubblicazione
-                            String descrizione = fields[3].trim();
-                            String categorie = fields[4].trim();
-                            String editore = fields[5].trim();
-                            String prezzo = fields[6].trim();
-                            
-                            // Imposto i parametri della query
-                            ps.setInt(1, id);
-                            ps.setString(2, titolo);
-                            ps.setString(3, autori);
-                            ps.setString(4, anno);
-                            ps.setString(5, descrizione);
-                            ps.setString(6, categorie);
-                            ps.setString(7, editore);
-                            ps.setString(8, prezzo);
-                            
-                            ps.addBatch(); // Aggiungo al batch
-                            libriInseriti++;
-                            
-                        } catch (NumberFormatException e) {
-                            System.err.println("Errore nel parsing dell'ID alla riga: " + line);
-                        }
-                    } else {
-                        System.err.println("Riga con numero di campi errato (" + fields.length + "): " + line);
+                    String[] campi = campiLibro(line);
+                    if (campi == null) {
+                        continue;
                     }
+
+                    // Imposto i parametri della query
+                    ps.setInt(1, Integer.parseInt(campi[0]));
+                    for (int i = 1; i < campi.length; i++) {
+                        ps.setString(i + 1, campi[i]);
+                    }
+
+                    ps.addBatch(); // Aggiungo al batch
+                    libriInseriti++;
                 }
                 
                 // Eseguo tutti gli insert in batch
@@ -95,20 +80,82 @@ public class LeggiFileCSV {
         return libriInseriti;
     }
 
+    /**
+     * @return true se la prima riga del file e' l'intestazione delle colonne
+     */
+    static boolean isIntestazione(String line) {
+        String minuscola = line.toLowerCase();
+        return minuscola.contains("id") || minuscola.contains("titolo");
+    }
+
+    /**
+     * Estrae da una riga del CSV i campi di un libro, nell'ordine di {@link #COLONNE_LIBRI}.
+     * Le righe non valide vengono segnalate su System.err.
+     *
+     * @return i campi gia' ripuliti dagli spazi (l'id e' un intero valido), null se la riga va scartata
+     */
+    static String[] campiLibro(String line) {
+        String[] fields = splitLine(line);
+        if (fields.length != 9) {
+            System.err.println("Riga con numero di campi errato (" + fields.length + "): " + line);
+            return null;
+        }
+        String id = fields[0].trim();
+        try {
+            Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            System.err.println("Errore nel parsing dell'ID alla riga: " + line);
+            return null;
+        }
+        // Anno di pubblicazione nell'ultimo campo del CSV
+        return new String[] { id, fields[1].trim(), fields[2].trim(), fields[8].trim(), fields[3].trim(),
+                fields[4].trim(), fields[5].trim(), fields[6].trim() };
+    }
+
+    /**
+     * Come {@link #campiLibro(String)}, per il record corrente di un {@link TokenizzatoreCSV}:
+     * vengono create solo le stringhe dei campi caricati (il mese di pubblicazione e' ignorato).
+     *
+     * @return i campi nell'ordine di {@link #COLONNE_LIBRI}, null se il record va scartato
+     */
+    static String[] campiLibro(TokenizzatoreCSV csv) {
+        if (csv.numeroCampi() != 9) {
+            System.err.println("Riga con numero di campi errato (" + csv.numeroCampi() + "): " + csv.record());
+            return null;
+        }
+        int id;
+        try {
+            id = csv.campoIntero(0);
+        } catch (NumberFormatException e) {
+            System.err.println("Errore nel parsing dell'ID alla riga: " + csv.record());
+            return null;
+        }
+        return new String[] { Integer.toString(id), csv.campo(1), csv.campo(2), csv.campo(8), csv.campo(3),
+                csv.campo(4), csv.campo(5), csv.campo(6) };
+    }
+
     /**
      * Divide una riga di testo in un array di stringhe, tenendo conto delle virgole all'interno delle virgolette.
+     * Le virgolette si interpretano come in {@link TokenizzatoreCSV}: {@code ""} tra virgolette vale una
+     * virgoletta, cosi' tutte le modalita' di caricamento scrivono lo stesso testo.
      * 
      * @param line La riga di testo da dividere
      * @return Un array di stringhe contenente i campi estratti
      */
-    private static String[] splitLine(String line) {
+    static String[] splitLine(String line) {
         List<String> fields = new ArrayList<>();
         StringBuilder field = new StringBuilder();
         boolean virgolette = false;
 
-        for (char c : line.toCharArray()) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
             if (c == '"') {
-                virgolette = !virgolette;
+                if (virgolette && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    virgolette = !virgolette;
+                }
             } else if (c == ',' && !virgolette) {
                 fields.add(field.toString());
                 field.setLength(0);
@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Divide un file CSV in intervalli di byte che iniziano e finiscono a un confine di record, da
+ * leggere in parallelo con {@link TokenizzatoreCSV}.
+ * <p>
+ * Un a capo separa due record solo se e' fuori dalle virgolette, e da una posizione qualsiasi del
+ * file non si puo' sapere se lo e'. Per questo il file viene prima diviso in parti uguali, di cui
+ * si contano in parallelo virgolette e a capo: la parita' delle virgolette che precedono ogni
+ * confine dice se il confine cade dentro un campo tra virgolette (una {@code ""} ne conta due,
+ * quindi non cambia lo stato). Da ogni confine ci si sposta poi al primo a capo fuori dalle
+ * virgolette, che resta corretto anche con descrizioni su piu' righe.
+ *
+ * @author Taha
+ * @author Sara
+ */
+public class SuddivisoreCSV {
+
+    // Dimensione massima delle parti iniziali: ogni intervallo viene mappato in un solo buffer
+    private static final long MASSIMO_PER_PARTE = 256L << 20;
+    private static final int DIMENSIONE_LETTURA = 64 * 1024;
+
+    /**
+     * Porzione del file che contiene solo record interi
+     *
+     * @param inizio primo byte dell'intervallo
+     * @param fine primo byte dopo l'intervallo
+     * @param primaRiga numero nel file della riga in cui inizia l'intervallo, contando da 1
+     */
+    public record Intervallo(long inizio, long fine, long primaRiga) {
+
+        public long lunghezza() {
+            return fine - inizio;
+        }
+    }
+
+    /**
+     * Divide il file in almeno {@code parti} intervalli allineati ai record (meno se il file e'
+     * piccolo o se un campo tra virgolette copre piu' parti), contando e allineando nel pool dato.
+     *
+     * @return gli intervalli in ordine, che coprono tutto il file
+     */
+    public static List<Intervallo> suddividi(Path file, int parti, ForkJoinPool pool) throws IOException {
+        long dimensione = Files.size(file);
+        if (dimensione == 0) {
+            return List.of();
+        }
+        long numeroParti = Math.max(parti, (dimensione + MASSIMO_PER_PARTE - 1) / MASSIMO_PER_PARTE);
+        int n = (int) Math.min(numeroParti, dimensione);
+        long[] confini = new long[n + 1];
+        for (int i = 0; i <= n; i++) {
+            confini[i] = dimensione * i / n;
+        }
+
+        List<Callable<long[]>> conteggi = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long inizio = confini[i];
+            long fine = confini[i + 1];
+            conteggi.add(() -> conta(file, inizio, fine));
+        }
+        List<long[]> virgoletteEACapo = esegui(pool, conteggi);
+
+        List<Callable<long[]>> allineamenti = new ArrayList<>(n - 1);
+        long virgolette = 0;
+        long aCapo = 0;
+        for (int i = 1; i < n; i++) {
+            virgolette += virgoletteEACapo.get(i - 1)[0];
+            aCapo += virgoletteEACapo.get(i - 1)[1];
+            long confine = confini[i];
+            boolean traVirgolette = (virgolette & 1) == 1;
+            long righePrecedenti = aCapo;
+            allineamenti.add(() -> allinea(file, confine, dimensione, traVirgolette, righePrecedenti));
+        }
+
+        List<Intervallo> intervalli = new ArrayList<>(n);
+        long inizio = 0;
+        long primaRiga = 1;
+        for (long[] allineato : esegui(pool, allineamenti)) {
+            // Confini finiti nello stesso campo tra virgolette portano allo stesso a capo
+            if (allineato[0] > inizio) {
+                intervalli.add(nuovoIntervallo(inizio, allineato[0], primaRiga));
+                inizio = allineato[0];
+                primaRiga = allineato[1];
+            }
+        }
+        if (inizio < dimensione) {
+            intervalli.add(nuovoIntervallo(inizio, dimensione, primaRiga));
+        }
+        return intervalli;
+    }
+
+    private static Intervallo nuovoIntervallo(long inizio, long fine, long primaRiga) throws IOException {
+        if (fine - inizio > Integer.MAX_VALUE) {
+            throw new IOException("Record di oltre 2 GB a partire dalla riga " + primaRiga + ": virgolette non chiuse?");
+        }
+        return new Intervallo(inizio, fine, primaRiga);
+    }
+
+    /**
+     * @return virgolette e a capo tra inizio (compreso) e fine (escluso)
+     */
+    private static long[] conta(Path file, long inizio, long fine) throws IOException {
+        MappedByteBuffer parte = TokenizzatoreCSV.mappa(file, inizio, fine - inizio);
+        long virgolette = 0;
+        long aCapo = 0;
+        for (int p = 0, limite = parte.limit(); p < limite; p++) {
+            byte b = parte.get(p);
+            if (b == '"') {
+                virgolette++;
+            } else if (b == '\n') {
+                aCapo++;
+            }
+        }
+        return new long[] { virgolette, aCapo };
+    }
+
+    /**
+     * Cerca il primo a capo fuori dalle virgolette a partire dal confine
+     *
+     * @return posizione del byte dopo l'a capo (la fine del file se non ce ne sono) e numero
+     *         della riga che inizia li'
+     */
+    private static long[] allinea(Path file, long confine, long dimensione, boolean traVirgolette, long righePrecedenti)
+            throws IOException {
+        long riga = righePrecedenti + 1;
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(DIMENSIONE_LETTURA);
+            long posizione = confine;
+            while (posizione < dimensione) {
+                buffer.clear();
+                int letti = canale.read(buffer, posizione);
+                if (letti <= 0) {
+                    break;
+                }
+                for (int p = 0; p < letti; p++) {
+                    byte b = buffer.get(p);
+                    if (b == '"') {
+                        traVirgolette = !traVirgolette;
+                    } else if (b == '\n') {
+                        riga++;
+                        if (!traVirgolette) {
+                            return new long[] { posizione + p + 1, riga };
+                        }
+                    }
+                }
+                posizione += letti;
+            }
+        }
+        return new long[] { dimensione, riga };
+    }
+
+    private static <T> List<T> esegui(ForkJoinPool pool, List<Callable<T>> compiti) throws IOException {
+        List<T> risultati = new ArrayList<>(compiti.size());
+        try {
+            for (Future<T> f : pool.invokeAll(compiti)) {
+                risultati.add(f.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IllegalStateException("Errore nella suddivisione del file CSV", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Caricamento interrotto", e);
+        }
+        return risultati;
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Tokenizzatore CSV che lavora direttamente sui byte di un {@link ByteBuffer} (tipicamente un
+ * file mappato in memoria) in UTF-8.
+ * <p>
+ * Per ogni record vengono solo annotati inizio e fine di ogni campo negli array interni,
+ * riusati da un record all'altro: le stringhe vengono create soltanto per i campi richiesti con
+ * {@link #campo(int)}, e l'id si legge con {@link #campoIntero(int)} senza crearne nessuna.
+ * <p>
+ * Le virgolette seguono RFC 4180: un campo tra virgolette puo' contenere virgole e a capo, e
+ * {@code ""} al suo interno vale una virgoletta. Come in {@code LeggiFileCSV.splitLine}, una
+ * virgoletta apre o chiude la parte citata anche a meta' campo e non fa parte del valore.
+ * I record terminano con {@code \n} o {@code \r\n} fuori dalle virgolette.
+ *
+ * @author Taha
+ * @author Sara
+ */
+public class TokenizzatoreCSV {
+
+    private static final byte VIRGOLETTA = '"';
+    private static final byte VIRGOLA = ',';
+    private static final byte A_CAPO = '\n';
+    private static final byte RITORNO = '\r';
+
+    private final ByteBuffer buffer;
+    private final int fine;
+    private int posizione;
+
+    private int inizioRecord;
+    private int fineRecord;
+    private int numeroCampi;
+    private long righeLette;
+    private int[] inizi = new int[16];
+    private int[] fini = new int[16];
+    // true se il campo contiene virgolette da togliere prima di creare la stringa
+    private boolean[] citati = new boolean[16];
+    private byte[] appoggio = new byte[256];
+
+    /**
+     * Legge i record tra la posizione e il limite correnti del buffer, che non viene modificato
+     */
+    public TokenizzatoreCSV(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.posizione = buffer.position();
+        this.fine = buffer.limit();
+    }
+
+    /**
+     * Mappa in memoria in sola lettura una porzione di file (al massimo 2 GB)
+     */
+    public static MappedByteBuffer mappa(Path file, long inizio, long lunghezza) throws IOException {
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+            return canale.map(FileChannel.MapMode.READ_ONLY, inizio, lunghezza);
+        }
+    }
+
+    /**
+     * Avanza al record successivo
+     *
+     * @return false se i record sono finiti
+     */
+    public boolean prossimoRecord() {
+        if (posizione >= fine) {
+            return false;
+        }
+        inizioRecord = posizione;
+        numeroCampi = 0;
+        int p = posizione;
+        int inizioCampo = p;
+        boolean citato = false;
+        boolean traVirgolette = false;
+
+        while (p < fine) {
+            byte b = buffer.get(p);
+            if (b == VIRGOLETTA) {
+                citato = true;
+                // "" dentro le virgolette e' una virgoletta letterale: si resta tra virgolette
+                if (traVirgolette && p + 1 < fine && buffer.get(p + 1) == VIRGOLETTA) {
+                    p += 2;
+                    continue;
+                }
+                traVirgolette = !traVirgolette;
+            } else if (!traVirgolette) {
+                if (b == VIRGOLA) {
+                    aggiungiCampo(inizioCampo, p, citato);
+                    inizioCampo = p + 1;
+                    citato = false;
+                } else if (b == A_CAPO) {
+                    break;
+                }
+            } else if (b == A_CAPO) {
+                righeLette++;
+            }
+            p++;
+        }
+        if (p < fine) {
+            righeLette++;
+        }
+
+        int fineCampo = p;
+        // Il \r prima dell'a capo fa parte del terminatore (tra virgolette solo se il file finisce senza chiuderle)
+        if (!traVirgolette && fineCampo > inizioCampo && buffer.get(fineCampo - 1) == RITORNO) {
+            fineCampo--;
+        }
+        aggiungiCampo(inizioCampo, fineCampo, citato);
+        fineRecord = fineCampo;
+        posizione = p < fine ? p + 1 : fine;
+        return true;
+    }
+
+    public int numeroCampi() {
+        return numeroCampi;
+    }
+
+    /**
+     * @return posizione nel buffer del primo byte del record corrente
+     */
+    public int inizioRecord() {
+        return inizioRecord;
+    }
+
+    /**
+     * @return numero di a capo letti finora, compresi quelli dentro le virgolette: sommato al numero
+     *         della prima riga del buffer da' la riga del file in cui inizia il record successivo
+     */
+    public long righeLette() {
+        return righeLette;
+    }
+
+    /**
+     * @return posizione nel buffer del primo byte non ancora letto
+     */
+    public int posizione() {
+        return posizione;
+    }
+
+    /**
+     * @return il campo senza virgolette e senza spazi iniziali e finali
+     */
+    public String campo(int indice) {
+        int inizio = inizi[indice];
+        int fineCampo = fini[indice];
+        // Spazi e caratteri di controllo sono byte < 0x20 anche in UTF-8: si tolgono senza decodificare
+        while (inizio < fineCampo && Byte.toUnsignedInt(buffer.get(inizio)) <= ' ') {
+            inizio++;
+        }
+        while (fineCampo > inizio && Byte.toUnsignedInt(buffer.get(fineCampo - 1)) <= ' ') {
+            fineCampo--;
+        }
+        if (!citati[indice]) {
+            return decodifica(inizio, fineCampo);
+        }
+
+        // Campo con virgolette: si copiano i byte togliendo quelle di apertura e chiusura
+        int n = 0;
+        byte[] dest = spazio(fineCampo - inizio);
+        boolean traVirgolette = false;
+        for (int p = inizio; p < fineCampo; p++) {
+            byte b = buffer.get(p);
+            if (b == VIRGOLETTA) {
+                if (traVirgolette && p + 1 < fineCampo && buffer.get(p + 1) == VIRGOLETTA) {
+                    dest[n++] = VIRGOLETTA;
+                    p++;
+                } else {
+                    traVirgolette = !traVirgolette;
+                }
+            } else {
+                dest[n++] = b;
+            }
+        }
+        return new String(dest, 0, n, StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Legge un campo intero senza creare stringhe; spazi e virgolette attorno alle cifre sono ammessi
+     *
+     * @throws NumberFormatException se il campo non e' un intero valido
+     */
+    public int campoIntero(int indice) {
+        int p = inizi[indice];
+        int fineCampo = fini[indice];
+        while (p < fineCampo && (buffer.get(p) == VIRGOLETTA || Byte.toUnsignedInt(buffer.get(p)) <= ' ')) {
+            p++;
+        }
+        while (fineCampo > p && (buffer.get(fineCampo - 1) == VIRGOLETTA || Byte.toUnsignedInt(buffer.get(fineCampo - 1)) <= ' ')) {
+            fineCampo--;
+        }
+        boolean negativo = p < fineCampo && buffer.get(p) == '-';
+        if (negativo || (p < fineCampo && buffer.get(p) == '+')) {
+            p++;
+        }
+        if (p == fineCampo) {
+            throw new NumberFormatException("Intero non valido: " + campo(indice));
+        }
+        long valore = 0;
+        for (; p < fineCampo; p++) {
+            int cifra = buffer.get(p) - '0';
+            if (cifra < 0 || cifra > 9) {
+                throw new NumberFormatException("Intero non valido: " + campo(indice));
+            }
+            valore = valore * 10 + cifra;
+            if (valore > Integer.MAX_VALUE + 1L) {
+                throw new NumberFormatException("Intero fuori intervallo: " + campo(indice));
+            }
+        }
+        valore = negativo ? -valore : valore;
+        if (valore < Integer.MIN_VALUE || valore > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Intero fuori intervallo: " + campo(indice));
+        }
+        return (int) valore;
+    }
+
+    /**
+     * @return il testo del record corrente cosi' com'e' nel file, per i messaggi di errore
+     */
+    public String record() {
+        return decodifica(inizioRecord, fineRecord);
+    }
+
+    private void aggiungiCampo(int inizio, int fineCampo, boolean citato) {
+        if (numeroCampi == inizi.length) {
+            inizi = Arrays.copyOf(inizi, numeroCampi * 2);
+            fini = Arrays.copyOf(fini, numeroCampi * 2);
+            citati = Arrays.copyOf(citati, numeroCampi * 2);
+        }
+        inizi[numeroCampi] = inizio;
+        fini[numeroCampi] = fineCampo;
+        citati[numeroCampi] = citato;
+        numeroCampi++;
+    }
+
+    private String decodifica(int inizio, int fineCampo) {
+        int lunghezza = fineCampo - inizio;
+        if (lunghezza <= 0) {
+            return "";
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + inizio, lunghezza, StandardCharsets.UTF_8);
+        }
+        byte[] dest = spazio(lunghezza);
+        buffer.get(inizio, dest, 0, lunghezza);
+        return new String(dest, 0, lunghezza, StandardCharsets.UTF_8);
+    }
+
+    private byte[] spazio(int lunghezza) {
+        if (appoggio.length < lunghezza) {
+            appoggio = new byte[Math.max(lunghezza, appoggio.length * 2)];
+        }
+        return appoggio;
+    }
+}
@@ -0,0 +1,9 @@
+package bookrecommender.condivisi.libri;
+
+/**
+ * Campo del libro su cui effettuare una ricerca testuale.
+ */
+public enum CampoRicerca {
+    TITOLO,
+    AUTORE
+}
@@ -6,10 +6,96 @@ import java.util.List;
 
 public interface CercaLibriService extends Remote {
 
-    List<Libro> cercaLibro_Per_Titolo(String titolo) throws RemoteException;
-    List<Libro> cercaLibro_Per_Autore(String autore) throws RemoteException;
-    List<Libro> cercaLibro_Per_Autore_e_Anno(String Autore, String Anno) throws RemoteException;    
+    /**
+     * Ricerca con criteri combinabili (titolo, autore, parole chiave, categoria, editore,
+     * intervalli di anno e prezzo), ordinamento e limite.
+     *
+     * @param query criteri della ricerca; il server applica comunque un limite massimo ai risultati
+     * @return i libri che soddisfano tutti i criteri impostati
+     * @throws RemoteException in caso di errore di comunicazione RMI
+     */
+    List<LibroSintesi> cercaLibri(LibroQuery query) throws RemoteException;
+
+    // Ricerche equivalenti a una LibroQuery con un solo criterio, mantenute per i client esistenti
+    List<LibroSintesi> cercaLibro_Per_Titolo(String titolo) throws RemoteException;
+    List<LibroSintesi> cercaLibro_Per_Autore(String autore) throws RemoteException;
+    List<LibroSintesi> cercaLibro_Per_Autore_e_Anno(String Autore, String Anno) throws RemoteException;    
 
     Libro getTitoloLibroById(int id) throws RemoteException;
+
+    /**
+     * Carica piu' libri per id con una sola chiamata, ad esempio per mostrare il contenuto
+     * di una libreria o i libri consigliati.
+     *
+     * @param ids id dei libri (al massimo 1000)
+     * @return una lista parallela a {@code ids}: in ogni posizione il libro con quell'id,
+     *         o null se non esiste
+     * @throws RemoteException in caso di errore di comunicazione RMI o di troppi id richiesti
+     */
+    List<Libro> getLibriByIds(int[] ids) throws RemoteException;
+
+    /**
+     * Ricerca full-text per parole chiave su titolo, autori e descrizione.
+     * Il testo accetta la sintassi di una ricerca web (frasi tra virgolette, OR, -parola).
+     *
+     * @param testo parole chiave da cercare
+     * @param limite numero massimo di risultati
+     * @return i libri piu' rilevanti, in ordine di rilevanza decrescente
+     * @throws RemoteException in caso di errore di comunicazione RMI
+     */
+    List<LibroSintesi> cercaLibri_Per_ParoleChiave(String testo, int limite) throws RemoteException;
+
+    /**
+     * Ricerca per titolo o autore tollerante agli errori di battitura. Se la ricerca esatta
+     * non trova nulla vengono restituiti i libri che differiscono di 1-2 caratteri per parola
+     * (es. "Pirandelo" trova "Pirandello"), insieme alle correzioni da proporre all'utente.
+     *
+     * @param testo titolo o autore cercato
+     * @param campo campo su cui cercare
+     * @param limite numero massimo di libri restituiti
+     * @return libri trovati ed eventuali correzioni
+     * @throws RemoteException in caso di errore di comunicazione RMI
+     */
+    RisultatoRicercaFuzzy cercaLibri_Fuzzy(String testo, CampoRicerca campo, int limite) throws RemoteException;
+
+    /**
+     * Ricerca per titolo o autore con facette: restituisce una pagina di risultati insieme al
+     * numero di libri trovati per categoria, decennio, anno ed editore. I filtri restringono
+     * la ricerca ai valori di facetta scelti dall'utente.
+     *
+     * @param testo titolo o autore cercato; vuoto o null per tutto il catalogo
+     * @param campo campo su cui cercare il testo
+     * @param filtri valori di facetta richiesti (null per nessun filtro)
+     * @param pagina numero di pagina, a partire da 0
+     * @param dimensionePagina numero massimo di libri per pagina
+     * @return la pagina richiesta e i conteggi per facetta di tutti i libri trovati
+     * @throws RemoteException in caso di errore di comunicazione RMI
+     */
+    RisultatoRicercaFacette cercaLibri_Con_Facette(String testo, CampoRicerca campo, FiltriFacette filtri,
+                                                  int pagina, int dimensionePagina) throws RemoteException;
+
+    /**
+     * Suggerimenti di completamento per titoli e autori che iniziano con il prefisso indicato
+     * (per gli autori vale anche l'inizio di una qualsiasi parola del nome).
+     *
+     * @param prefisso testo digitato finora dall'utente (almeno 2 caratteri)
+     * @param k numero massimo di suggerimenti
+     * @return i suggerimenti piu' popolari, in ordine di popolarita' decrescente
+     * @throws RemoteException in caso di errore di comunicazione RMI
+     */
+    List<Suggerimento> suggerisci(String prefisso, int k) throws RemoteException;
+
+    /**
+     * Varianti paginate delle ricerche. La prima pagina si ottiene con {@code cursore} null,
+     * le successive passando il {@link PaginaLibri#cursoreSuccessivo()} della pagina precedente.
+     * I risultati sono ordinati per titolo e id.
+     *
+     * @param dimensionePagina numero massimo di libri per pagina
+     * @param cursore cursore opaco restituito dalla pagina precedente, null per la prima pagina
+     * @throws RemoteException in caso di errore di comunicazione RMI o di cursore non valido
+     */
+    PaginaLibri cercaLibro_Per_Titolo_Paginato(String titolo, int dimensionePagina, String cursore) throws RemoteException;
+    PaginaLibri cercaLibro_Per_Autore_Paginato(String autore, int dimensionePagina, String cursore) throws RemoteException;
+    PaginaLibri cercaLibro_Per_Autore_e_Anno_Paginato(String autore, String anno, int dimensionePagina, String cursore) throws RemoteException;
    
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+package bookrecommender.condivisi.libri;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Numero di libri di una ricerca che hanno un certo valore di facetta.
+ *
+ * @param valore valore della facetta (categoria, decennio, anno o editore)
+ * @param conteggio libri trovati con quel valore
+ */
+public record ConteggioFacetta(String valore, int conteggio) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,24 @@
+package bookrecommender.condivisi.libri;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Valori di facetta scelti dall'utente per restringere una ricerca. I campi null non filtrano.
+ *
+ * @param categoria una delle categorie del libro
+ * @param decennio decennio di pubblicazione nella forma restituita da {@link RisultatoRicercaFacette#decenni()}, es. "1990-1999"
+ * @param anno anno di pubblicazione a quattro cifre
+ * @param editore editore del libro
+ */
+public record FiltriFacette(String categoria, String decennio, String anno, String editore) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @return filtri che non escludono nessun libro
+     */
+    public static FiltriFacette nessuno() {
+        return new FiltriFacette(null, null, null, null);
+    }
+}
@@ -0,0 +1,63 @@
+package bookrecommender.condivisi.libri;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codifica dei campi usata da {@link Libro} e {@link LibroSintesi} per viaggiare via RMI.
+ * <p>
+ * Ogni oggetto scrive una versione del formato e una maschera di bit con i campi non null;
+ * seguono solo i campi presenti: l'id come {@code long} primitivo e i testi come lunghezza
+ * in byte (intero a lunghezza variabile, 1 byte fino a 127) seguita dai byte UTF-8.
+ * A differenza di {@code writeUTF} non ci sono limiti di lunghezza del testo.
+ */
+final class FormatoCompatto {
+
+    static final int VERSIONE = 1;
+
+    private FormatoCompatto() { }
+
+    static void scriviTesto(DataOutput out, String testo) throws IOException {
+        byte[] byteTesto = testo.getBytes(StandardCharsets.UTF_8);
+        scriviLunghezza(out, byteTesto.length);
+        out.write(byteTesto);
+    }
+
+    static String leggiTesto(DataInput in) throws IOException {
+        byte[] byteTesto = new byte[leggiLunghezza(in)];
+        in.readFully(byteTesto);
+        return new String(byteTesto, StandardCharsets.UTF_8);
+    }
+
+    static void verificaVersione(int versione) throws IOException {
+        if (versione != VERSIONE) {
+            throw new InvalidObjectException("Versione del formato non supportata: " + versione);
+        }
+    }
+
+    private static void scriviLunghezza(DataOutput out, int lunghezza) throws IOException {
+        while ((lunghezza & ~0x7F) != 0) {
+            out.writeByte((lunghezza & 0x7F) | 0x80);
+            lunghezza >>>= 7;
+        }
+        out.writeByte(lunghezza);
+    }
+
+    private static int leggiLunghezza(DataInput in) throws IOException {
+        int lunghezza = 0;
+        for (int spostamento = 0; spostamento < 32; spostamento += 7) {
+            int b = in.readUnsignedByte();
+            lunghezza |= (b & 0x7F) << spostamento;
+            if ((b & 0x80) == 0) {
+                if (lunghezza < 0) {
+                    break;
+                }
+                return lunghezza;
+            }
+        }
+        throw new InvalidObjectException("Lunghezza di testo non valida");
+    }
+}
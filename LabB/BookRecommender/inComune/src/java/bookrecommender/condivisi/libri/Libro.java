@@ -1,13 +1,29 @@
 package bookrecommender.condivisi.libri;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 /**
  * Classe che rappresenta un libro nel sistema BookRecommender.
  * Corrisponde alla struttura della tabella Libri nel database.
+ * <p>
+ * Viaggia via RMI nel formato compatto di {@link FormatoCompatto}: id primitivo, testi UTF-8
+ * con la loro lunghezza e nessun byte per i campi null.
  */
-public class Libro implements Serializable {
-    private static final long serialVersionUID = 1L;
+public class Libro implements Externalizable {
+    private static final long serialVersionUID = 2L;
+
+    // Bit della maschera dei campi presenti
+    private static final int ID = 1;
+    private static final int TITOLO = 1 << 1;
+    private static final int AUTORI = 1 << 2;
+    private static final int ANNO = 1 << 3;
+    private static final int DESCRIZIONE = 1 << 4;
+    private static final int CATEGORIE = 1 << 5;
+    private static final int EDITORE = 1 << 6;
+    private static final int PREZZO = 1 << 7;
 
     private Long id;
     private String titolo;
@@ -18,7 +34,7 @@ public class Libro implements Serializable {
     private String editore;
     private String prezzo;
 
-    // Costruttore vuoto
+    // Costruttore vuoto, richiesto anche dalla deserializzazione
     public Libro() {}
 
     // Costruttore con tutti i parametri
@@ -60,6 +76,37 @@ public class Libro implements Serializable {
     public String getPrezzo() { return prezzo; }
     public void setPrezzo(String prezzo) { this.prezzo = prezzo; }
 
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        int presenti = (id != null ? ID : 0) | (titolo != null ? TITOLO : 0) | (autori != null ? AUTORI : 0)
+                | (anno != null ? ANNO : 0) | (descrizione != null ? DESCRIZIONE : 0)
+                | (categorie != null ? CATEGORIE : 0) | (editore != null ? EDITORE : 0) | (prezzo != null ? PREZZO : 0);
+        out.writeByte(FormatoCompatto.VERSIONE);
+        out.writeByte(presenti);
+        if (id != null) out.writeLong(id);
+        if (titolo != null) FormatoCompatto.scriviTesto(out, titolo);
+        if (autori != null) FormatoCompatto.scriviTesto(out, autori);
+        if (anno != null) FormatoCompatto.scriviTesto(out, anno);
+        if (descrizione != null) FormatoCompatto.scriviTesto(out, descrizione);
+        if (categorie != null) FormatoCompatto.scriviTesto(out, categorie);
+        if (editore != null) FormatoCompatto.scriviTesto(out, editore);
+        if (prezzo != null) FormatoCompatto.scriviTesto(out, prezzo);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        FormatoCompatto.verificaVersione(in.readUnsignedByte());
+        int presenti = in.readUnsignedByte();
+        id = (presenti & ID) != 0 ? in.readLong() : null;
+        titolo = (presenti & TITOLO) != 0 ? FormatoCompatto.leggiTesto(in) : null;
+        autori = (presenti & AUTORI) != 0 ? FormatoCompatto.leggiTesto(in) : null;
+        anno = (presenti & ANNO) != 0 ? FormatoCompatto.leggiTesto(in) : null;
+        descrizione = (presenti & DESCRIZIONE) != 0 ? FormatoCompatto.leggiTesto(in) : null;
+        categorie = (presenti & CATEGORIE) != 0 ? FormatoCompatto.leggiTesto(in) : null;
+        editore = (presenti & EDITORE) != 0 ? FormatoCompatto.leggiTesto(in) : null;
+        prezzo = (presenti & PREZZO) != 0 ? FormatoCompatto.leggiTesto(in) : null;
+    }
+
     @Override
     public String toString() {
         return "Libro{" +
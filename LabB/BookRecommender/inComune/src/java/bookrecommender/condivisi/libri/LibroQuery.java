@@ -0,0 +1,225 @@
+package bookrecommender.condivisi.libri;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Ricerca di libri composta da criteri opzionali, da inviare a {@link CercaLibriService#cercaLibri(LibroQuery)}.
+ * <p>
+ * Un libro e' restituito se soddisfa tutti i criteri impostati; i criteri non impostati non
+ * filtrano. Si costruisce con {@link #builder()}:
+ * <pre>{@code
+ * LibroQuery query = LibroQuery.builder()
+ *         .titoloContiene("rosa")
+ *         .categoria("Fiction")
+ *         .anniTra(1980, 1999)
+ *         .prezzoTra(0, 20)
+ *         .ordinamento(LibroQuery.Ordinamento.ANNO_DECRESCENTE)
+ *         .limite(50)
+ *         .build();
+ * }</pre>
+ */
+public final class LibroQuery implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public enum Ordinamento {
+        /** Per titolo e id, come le altre ricerche */
+        TITOLO,
+        ANNO_CRESCENTE,
+        ANNO_DECRESCENTE,
+        PREZZO_CRESCENTE,
+        PREZZO_DECRESCENTE,
+        /** Per rilevanza rispetto alle parole chiave; senza parole chiave equivale a TITOLO */
+        RILEVANZA
+    }
+
+    private final String titoloContiene;
+    private final String autoreContiene;
+    private final String paroleChiave;
+    private final String categoria;
+    private final String editore;
+    private final Integer annoMinimo;
+    private final Integer annoMassimo;
+    private final Double prezzoMinimo;
+    private final Double prezzoMassimo;
+    private final Ordinamento ordinamento;
+    private final int limite;
+
+    private LibroQuery(Builder b) {
+        this.titoloContiene = b.titoloContiene;
+        this.autoreContiene = b.autoreContiene;
+        this.paroleChiave = b.paroleChiave;
+        this.categoria = b.categoria;
+        this.editore = b.editore;
+        this.annoMinimo = b.annoMinimo;
+        this.annoMassimo = b.annoMassimo;
+        this.prezzoMinimo = b.prezzoMinimo;
+        this.prezzoMassimo = b.prezzoMassimo;
+        this.ordinamento = b.ordinamento;
+        this.limite = b.limite;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Testo contenuto nel titolo (senza distinzione tra maiuscole e minuscole), o null */
+    public String getTitoloContiene() { return titoloContiene; }
+
+    /** Testo contenuto negli autori (senza distinzione tra maiuscole e minuscole), o null */
+    public String getAutoreContiene() { return autoreContiene; }
+
+    /** Parole da cercare con la ricerca full-text su titolo, autori e descrizione, o null */
+    public String getParoleChiave() { return paroleChiave; }
+
+    /** Una delle categorie del libro, o null */
+    public String getCategoria() { return categoria; }
+
+    /** Editore del libro, o null */
+    public String getEditore() { return editore; }
+
+    /** Anno di pubblicazione minimo (incluso), o null */
+    public Integer getAnnoMinimo() { return annoMinimo; }
+
+    /** Anno di pubblicazione massimo (incluso), o null */
+    public Integer getAnnoMassimo() { return annoMassimo; }
+
+    /** Prezzo minimo (incluso), o null */
+    public Double getPrezzoMinimo() { return prezzoMinimo; }
+
+    /** Prezzo massimo (incluso), o null */
+    public Double getPrezzoMassimo() { return prezzoMassimo; }
+
+    public Ordinamento getOrdinamento() { return ordinamento; }
+
+    /** Numero massimo di libri restituiti; 0 se non c'e' limite */
+    public int getLimite() { return limite; }
+
+    public boolean haParoleChiave() {
+        return paroleChiave != null;
+    }
+
+    /**
+     * @return una copia della query con un limite diverso
+     */
+    public LibroQuery conLimite(int limite) {
+        return new Builder(this).limite(limite).build();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("LibroQuery[");
+        if (titoloContiene != null) sb.append("titolo~'").append(titoloContiene).append("' ");
+        if (autoreContiene != null) sb.append("autore~'").append(autoreContiene).append("' ");
+        if (paroleChiave != null) sb.append("paroleChiave='").append(paroleChiave).append("' ");
+        if (categoria != null) sb.append("categoria='").append(categoria).append("' ");
+        if (editore != null) sb.append("editore='").append(editore).append("' ");
+        if (annoMinimo != null || annoMassimo != null) sb.append("anno=").append(annoMinimo).append("..").append(annoMassimo).append(' ');
+        if (prezzoMinimo != null || prezzoMassimo != null) sb.append("prezzo=").append(prezzoMinimo).append("..").append(prezzoMassimo).append(' ');
+        return sb.append("ordinamento=").append(ordinamento).append(" limite=").append(limite).append(']').toString();
+    }
+
+    public static final class Builder {
+        private String titoloContiene;
+        private String autoreContiene;
+        private String paroleChiave;
+        private String categoria;
+        private String editore;
+        private Integer annoMinimo;
+        private Integer annoMassimo;
+        private Double prezzoMinimo;
+        private Double prezzoMassimo;
+        private Ordinamento ordinamento = Ordinamento.TITOLO;
+        private int limite;
+
+        private Builder() { }
+
+        private Builder(LibroQuery q) {
+            this.titoloContiene = q.titoloContiene;
+            this.autoreContiene = q.autoreContiene;
+            this.paroleChiave = q.paroleChiave;
+            this.categoria = q.categoria;
+            this.editore = q.editore;
+            this.annoMinimo = q.annoMinimo;
+            this.annoMassimo = q.annoMassimo;
+            this.prezzoMinimo = q.prezzoMinimo;
+            this.prezzoMassimo = q.prezzoMassimo;
+            this.ordinamento = q.ordinamento;
+            this.limite = q.limite;
+        }
+
+        public Builder titoloContiene(String titolo) {
+            this.titoloContiene = testoOppureNull(titolo);
+            return this;
+        }
+
+        public Builder autoreContiene(String autore) {
+            this.autoreContiene = testoOppureNull(autore);
+            return this;
+        }
+
+        public Builder paroleChiave(String paroleChiave) {
+            this.paroleChiave = testoOppureNull(paroleChiave);
+            return this;
+        }
+
+        public Builder categoria(String categoria) {
+            this.categoria = testoOppureNull(categoria);
+            return this;
+        }
+
+        public Builder editore(String editore) {
+            this.editore = testoOppureNull(editore);
+            return this;
+        }
+
+        /**
+         * Limita agli anni di pubblicazione compresi tra i due estremi (inclusi); un estremo null non limita
+         */
+        public Builder anniTra(Integer minimo, Integer massimo) {
+            if (minimo != null && massimo != null && minimo > massimo) {
+                throw new IllegalArgumentException("Intervallo di anni non valido: " + minimo + " > " + massimo);
+            }
+            this.annoMinimo = minimo;
+            this.annoMassimo = massimo;
+            return this;
+        }
+
+        /**
+         * Limita ai prezzi compresi tra i due estremi (inclusi); un estremo null non limita
+         */
+        public Builder prezzoTra(Double minimo, Double massimo) {
+            if (minimo != null && massimo != null && minimo > massimo) {
+                throw new IllegalArgumentException("Intervallo di prezzi non valido: " + minimo + " > " + massimo);
+            }
+            this.prezzoMinimo = minimo;
+            this.prezzoMassimo = massimo;
+            return this;
+        }
+
+        public Builder ordinamento(Ordinamento ordinamento) {
+            this.ordinamento = ordinamento == null ? Ordinamento.TITOLO : ordinamento;
+            return this;
+        }
+
+        /**
+         * @param limite numero massimo di risultati; 0 per nessun limite
+         */
+        public Builder limite(int limite) {
+            if (limite < 0) {
+                throw new IllegalArgumentException("Il limite non puo' essere negativo: " + limite);
+            }
+            this.limite = limite;
+            return this;
+        }
+
+        public LibroQuery build() {
+            return new LibroQuery(this);
+        }
+
+        private static String testoOppureNull(String testo) {
+            return testo == null || testo.isBlank() ? null : testo.trim();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package bookrecommender.condivisi.libri;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Vista ridotta di un libro restituita dalle ricerche che producono elenchi: contiene solo i
+ * campi mostrati nelle tabelle dei risultati. Descrizione, categorie, editore e prezzo non
+ * vengono letti dal database ne' trasferiti; il {@link Libro} completo si ottiene per id con
+ * {@link CercaLibriService#getTitoloLibroById(int)}.
+ * <p>
+ * Viaggia via RMI nello stesso formato compatto di {@link Libro}. I campi non sono final solo
+ * perche' {@link #readExternal} deve poterli assegnare: la classe resta non modificabile.
+ */
+public class LibroSintesi implements Externalizable {
+    private static final long serialVersionUID = 2L;
+
+    private static final int ID = 1;
+    private static final int TITOLO = 1 << 1;
+    private static final int AUTORI = 1 << 2;
+    private static final int ANNO = 1 << 3;
+
+    private Long id;
+    private String titolo;
+    private String autori;
+    private String anno;
+
+    /**
+     * Solo per la deserializzazione
+     */
+    public LibroSintesi() { }
+
+    public LibroSintesi(Long id, String titolo, String autori, String anno) {
+        this.id = id;
+        this.titolo = titolo;
+        this.autori = autori;
+        this.anno = anno;
+    }
+
+    /**
+     * @return la sintesi del libro indicato
+     */
+    public static LibroSintesi di(Libro libro) {
+        return new LibroSintesi(libro.getId(), libro.getTitolo(), libro.getAutori(), libro.getAnno());
+    }
+
+    public Long getId() { return id; }
+
+    public String getTitolo() { return titolo; }
+
+    public String getAutori() { return autori; }
+
+    public String getAnno() { return anno; }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        int presenti = (id != null ? ID : 0) | (titolo != null ? TITOLO : 0) | (autori != null ? AUTORI : 0)
+                | (anno != null ? ANNO : 0);
+        out.writeByte(FormatoCompatto.VERSIONE);
+        out.writeByte(presenti);
+        if (id != null) out.writeLong(id);
+        if (titolo != null) FormatoCompatto.scriviTesto(out, titolo);
+        if (autori != null) FormatoCompatto.scriviTesto(out, autori);
+        if (anno != null) FormatoCompatto.scriviTesto(out, anno);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        FormatoCompatto.verificaVersione(in.readUnsignedByte());
+        int presenti = in.readUnsignedByte();
+        id = (presenti & ID) != 0 ? in.readLong() : null;
+        titolo = (presenti & TITOLO) != 0 ? FormatoCompatto.leggiTesto(in) : null;
+        autori = (presenti & AUTORI) != 0 ? FormatoCompatto.leggiTesto(in) : null;
+        anno = (presenti & ANNO) != 0 ? FormatoCompatto.leggiTesto(in) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "LibroSintesi{" +
+                "id=" + id +
+                ", titolo='" + titolo + '\'' +
+                ", autori='" + autori + '\'' +
+                ", anno='" + anno + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,26 @@
+package bookrecommender.condivisi.libri;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Pagina di risultati di una ricerca paginata.
+ *
+ * @param libri libri della pagina, ordinati per titolo e id
+ * @param cursoreSuccessivo cursore opaco da passare per ottenere la pagina successiva,
+ *                          {@code null} se non ci sono altri risultati
+ * @param stimaTotale numero totale di libri trovati, calcolato solo per la prima pagina;
+ *                    {@code -1} se non disponibile
+ * @param totaleEsatto falso se il server ha smesso di contare: i libri trovati sono almeno
+ *                     {@code stimaTotale}
+ */
+public record PaginaLibri(List<LibroSintesi> libri, String cursoreSuccessivo, long stimaTotale, boolean totaleEsatto)
+        implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 2L;
+
+    public boolean haPaginaSuccessiva() {
+        return cursoreSuccessivo != null;
+    }
+}
@@ -0,0 +1,23 @@
+package bookrecommender.condivisi.libri;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Pagina di risultati di una ricerca con i conteggi per facetta dell'intero insieme trovato.
+ * Ogni lista di conteggi e' ordinata per conteggio decrescente.
+ *
+ * @param libri libri della pagina richiesta, ordinati per titolo
+ * @param totale numero di libri trovati (su tutte le pagine)
+ * @param categorie conteggi per categoria
+ * @param decenni conteggi per decennio di pubblicazione
+ * @param anni conteggi per anno di pubblicazione
+ * @param editori conteggi per editore
+ */
+public record RisultatoRicercaFacette(List<LibroSintesi> libri, int totale,
+                                      List<ConteggioFacetta> categorie, List<ConteggioFacetta> decenni,
+                                      List<ConteggioFacetta> anni, List<ConteggioFacetta> editori) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,18 @@
+package bookrecommender.condivisi.libri;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Risultato di una ricerca tollerante agli errori di battitura.
+ *
+ * @param libri libri trovati: quelli della ricerca esatta se ce ne sono, altrimenti quelli
+ *              che differiscono dal testo cercato per pochi caratteri
+ * @param forseCercavi testi corretti da proporre all'utente ("forse cercavi");
+ *                     vuota se la ricerca esatta ha trovato risultati
+ */
+public record RisultatoRicercaFuzzy(List<LibroSintesi> libri, List<String> forseCercavi) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,18 @@
+package bookrecommender.condivisi.libri;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Completamento proposto durante la digitazione di una ricerca.
+ *
+ * @param testo titolo o autore da proporre all'utente
+ * @param tipo indica se il testo e' un titolo o un autore
+ * @param popolarita punteggio usato per ordinare i suggerimenti (piu' alto = piu' popolare)
+ */
+public record Suggerimento(String testo, Tipo tipo, int popolarita) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public enum Tipo { TITOLO, AUTORE }
+}
@@ -0,0 +1,74 @@
+package bookrecommender.condivisi.rmi;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * Fabbrica di socket RMI che comprimono con Deflate i messaggi piu' grandi di una soglia.
+ * <p>
+ * Il server esporta gli oggetti remoti con questa fabbrica; lo stub ottenuto dal client con
+ * {@code registry.lookup} ne contiene una copia, con la stessa soglia, e la usa per aprire le
+ * connessioni: il client non deve fare nulla. Il registro RMI resta sui socket normali.
+ * <pre>{@code
+ * FabbricaSocketCompressi fabbrica = new FabbricaSocketCompressi(1024);
+ * UnicastRemoteObject.exportObject(servizio, 0, fabbrica, fabbrica);
+ * }</pre>
+ */
+public final class FabbricaSocketCompressi implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int soglia;
+
+    /**
+     * @param soglia dimensione minima in byte di un messaggio perche' venga compresso
+     */
+    public FabbricaSocketCompressi(int soglia) {
+        if (soglia < 0) {
+            throw new IllegalArgumentException("La soglia di compressione non puo' essere negativa: " + soglia);
+        }
+        this.soglia = soglia;
+    }
+
+    public int getSoglia() {
+        return soglia;
+    }
+
+    @Override
+    public Socket createSocket(String host, int porta) throws IOException {
+        return new SocketCompresso(host, porta, soglia);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int porta) throws IOException {
+        return new ServerSocket(porta) {
+            @Override
+            public Socket accept() throws IOException {
+                Socket socket = new SocketCompresso(soglia);
+                implAccept(socket);
+                return socket;
+            }
+        };
+    }
+
+    // RMI riusa le connessioni e le porte delle esportazioni con fabbriche uguali
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FabbricaSocketCompressi altra && altra.soglia == soglia;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(soglia);
+    }
+
+    @Override
+    public String toString() {
+        return "FabbricaSocketCompressi[soglia=" + soglia + "]";
+    }
+}
@@ -0,0 +1,135 @@
+package bookrecommender.condivisi.rmi;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Lato di lettura di un {@link SocketCompresso}: legge i frame scritti da {@link UscitaCompressa}
+ * e restituisce i byte originali. Il decompressore, come il compressore, vive quanto la connessione.
+ */
+final class IngressoCompresso extends InputStream {
+
+    private final DataInputStream in;
+    private final Inflater decompressore = new Inflater(true);
+    private byte[] frame = new byte[8192];
+    private byte[] buffer = new byte[8192];
+    private int posizione;
+    private int disponibili;
+    private boolean chiuso;
+
+    IngressoCompresso(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!riempi()) {
+            return -1;
+        }
+        return buffer[posizione++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int da, int lunghezza) throws IOException {
+        if (lunghezza == 0) {
+            return 0;
+        }
+        if (!riempi()) {
+            return -1;
+        }
+        int letti = Math.min(lunghezza, disponibili - posizione);
+        System.arraycopy(buffer, posizione, b, da, letti);
+        posizione += letti;
+        return letti;
+    }
+
+    @Override
+    public int available() {
+        return disponibili - posizione;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (chiuso) {
+            return;
+        }
+        chiuso = true;
+        decompressore.end();
+        in.close();
+    }
+
+    /**
+     * Legge il frame successivo se i byte del precedente sono finiti
+     *
+     * @return false a fine stream
+     */
+    private boolean riempi() throws IOException {
+        while (posizione == disponibili) {
+            int tipo = in.read();
+            if (tipo < 0) {
+                return false;
+            }
+            int lunghezza = in.readInt();
+            if (lunghezza < 0 || lunghezza > 2 * UscitaCompressa.FRAME_MASSIMO) {
+                throw new IOException("Frame non valido: lunghezza " + lunghezza);
+            }
+            if (frame.length < lunghezza) {
+                frame = new byte[Math.max(lunghezza, frame.length * 2)];
+            }
+            try {
+                in.readFully(frame, 0, lunghezza);
+            } catch (EOFException e) {
+                throw new IOException("Connessione chiusa a meta' di un frame", e);
+            }
+
+            posizione = 0;
+            if (tipo == UscitaCompressa.FRAME_NON_COMPRESSO) {
+                if (buffer.length < lunghezza) {
+                    buffer = new byte[lunghezza];
+                }
+                System.arraycopy(frame, 0, buffer, 0, lunghezza);
+                disponibili = lunghezza;
+            } else if (tipo == UscitaCompressa.FRAME_COMPRESSO) {
+                disponibili = decomprimi(lunghezza);
+            } else {
+                throw new IOException("Frame non valido: tipo " + tipo);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decomprime il frame in {@link #buffer}. Un frame compresso non supera mai
+     * {@link UscitaCompressa#FRAME_MASSIMO} byte decompressi: l'uscita e' completa quando
+     * l'ingresso e' esaurito e il buffer non e' stato riempito.
+     */
+    private int decomprimi(int lunghezza) throws IOException {
+        decompressore.setInput(frame, 0, lunghezza);
+        int prodotti = 0;
+        try {
+            while (true) {
+                int n = decompressore.inflate(buffer, prodotti, buffer.length - prodotti);
+                prodotti += n;
+                if (prodotti < buffer.length) {
+                    if (decompressore.needsInput()) {
+                        return prodotti;
+                    }
+                    if (n == 0) {
+                        throw new IOException("Dati compressi non validi");
+                    }
+                } else if (buffer.length > UscitaCompressa.FRAME_MASSIMO) {
+                    throw new IOException("Frame compresso oltre la dimensione massima");
+                } else {
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, UscitaCompressa.FRAME_MASSIMO + 1));
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Dati compressi non validi", e);
+        }
+    }
+}
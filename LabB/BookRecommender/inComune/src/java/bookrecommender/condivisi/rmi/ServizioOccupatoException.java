@@ -0,0 +1,27 @@
+package bookrecommender.condivisi.rmi;
+
+import java.io.Serial;
+import java.rmi.RemoteException;
+
+/**
+ * Il server ha rifiutato la richiesta perche' il servizio e' al limite delle richieste che puo'
+ * gestire. La richiesta non e' stata eseguita e puo' essere ripetuta dopo {@link #getRitentaTraMs()}.
+ */
+public class ServizioOccupatoException extends RemoteException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final long ritentaTraMs;
+
+    public ServizioOccupatoException(String messaggio, long ritentaTraMs) {
+        super(messaggio);
+        this.ritentaTraMs = ritentaTraMs;
+    }
+
+    /**
+     * @return attesa suggerita, in millisecondi, prima di ripetere la richiesta
+     */
+    public long getRitentaTraMs() {
+        return ritentaTraMs;
+    }
+}
@@ -0,0 +1,58 @@
+package bookrecommender.condivisi.rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Socket i cui flussi sono compressi con {@link UscitaCompressa} e {@link IngressoCompresso}.
+ * Entrambi i capi della connessione devono usare questa classe.
+ */
+final class SocketCompresso extends Socket {
+
+    private final int soglia;
+    private InputStream ingresso;
+    private OutputStream uscita;
+
+    /**
+     * Socket non connesso, da passare a {@code ServerSocket.implAccept}
+     */
+    SocketCompresso(int soglia) {
+        this.soglia = soglia;
+    }
+
+    SocketCompresso(String host, int porta, int soglia) throws IOException {
+        super(host, porta);
+        this.soglia = soglia;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (ingresso == null) {
+            ingresso = new IngressoCompresso(super.getInputStream());
+        }
+        return ingresso;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (uscita == null) {
+            uscita = new UscitaCompressa(super.getOutputStream(), soglia);
+        }
+        return uscita;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (uscita != null) {
+                uscita.close();
+            }
+        } catch (IOException e) {
+            // La connessione viene chiusa comunque
+        } finally {
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package bookrecommender.condivisi.rmi;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Lato di scrittura di un {@link SocketCompresso}.
+ * <p>
+ * I byte scritti vengono accumulati e inviati in un frame a ogni {@code flush()} (RMI esegue il
+ * flush alla fine di ogni messaggio) o quando il buffer raggiunge {@link #FRAME_MASSIMO}.
+ * Ogni frame e' composto da tipo (1 byte), lunghezza (4 byte) e contenuto: i frame piu' piccoli
+ * della soglia partono cosi' come sono, gli altri compressi con Deflate. Il compressore e' unico
+ * per tutta la connessione ({@link Deflater#SYNC_FLUSH} a fine frame), quindi il dizionario
+ * costruito sui messaggi precedenti serve anche ai successivi.
+ */
+final class UscitaCompressa extends OutputStream {
+
+    static final int FRAME_NON_COMPRESSO = 0;
+    static final int FRAME_COMPRESSO = 1;
+    // Oltre questa dimensione il frame parte anche senza flush, per non accumulare risposte intere
+    static final int FRAME_MASSIMO = 1 << 20;
+
+    private final DataOutputStream out;
+    private final int soglia;
+    private final Deflater compressore = new Deflater(Deflater.BEST_SPEED, true);
+    private byte[] buffer = new byte[8192];
+    private int usati;
+    private byte[] compressi = new byte[8192];
+    private boolean chiuso;
+
+    UscitaCompressa(OutputStream out, int soglia) {
+        this.out = new DataOutputStream(out);
+        this.soglia = soglia;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        assicuraSpazio(1);
+        buffer[usati++] = (byte) b;
+        if (usati >= FRAME_MASSIMO) {
+            inviaFrame();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int da, int lunghezza) throws IOException {
+        while (lunghezza > 0) {
+            int parte = Math.min(lunghezza, FRAME_MASSIMO - usati);
+            assicuraSpazio(parte);
+            System.arraycopy(b, da, buffer, usati, parte);
+            usati += parte;
+            da += parte;
+            lunghezza -= parte;
+            if (usati >= FRAME_MASSIMO) {
+                inviaFrame();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        inviaFrame();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (chiuso) {
+            return;
+        }
+        chiuso = true;
+        try {
+            flush();
+        } finally {
+            compressore.end();
+            out.close();
+        }
+    }
+
+    private void inviaFrame() throws IOException {
+        if (usati == 0) {
+            return;
+        }
+        if (usati < soglia) {
+            out.writeByte(FRAME_NON_COMPRESSO);
+            out.writeInt(usati);
+            out.write(buffer, 0, usati);
+        } else {
+            compressore.setInput(buffer, 0, usati);
+            int prodotti = 0;
+            while (true) {
+                prodotti += compressore.deflate(compressi, prodotti, compressi.length - prodotti, Deflater.SYNC_FLUSH);
+                // Con SYNC_FLUSH l'uscita e' completa quando il compressore non riempie lo spazio disponibile
+                if (prodotti < compressi.length) {
+                    break;
+                }
+                compressi = Arrays.copyOf(compressi, compressi.length * 2);
+            }
+            out.writeByte(FRAME_COMPRESSO);
+            out.writeInt(prodotti);
+            out.write(compressi, 0, prodotti);
+        }
+        usati = 0;
+    }
+
+    private void assicuraSpazio(int richiesti) {
+        if (usati + richiesti > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, usati + richiesti));
+        }
+    }
+}
@@ -2,4 +2,5 @@ module inComune {
     requires java.rmi;
     exports bookrecommender.condivisi.utenti;
     exports bookrecommender.condivisi.libri;
+    exports bookrecommender.condivisi.rmi;
 }
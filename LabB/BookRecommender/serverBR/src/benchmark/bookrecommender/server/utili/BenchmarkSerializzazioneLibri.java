@@ -0,0 +1,161 @@
+package bookrecommender.server.utili;
+
+import bookrecommender.condivisi.libri.Libro;
+import bookrecommender.condivisi.libri.LibroSintesi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Confronta il formato compatto di {@link Libro} e {@link LibroSintesi} con la serializzazione
+ * Java predefinita (riprodotta da classi con gli stessi campi): byte e tempo di CPU per
+ * serializzare e deserializzare, come fa RMI, una risposta di 1.000 libri.
+ * <p>
+ * Non fa parte del JAR del server: si compila con {@code mvn test-compile} e si lancia dalla
+ * cartella serverBR con
+ * {@code java -cp target/test-classes:../bin/serverBR-1.0.jar bookrecommender.server.utili.BenchmarkSerializzazioneLibri [ripetizioni]}
+ */
+public final class BenchmarkSerializzazioneLibri {
+
+    private static final int LIBRI = 1_000;
+    private static final String[] CATEGORIE = { "General", "Mystery & Detective", "Romance", "Historical" };
+
+    private BenchmarkSerializzazioneLibri() { }
+
+    public static void main(String[] args) throws Exception {
+        int ripetizioni = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        List<Libro> libri = generaLibri(new Random(42));
+
+        ArrayList<Serializable> completiCompatti = new ArrayList<>(libri);
+        ArrayList<Serializable> completiPredefiniti = converti(libri, LibroPredefinito::new);
+        ArrayList<Serializable> sintesiCompatte = converti(libri, LibroSintesi::di);
+        ArrayList<Serializable> sintesiPredefinite = converti(libri, SintesiPredefinita::new);
+
+        System.out.printf("Risposta di %d libri, %d ripetizioni%n", LIBRI, ripetizioni);
+        System.out.printf("%-32s %10s %12s %12s%n", "formato", "byte", "scrittura us", "lettura us");
+        misura("Libro, predefinito", completiPredefiniti, ripetizioni);
+        misura("Libro, compatto", completiCompatti, ripetizioni);
+        misura("LibroSintesi, predefinito", sintesiPredefinite, ripetizioni);
+        misura("LibroSintesi, compatto", sintesiCompatte, ripetizioni);
+    }
+
+    private static void misura(String nome, ArrayList<Serializable> risposta, int ripetizioni) throws Exception {
+        byte[] codificata = scrivi(risposta);
+        // Riscaldamento del JIT, poi misura
+        for (int i = 0; i < ripetizioni / 4; i++) {
+            leggi(scrivi(risposta));
+        }
+        long scrittura = 0;
+        long lettura = 0;
+        for (int i = 0; i < ripetizioni; i++) {
+            long t0 = System.nanoTime();
+            byte[] b = scrivi(risposta);
+            long t1 = System.nanoTime();
+            leggi(b);
+            scrittura += t1 - t0;
+            lettura += System.nanoTime() - t1;
+        }
+        System.out.printf("%-32s %10d %12.1f %12.1f%n", nome, codificata.length,
+                scrittura / 1_000.0 / ripetizioni, lettura / 1_000.0 / ripetizioni);
+    }
+
+    private static byte[] scrivi(Object risposta) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 20);
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(risposta);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static Object leggi(byte[] codificata) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(codificata))) {
+            return in.readObject();
+        }
+    }
+
+    private static ArrayList<Serializable> converti(List<Libro> libri, Function<Libro, Serializable> conversione) {
+        ArrayList<Serializable> convertiti = new ArrayList<>(libri.size());
+        for (Libro libro : libri) {
+            convertiti.add(conversione.apply(libro));
+        }
+        return convertiti;
+    }
+
+    /**
+     * Libri con campi di lunghezza simile al CSV di partenza; circa un libro su cinque
+     * non ha descrizione, editore o prezzo. Come per i libri letti dal database, ogni testo
+     * e' un'istanza distinta (la serializzazione predefinita scriverebbe solo un riferimento
+     * per le istanze ripetute).
+     */
+    private static List<Libro> generaLibri(Random r) {
+        List<Libro> libri = new ArrayList<>(LIBRI);
+        for (int i = 0; i < LIBRI; i++) {
+            libri.add(new Libro(100_000L + i, testo(r, 10 + r.nextInt(50)), "By " + testo(r, 8 + r.nextInt(25)),
+                    "Published " + (1950 + r.nextInt(70)),
+                    r.nextInt(5) == 0 ? null : testo(r, 100 + r.nextInt(900)),
+                    " Fiction , " + CATEGORIE[r.nextInt(CATEGORIE.length)], r.nextInt(5) == 0 ? null : testo(r, 5 + r.nextInt(20)),
+                    r.nextInt(5) == 0 ? null : "Price Starting at $" + r.nextInt(40) + "." + r.nextInt(100)));
+        }
+        return libri;
+    }
+
+    private static String testo(Random r, int lunghezza) {
+        StringBuilder sb = new StringBuilder(lunghezza);
+        for (int i = 0; i < lunghezza; i++) {
+            sb.append(r.nextInt(7) == 0 ? ' ' : (char) ('a' + r.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stessi campi di {@link Libro} prima del formato compatto
+     */
+    private static final class LibroPredefinito implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Long id;
+        private final String titolo;
+        private final String autori;
+        private final String anno;
+        private final String descrizione;
+        private final String categorie;
+        private final String editore;
+        private final String prezzo;
+
+        LibroPredefinito(Libro l) {
+            id = l.getId();
+            titolo = l.getTitolo();
+            autori = l.getAutori();
+            anno = l.getAnno();
+            descrizione = l.getDescrizione();
+            categorie = l.getCategorie();
+            editore = l.getEditore();
+            prezzo = l.getPrezzo();
+        }
+    }
+
+    /**
+     * Stessi campi di {@link LibroSintesi} prima del formato compatto
+     */
+    private static final class SintesiPredefinita implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Long id;
+        private final String titolo;
+        private final String autori;
+        private final String anno;
+
+        SintesiPredefinita(Libro l) {
+            id = l.getId();
+            titolo = l.getTitolo();
+            autori = l.getAutori();
+            anno = l.getAnno();
+        }
+    }
+}
@@ -2,30 +2,70 @@ package bookrecommender.server;
 
 import bookrecommender.condivisi.utenti.UtentiService;
 import bookrecommender.server.utenti.UtentiServiceImpl;
-import bookrecommender.condivisi.libri.CercaLibriService;
+import bookrecommender.condivisi.rmi.FabbricaSocketCompressi;
+import bookrecommender.server.libri.CatalogoLibriInMemoria;
 import bookrecommender.server.libri.CercaLibriServiceImpl;
+import bookrecommender.server.libri.IndicePrefissi;
+import bookrecommender.server.libri.JdbcCercaLibriDAO;
+import bookrecommender.server.libri.LibroDAO;
+import bookrecommender.server.libri.LibroDAOConCache;
+import bookrecommender.server.libri.RicaricaCatalogo;
+import bookrecommender.server.metriche.RegistroMetriche;
+import bookrecommender.server.utili.EsecutoreLimitato;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 
 public class ServerMain {
     private static final BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
     private static final Logger logger = LogManager.getLogger(ServerMain.class);
+    // Memoria massima per l'indice di autocompletamento (es. -Dbookrecommender.autocompletamento.budgetMB=32)
+    private static final long BUDGET_AUTOCOMPLETAMENTO_MB = Long.getLong("bookrecommender.autocompletamento.budgetMB", 64L);
+    // Cache dei risultati delle ricerche (es. -Dbookrecommender.cache.voci=0 per disattivarla)
+    private static final int VOCI_CACHE_RICERCHE = Integer.getInteger("bookrecommender.cache.voci", 10_000);
+    private static final long TEMPO_DI_VITA_CACHE_SECONDI = Long.getLong("bookrecommender.cache.ttlSecondi", 300L);
+    // Messaggi RMI da questa dimensione in su viaggiano compressi (es. -Dbookrecommender.rmi.sogliaCompressione=-1
+    // per disattivare la compressione); i client la ricevono insieme agli stub
+    private static final int SOGLIA_COMPRESSIONE_RMI = Integer.getInteger("bookrecommender.rmi.sogliaCompressione", 1024);
+    // Lavori contemporanei e in coda per servizio (es. -Dbookrecommender.ricerche.concorrenza=16).
+    // Ogni servizio ha il proprio esecutore e il proprio pool di connessioni: di default la concorrenza
+    // e' pari alle connessioni del suo pool. L'autenticazione non compete con le ricerche perche' ha
+    // thread, coda e connessioni riservati, non per la priorita' dei thread, che su Linux e' ignorata
+    private static final int CODA_UTENTI = Integer.getInteger("bookrecommender.utenti.coda", 50);
+    private static final int CODA_RICERCHE = Integer.getInteger("bookrecommender.ricerche.coda", 100);
+    // Tempo massimo per completare un lavoro, coda compresa: oltre, il client riceve ServizioOccupatoException
+    // invece di restare in attesa (es. -Dbookrecommender.ricerche.timeoutMs=10000)
+    private static final long TIMEOUT_UTENTI_MS = Long.getLong("bookrecommender.utenti.timeoutMs", 10_000L);
+    private static final long TIMEOUT_RICERCHE_MS = Long.getLong("bookrecommender.ricerche.timeoutMs", 30_000L);
+    // Latenze, errori e frequenza delle chiamate di servizi e DAO, visibili con jconsole o VisualVM
+    // (es. -Dbookrecommender.metriche.jmx=false per non pubblicarle)
+    private static final boolean METRICHE_JMX = Boolean.parseBoolean(System.getProperty("bookrecommender.metriche.jmx", "true"));
 
     public static void main(String[] args) {
         logger.info("Avvio del server BookRecommender...");
         
         try {
+            if (METRICHE_JMX) {
+                RegistroMetriche.pubblicaSu(ManagementFactory.getPlatformMBeanServer());
+            }
             createDBConnection();
-            createRMIRegistry();
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    bookrecommender.server.utili.DBConnectionSingleton::closeConnectionQuietly, "chiusura-pool-db"));
+            LibroDAO catalogo = caricaCatalogoLibri();
+            LibroDAO libroDAO = conCacheRicerche(catalogo);
+            IndicePrefissi indicePrefissi = costruisciIndiceAutocompletamento();
+            CercaLibriServiceImpl cercaLibriService = createRMIRegistry(libroDAO, indicePrefissi);
+            pubblicaRicaricaCatalogo(catalogo, libroDAO, cercaLibriService);
             logger.info("Server avviato con successo. In attesa di richieste...");
             
             // Mantieni il server attivo
@@ -51,7 +91,7 @@ public class ServerMain {
                 
                 // Utilizza la classe di connessione esistente
                 bookrecommender.server.utili.DBConnectionSingleton.initialiseConnection(url, user, password);
-                try (Connection conn = bookrecommender.server.utili.DBConnectionSingleton.openNewConnection()) {
+                try (Connection conn = bookrecommender.server.utili.DBConnectionSingleton.getPool().getConnection()) {
                     logger.info("Connesso al database: " + conn.getCatalog());
                     System.out.println("Connesso al database " + conn.getCatalog());
                 }
@@ -82,7 +122,70 @@ public class ServerMain {
         return reader.readLine();
     }
 
-    private static void createRMIRegistry() {
+    /**
+     * Carica in memoria il catalogo dei libri, che servira' le ricerche senza interrogare il database.
+     * Se il caricamento fallisce il server resta operativo interrogando direttamente il database.
+     */
+    private static LibroDAO caricaCatalogoLibri() throws SQLException {
+        JdbcCercaLibriDAO jdbcDAO = new JdbcCercaLibriDAO(bookrecommender.server.utili.DBConnectionSingleton.getPool());
+        try {
+            System.out.println("Caricamento del catalogo libri in memoria...");
+            CatalogoLibriInMemoria catalogo = CatalogoLibriInMemoria.carica(jdbcDAO);
+            System.out.println("Catalogo caricato: " + catalogo.getNumeroLibri() + " libri");
+            return catalogo;
+        } catch (SQLException | OutOfMemoryError e) {
+            logger.error("Caricamento del catalogo in memoria fallito, le ricerche useranno il database", e);
+            System.out.println("Catalogo in memoria non disponibile: le ricerche useranno il database.");
+            return jdbcDAO;
+        }
+    }
+
+    /**
+     * Mette la cache dei risultati davanti al DAO dei libri, a meno che non sia stata disattivata.
+     */
+    private static LibroDAO conCacheRicerche(LibroDAO libroDAO) {
+        if (VOCI_CACHE_RICERCHE <= 0 || TEMPO_DI_VITA_CACHE_SECONDI <= 0) {
+            logger.info("Cache dei risultati delle ricerche disattivata");
+            return libroDAO;
+        }
+        logger.info("Cache dei risultati delle ricerche: {} voci, {} s di durata", VOCI_CACHE_RICERCHE, TEMPO_DI_VITA_CACHE_SECONDI);
+        LibroDAOConCache cache = new LibroDAOConCache(libroDAO, VOCI_CACHE_RICERCHE, TEMPO_DI_VITA_CACHE_SECONDI, TimeUnit.SECONDS);
+        RegistroMetriche.pubblica("Cache", "ricerche", cache);
+        return cache;
+    }
+
+    /**
+     * Costruisce l'indice dei prefissi per l'autocompletamento di titoli e autori.
+     * Se la costruzione fallisce il server parte comunque, senza suggerimenti.
+     */
+    private static IndicePrefissi costruisciIndiceAutocompletamento() throws SQLException {
+        JdbcCercaLibriDAO jdbcDAO = new JdbcCercaLibriDAO(bookrecommender.server.utili.DBConnectionSingleton.getPool());
+        try {
+            IndicePrefissi indice = IndicePrefissi.costruisci(jdbcDAO, BUDGET_AUTOCOMPLETAMENTO_MB * 1024 * 1024);
+            System.out.println("Indice di autocompletamento pronto: " + indice.getNumeroVoci() + " voci");
+            return indice;
+        } catch (SQLException | OutOfMemoryError e) {
+            logger.error("Costruzione dell'indice di autocompletamento fallita, i suggerimenti sono disattivati", e);
+            System.out.println("Autocompletamento non disponibile.");
+            return null;
+        }
+    }
+
+    /**
+     * Pubblica via JMX l'operazione che ricarica catalogo, autocompletamento e cache dopo un
+     * aggiornamento incrementale della tabella Libri ({@code bookrecommender:type=Catalogo,nome="libri"}).
+     */
+    private static void pubblicaRicaricaCatalogo(LibroDAO catalogo, LibroDAO libroDAO, CercaLibriServiceImpl cercaLibriService)
+            throws SQLException {
+        JdbcCercaLibriDAO jdbcDAO = new JdbcCercaLibriDAO(bookrecommender.server.utili.DBConnectionSingleton.getPool());
+        RicaricaCatalogo ricarica = new RicaricaCatalogo(jdbcDAO,
+                catalogo instanceof CatalogoLibriInMemoria inMemoria ? inMemoria : null,
+                libroDAO instanceof LibroDAOConCache cache ? cache : null,
+                cercaLibriService, BUDGET_AUTOCOMPLETAMENTO_MB * 1024 * 1024);
+        RegistroMetriche.pubblica("Catalogo", "libri", ricarica);
+    }
+
+    private static CercaLibriServiceImpl createRMIRegistry(LibroDAO libroDAO, IndicePrefissi indicePrefissi) {
         try {
             // Crea (o riusa) il registro RMI sulla porta 1099
             Registry reg;
@@ -96,17 +199,32 @@ public class ServerMain {
                 reg.list();
             }
             
+            FabbricaSocketCompressi fabbrica = null;
+            if (SOGLIA_COMPRESSIONE_RMI >= 0) {
+                fabbrica = new FabbricaSocketCompressi(SOGLIA_COMPRESSIONE_RMI);
+                logger.info("Compressione dei messaggi RMI oltre {} byte", SOGLIA_COMPRESSIONE_RMI);
+            }
+
             // Crea e registra il servizio UtentiService
-            UtentiService utentiService = new UtentiServiceImpl();
+            int concorrenzaUtenti = Integer.getInteger("bookrecommender.utenti.concorrenza",
+                    bookrecommender.server.utili.DBConnectionSingleton.getPoolUtenti().getDimensioneMassima());
+            EsecutoreLimitato esecutoreUtenti = new EsecutoreLimitato("utenti", concorrenzaUtenti, CODA_UTENTI, TIMEOUT_UTENTI_MS);
+            RegistroMetriche.pubblica("Esecutore", "utenti", esecutoreUtenti);
+            UtentiService utentiService = new UtentiServiceImpl(esecutoreUtenti, fabbrica, fabbrica);
             reg.rebind("UtentiService", utentiService);
             
             // Crea e registra il servizio CercaLibriService
-            CercaLibriService cercaLibriService = new CercaLibriServiceImpl();
+            int concorrenzaRicerche = Integer.getInteger("bookrecommender.ricerche.concorrenza",
+                    bookrecommender.server.utili.DBConnectionSingleton.getPool().getDimensioneMassima());
+            EsecutoreLimitato esecutoreRicerche = new EsecutoreLimitato("ricerche", concorrenzaRicerche, CODA_RICERCHE, TIMEOUT_RICERCHE_MS);
+            RegistroMetriche.pubblica("Esecutore", "ricerche", esecutoreRicerche);
+            CercaLibriServiceImpl cercaLibriService = new CercaLibriServiceImpl(libroDAO, indicePrefissi, esecutoreRicerche, fabbrica, fabbrica);
             reg.rebind("CercaLibriService", cercaLibriService);
             
             logger.info("Servizio UtentiService registrato nel registro RMI");
             logger.info("Servizio CercaLibriService registrato nel registro RMI");
             System.out.println("Servizi RMI registrati: UtentiService, CercaLibriService");
+            return cercaLibriService;
             
         } catch (RemoteException e) {
             logger.error("Errore durante la creazione del registro RMI.", e);
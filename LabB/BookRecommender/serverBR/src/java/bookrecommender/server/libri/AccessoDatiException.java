@@ -0,0 +1,19 @@
+package bookrecommender.server.libri;
+
+import java.io.Serial;
+import java.sql.SQLException;
+
+/**
+ * Lettura dal database fallita (connessione non disponibile, timeout, errore SQL).
+ * <p>
+ * Le ricerche la sollevano invece di restituire un risultato vuoto, cosi' un errore
+ * temporaneo non viene scambiato per "nessun libro trovato" e non finisce in cache.
+ */
+public class AccessoDatiException extends RuntimeException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public AccessoDatiException(String messaggio, SQLException causa) {
+        super(messaggio + ": " + causa.getMessage(), causa);
+    }
+}
@@ -0,0 +1,222 @@
+package bookrecommender.server.libri;
+
+import bookrecommender.condivisi.libri.Libro;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BK-tree dei termini (parole in minuscolo) del catalogo, con la lista dei libri che contengono
+ * ciascun termine.
+ * <p>
+ * Ogni nodo tiene i figli indicizzati per distanza di Levenshtein dal proprio termine; per la
+ * disuguaglianza triangolare una ricerca entro distanza {@code d} visita solo i figli a distanza
+ * compresa tra {@code dist - d} e {@code dist + d}, cioe' una piccola frazione del dizionario.
+ * <p>
+ * Le letture non prendono lock: i figli sono in mappe concorrenti e le liste dei libri vengono
+ * sostituite (copy-on-write) quando cambiano. Le scritture sono serializzate tra loro.
+ * <p>
+ * Nel caricamento iniziale ({@link #accoda}) un termine frequente riceve decine di migliaia di
+ * libri: per non copiare la lista a ogni libro, i libri si accumulano in un buffer a capacita'
+ * raddoppiata e la lista letta dalle ricerche viene pubblicata una volta per termine da
+ * {@link #completaCaricamento()}.
+ */
+final class AlberoBK {
+
+    private volatile Nodo radice;
+    private int numeroTermini;
+    // Nodi con libri accodati e non ancora pubblicati
+    private final List<Nodo> inCaricamento = new ArrayList<>();
+
+    /**
+     * Associa il libro al termine, aggiungendo il termine all'albero se non c'e' ancora.
+     * Il libro e' visibile alle ricerche appena il metodo termina.
+     */
+    synchronized void aggiungi(String termine, Libro libro) {
+        Nodo nodo = nodoDi(termine, libro);
+        if (nodo != null) {
+            nodo.aggiungiLibro(libro);
+        }
+    }
+
+    /**
+     * Come {@link #aggiungi}, ma il libro diventa visibile alle ricerche solo con
+     * {@link #completaCaricamento()}; da usare per molti libri insieme.
+     */
+    synchronized void accoda(String termine, Libro libro) {
+        Nodo nodo = nodoDi(termine, libro);
+        if (nodo != null && nodo.accoda(libro)) {
+            inCaricamento.add(nodo);
+        }
+    }
+
+    /**
+     * Pubblica i libri accodati: una sola copia della lista per termine
+     */
+    synchronized void completaCaricamento() {
+        for (Nodo nodo : inCaricamento) {
+            nodo.pubblica();
+        }
+        inCaricamento.clear();
+    }
+
+    /**
+     * @return il nodo del termine, o null se il termine e' stato appena creato con il libro
+     */
+    private Nodo nodoDi(String termine, Libro libro) {
+        if (radice == null) {
+            radice = new Nodo(termine, libro);
+            numeroTermini++;
+            return null;
+        }
+        Nodo nodo = radice;
+        while (true) {
+            int distanza = distanza(termine, nodo.termine, Integer.MAX_VALUE);
+            if (distanza == 0) {
+                return nodo;
+            }
+            Nodo figlio = nodo.figli.get(distanza);
+            if (figlio == null) {
+                nodo.figli.put(distanza, new Nodo(termine, libro));
+                nodo.distanzaMassimaFigli = Math.max(nodo.distanzaMassimaFigli, distanza);
+                numeroTermini++;
+                return null;
+            }
+            nodo = figlio;
+        }
+    }
+
+    /**
+     * @return i termini a distanza di Levenshtein al massimo {@code distanzaMassima} da quello cercato
+     */
+    List<Corrispondenza> cerca(String termine, int distanzaMassima) {
+        List<Corrispondenza> trovate = new ArrayList<>();
+        Nodo partenza = radice;
+        if (partenza == null) {
+            return trovate;
+        }
+        List<Nodo> daVisitare = new ArrayList<>();
+        daVisitare.add(partenza);
+        while (!daVisitare.isEmpty()) {
+            Nodo nodo = daVisitare.remove(daVisitare.size() - 1);
+            // Oltre questo limite nessun figlio puo' rientrare nell'intervallo: il calcolo si ferma prima
+            int limite = Math.max(distanzaMassima, nodo.distanzaMassimaFigli + distanzaMassima);
+            int distanza = distanza(termine, nodo.termine, limite);
+            if (distanza <= distanzaMassima) {
+                trovate.add(new Corrispondenza(nodo.termine, distanza, nodo.libri));
+            }
+            if (distanza > limite) {
+                continue;
+            }
+            for (int d = Math.max(1, distanza - distanzaMassima); d <= distanza + distanzaMassima; d++) {
+                Nodo figlio = nodo.figli.get(d);
+                if (figlio != null) {
+                    daVisitare.add(figlio);
+                }
+            }
+        }
+        return trovate;
+    }
+
+    synchronized int getNumeroTermini() {
+        return numeroTermini;
+    }
+
+    /**
+     * Distanza di Levenshtein tra due stringhe, calcolata su due righe della matrice.
+     * Se la distanza supera {@code limite} restituisce un valore maggiore di {@code limite}
+     * senza completare il calcolo.
+     */
+    static int distanza(String a, String b, int limite) {
+        if (Math.abs(a.length() - b.length()) > limite) {
+            return limite + 1;
+        }
+        int[] precedente = new int[b.length() + 1];
+        int[] corrente = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            precedente[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            corrente[0] = i;
+            int minimoRiga = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int sostituzione = precedente[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                corrente[j] = Math.min(sostituzione, Math.min(precedente[j], corrente[j - 1]) + 1);
+                minimoRiga = Math.min(minimoRiga, corrente[j]);
+            }
+            if (minimoRiga > limite) {
+                return limite + 1;
+            }
+            int[] scambio = precedente;
+            precedente = corrente;
+            corrente = scambio;
+        }
+        return precedente[b.length()];
+    }
+
+    /**
+     * Termine trovato con la sua distanza da quello cercato e i libri che lo contengono
+     */
+    record Corrispondenza(String termine, int distanza, Libro[] libri) { }
+
+    private static final class Nodo {
+        private final String termine;
+        private final Map<Integer, Nodo> figli = new ConcurrentHashMap<>(4);
+        private volatile Libro[] libri;
+        private volatile int distanzaMassimaFigli;
+        // Libri accodati durante il caricamento, null quando non ce ne sono
+        private Libro[] accodati;
+        private int numeroAccodati;
+
+        Nodo(String termine, Libro libro) {
+            this.termine = termine;
+            this.libri = new Libro[]{libro};
+        }
+
+        // I metodi seguenti sono chiamati solo sotto il lock dell'albero. I libri vengono
+        // indicizzati uno alla volta: un termine ripetuto nello stesso campo produce un duplicato
+        // consecutivo, che viene ignorato
+
+        void aggiungiLibro(Libro libro) {
+            pubblica();
+            Libro[] attuali = libri;
+            if (attuali[attuali.length - 1] == libro) {
+                return;
+            }
+            Libro[] nuovi = Arrays.copyOf(attuali, attuali.length + 1);
+            nuovi[attuali.length] = libro;
+            libri = nuovi;
+        }
+
+        /**
+         * @return true se il nodo non aveva ancora libri accodati
+         */
+        boolean accoda(Libro libro) {
+            boolean primo = accodati == null;
+            if (primo) {
+                Libro[] attuali = libri;
+                accodati = Arrays.copyOf(attuali, Math.max(4, attuali.length * 2));
+                numeroAccodati = attuali.length;
+            }
+            if (accodati[numeroAccodati - 1] == libro) {
+                return primo;
+            }
+            if (numeroAccodati == accodati.length) {
+                accodati = Arrays.copyOf(accodati, numeroAccodati * 2);
+            }
+            accodati[numeroAccodati++] = libro;
+            return primo;
+        }
+
+        void pubblica() {
+            if (accodati != null) {
+                libri = numeroAccodati == accodati.length ? accodati : Arrays.copyOf(accodati, numeroAccodati);
+                accodati = null;
+            }
+        }
+    }
+}
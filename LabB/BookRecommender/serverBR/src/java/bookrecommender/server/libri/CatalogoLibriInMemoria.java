@@ -0,0 +1,411 @@
+package bookrecommender.server.libri;
+
+import bookrecommender.condivisi.libri.CampoRicerca;
+import bookrecommender.condivisi.libri.FiltriFacette;
+import bookrecommender.condivisi.libri.Libro;
+import bookrecommender.condivisi.libri.LibroQuery;
+import bookrecommender.condivisi.libri.LibroSintesi;
+import bookrecommender.condivisi.libri.PaginaLibri;
+import bookrecommender.condivisi.libri.RisultatoRicercaFacette;
+import bookrecommender.condivisi.libri.RisultatoRicercaFuzzy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Catalogo dei libri mantenuto interamente in memoria.
+ * <p>
+ * La tabella Libri, una volta caricata dal CSV, e' di fatto in sola lettura: il catalogo viene
+ * letto una volta all'avvio del server e serve dalla RAM la ricerca per id, per titolo, per
+ * autore e per autore e anno, restituendo i risultati nello stesso ordine per titolo del
+ * database; le ricerche composte ({@link LibroQuery}) sono pianificate sugli indici in memoria.
+ * Le altre operazioni (ricerche paginate e full-text) sono delegate al DAO JDBC.
+ * <p>
+ * I dati sono conservati in un'istantanea immutabile di array paralleli ordinati per titolo,
+ * con le chiavi di ricerca gia' in minuscolo, le {@link LibroSintesi} restituite dalle ricerche
+ * e un indice id -> posizione a chiavi primitive.
+ * {@link #creaLibro} scrive sul database e pubblica una nuova istantanea (copy-on-write):
+ * le letture non prendono mai lock e vedono sempre un'istantanea coerente.
+ * <p>
+ * Le ricerche tolleranti agli errori usano un {@link IndiceFuzzy} costruito insieme al catalogo
+ * e aggiornato a ogni nuovo libro; i conteggi per facetta usano le bitmap di {@link IndiceFacette},
+ * che fanno parte dell'istantanea.
+ * <p>
+ * Le modifiche alla tabella fatte da fuori dal server (ad esempio l'aggiornamento incrementale
+ * di creazioneDB) diventano visibili solo con {@link #ricarica()}.
+ */
+public class CatalogoLibriInMemoria implements LibroDAO {
+
+    private static final Logger logger = LogManager.getLogger(CatalogoLibriInMemoria.class);
+
+    // Ordine usato per inserire i nuovi libri; approssima la collation del database, da cui
+    // proviene l'ordine dei libri caricati all'avvio
+    private static final Comparator<Libro> ORDINE_TITOLO = Comparator
+            .comparing((Libro l) -> l.getTitolo() == null ? "" : l.getTitolo(), Collator.getInstance(Locale.ITALIAN))
+            .thenComparing(Libro::getId);
+
+    private final JdbcCercaLibriDAO delegato;
+    private volatile IndiceFuzzy indiceFuzzy;
+    private volatile Istantanea istantanea;
+
+    private CatalogoLibriInMemoria(JdbcCercaLibriDAO delegato, Istantanea istantanea, IndiceFuzzy indiceFuzzy) {
+        this.delegato = delegato;
+        this.istantanea = istantanea;
+        this.indiceFuzzy = indiceFuzzy;
+    }
+
+    /**
+     * Carica l'intero catalogo dal database.
+     *
+     * @param dao DAO JDBC usato per il caricamento e a cui delegare scritture e ricerche non servite dalla RAM
+     * @return il catalogo pronto all'uso
+     * @throws SQLException se il caricamento fallisce
+     */
+    public static CatalogoLibriInMemoria carica(JdbcCercaLibriDAO dao) throws SQLException {
+        long inizio = System.nanoTime();
+        Istantanea istantanea = leggiIstantanea(dao);
+        IndiceFuzzy indiceFuzzy = costruisciIndiceFuzzy(istantanea);
+        logger.info("Catalogo in memoria caricato: {} libri e {} termini in {} ms",
+                istantanea.libri.length, indiceFuzzy.getNumeroTermini(), (System.nanoTime() - inizio) / 1_000_000);
+        return new CatalogoLibriInMemoria(dao, istantanea, indiceFuzzy);
+    }
+
+    /**
+     * Rilegge l'intero catalogo dal database e sostituisce istantanea e indice fuzzy. Durante la
+     * lettura le ricerche continuano sui dati precedenti; i libri creati nel frattempo vengono
+     * aggiunti dopo la sostituzione, se la lettura non li conteneva gia'.
+     *
+     * @return numero di libri del nuovo catalogo
+     * @throws SQLException se la lettura fallisce; il catalogo resta quello precedente
+     */
+    public synchronized int ricarica() throws SQLException {
+        long inizio = System.nanoTime();
+        Istantanea nuova = leggiIstantanea(delegato);
+        IndiceFuzzy nuovoIndice = costruisciIndiceFuzzy(nuova);
+        // Prima l'indice: una ricerca fuzzy che lo legge gia' nuovo trova libri gia' nell'istantanea
+        indiceFuzzy = nuovoIndice;
+        istantanea = nuova;
+        logger.info("Catalogo in memoria ricaricato: {} libri e {} termini in {} ms",
+                nuova.libri.length, nuovoIndice.getNumeroTermini(), (System.nanoTime() - inizio) / 1_000_000);
+        return nuova.libri.length;
+    }
+
+    private static Istantanea leggiIstantanea(JdbcCercaLibriDAO dao) throws SQLException {
+        List<Libro> libri = new ArrayList<>();
+        dao.caricaCatalogo(libri::add);
+        return new Istantanea(libri.toArray(new Libro[0]));
+    }
+
+    private static IndiceFuzzy costruisciIndiceFuzzy(Istantanea istantanea) {
+        IndiceFuzzy indiceFuzzy = new IndiceFuzzy(ORDINE_TITOLO);
+        indiceFuzzy.aggiungiTutti(istantanea.libri);
+        return indiceFuzzy;
+    }
+
+    /**
+     * @return numero di libri presenti nel catalogo
+     */
+    public int getNumeroLibri() {
+        return istantanea.libri.length;
+    }
+
+    @Override
+    public Libro creaLibro(String titolo, String autore, String descrizione, String categoria, String year, String price) {
+        Libro libro = delegato.creaLibro(titolo, autore, descrizione, categoria, year, price);
+        if (libro != null) {
+            aggiungi(libro);
+        }
+        return libro;
+    }
+
+    /**
+     * Risponde dalla RAM se il libro e' nell'istantanea; altrimenti (libro inserito da fuori dal
+     * server dopo il caricamento, o inesistente) lo chiede al database, come {@link #getLibriByIds}.
+     */
+    @Override
+    public Libro getLibroById(int id) {
+        Istantanea corrente = istantanea;
+        int posizione = corrente.posizioneDi(id);
+        return posizione < 0 ? delegato.getLibroById(id) : corrente.libri[posizione];
+    }
+
+    /**
+     * Risponde dalla RAM per tutti gli id presenti nell'istantanea; gli altri (libri inseriti da
+     * fuori dal server dopo il caricamento, o inesistenti) vengono chiesti al database con una
+     * sola query.
+     */
+    @Override
+    public List<Libro> getLibriByIds(int[] ids) {
+        Istantanea corrente = istantanea;
+        List<Libro> libri = new ArrayList<>(ids.length);
+        int mancanti = 0;
+        for (int id : ids) {
+            int posizione = corrente.posizioneDi(id);
+            Libro libro = posizione < 0 ? null : corrente.libri[posizione];
+            if (libro == null) {
+                mancanti++;
+            }
+            libri.add(libro);
+        }
+        if (mancanti == 0) {
+            return libri;
+        }
+
+        int[] idMancanti = new int[mancanti];
+        for (int i = 0, j = 0; i < ids.length; i++) {
+            if (libri.get(i) == null) {
+                idMancanti[j++] = ids[i];
+            }
+        }
+        List<Libro> dalDatabase = delegato.getLibriByIds(idMancanti);
+        for (int i = 0, j = 0; i < ids.length; i++) {
+            if (libri.get(i) == null) {
+                libri.set(i, dalDatabase.get(j++));
+            }
+        }
+        return libri;
+    }
+
+    /**
+     * Le query senza parole chiave sono eseguite in memoria dal {@link PianificatoreQuery};
+     * quelle con parole chiave richiedono la ricerca full-text e passano al database.
+     */
+    @Override
+    public List<LibroSintesi> cerca(LibroQuery query) {
+        if (query.haParoleChiave()) {
+            return delegato.cerca(query);
+        }
+        return istantanea.pianificatore.esegui(query);
+    }
+
+    @Override
+    public List<LibroSintesi> cercaLibriPerParoleChiave(String testo, int limite) {
+        return delegato.cercaLibriPerParoleChiave(testo, limite);
+    }
+
+    @Override
+    public RisultatoRicercaFuzzy cercaLibriFuzzy(String testo, CampoRicerca campo, int distanzaMassima, int limite) {
+        return indiceFuzzy.cerca(testo, campo, distanzaMassima, limite);
+    }
+
+    @Override
+    public RisultatoRicercaFacette cercaLibriConFacette(String testo, CampoRicerca campo, FiltriFacette filtri, int pagina, int dimensionePagina) {
+        Istantanea corrente = istantanea;
+        IndiceFacette facette = corrente.facette;
+        int numeroLibri = corrente.libri.length;
+
+        long[] trovati;
+        if (testo == null || testo.isBlank()) {
+            trovati = facette.bitmapCompleta();
+        } else {
+            trovati = facette.nuovaBitmap();
+            String[] chiavi = campo == CampoRicerca.AUTORE ? corrente.autoriMinuscoli : corrente.titoliMinuscoli;
+            String cercato = minuscolo(testo);
+            for (int i = 0; i < numeroLibri; i++) {
+                if (chiavi[i].contains(cercato)) {
+                    trovati[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+        facette.applicaFiltri(trovati, filtri);
+
+        int totale = 0;
+        for (long parola : trovati) {
+            totale += Long.bitCount(parola);
+        }
+
+        // Le posizioni seguono l'ordine per titolo: la pagina e' l'n-esimo gruppo di bit impostati
+        List<LibroSintesi> libri = new ArrayList<>(dimensionePagina);
+        long daSaltare = (long) pagina * dimensionePagina;
+        for (int i = PianificatoreQuery.prossimo(trovati, 0); i >= 0 && libri.size() < dimensionePagina; i = PianificatoreQuery.prossimo(trovati, i + 1)) {
+            if (daSaltare > 0) {
+                daSaltare--;
+            } else {
+                libri.add(corrente.sintesi[i]);
+            }
+        }
+
+        return new RisultatoRicercaFacette(libri, totale, facette.contaCategorie(trovati), facette.contaDecenni(trovati),
+                facette.contaAnni(trovati), facette.contaEditori(trovati));
+    }
+
+    @Override
+    public PaginaLibri cercaLibriPerTitolo(String titolo, CursoreLibri dopo, int dimensionePagina) {
+        return delegato.cercaLibriPerTitolo(titolo, dopo, dimensionePagina);
+    }
+
+    @Override
+    public PaginaLibri cercaLibriPerAutore(String autore, CursoreLibri dopo, int dimensionePagina) {
+        return delegato.cercaLibriPerAutore(autore, dopo, dimensionePagina);
+    }
+
+    @Override
+    public PaginaLibri cercaLibriPerAutoreEAnno(String autore, String anno, CursoreLibri dopo, int dimensionePagina) {
+        return delegato.cercaLibriPerAutoreEAnno(autore, anno, dopo, dimensionePagina);
+    }
+
+    /**
+     * Inserisce un libro creando una nuova istantanea derivata dalla corrente. Le scritture sono
+     * serializzate tra loro, le letture continuano sull'istantanea precedente finche' la nuova
+     * non viene pubblicata.
+     */
+    private synchronized void aggiungi(Libro libro) {
+        Istantanea corrente = istantanea;
+        if (corrente.posizioneDi(libro.getId()) >= 0) {
+            // Gia' letto da una ricarica partita dopo l'inserimento nel database
+            return;
+        }
+        Libro[] libri = corrente.libri;
+        int posizione = Arrays.binarySearch(libri, libro, ORDINE_TITOLO);
+        if (posizione < 0) {
+            posizione = -posizione - 1;
+        }
+        istantanea = corrente.conLibro(posizione, libro);
+        indiceFuzzy.aggiungi(libro);
+        logger.debug("Libro {} aggiunto al catalogo in memoria in posizione {}", libro.getId(), posizione);
+    }
+
+    private static String minuscolo(String testo) {
+        return testo == null ? "" : testo.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Vista immutabile del catalogo: array paralleli indicizzati per posizione nell'ordine per titolo.
+     */
+    private static final class Istantanea {
+        private final Libro[] libri;
+        // Sintesi dei libri restituite dalle ricerche, create una volta per istantanea
+        private final LibroSintesi[] sintesi;
+        private final String[] titoliMinuscoli;
+        private final String[] autoriMinuscoli;
+        private final IndiceFacette facette;
+        private final IndiceIntervalli intervalli;
+        private final PianificatoreQuery pianificatore;
+        // Indice id -> posizione a indirizzamento aperto, senza boxing di chiavi e valori
+        private final long[] chiaviId;
+        private final int[] posizioniId;
+        private final int maschera;
+
+        Istantanea(Libro[] libri) {
+            this.libri = libri;
+            this.sintesi = new LibroSintesi[libri.length];
+            this.titoliMinuscoli = new String[libri.length];
+            this.autoriMinuscoli = new String[libri.length];
+
+            int capacita = Integer.highestOneBit(Math.max(2, libri.length * 2 - 1)) << 1;
+            this.chiaviId = new long[capacita];
+            this.posizioniId = new int[capacita];
+            this.maschera = capacita - 1;
+            Arrays.fill(posizioniId, -1);
+
+            for (int i = 0; i < libri.length; i++) {
+                sintesi[i] = LibroSintesi.di(libri[i]);
+                titoliMinuscoli[i] = minuscolo(libri[i].getTitolo());
+                autoriMinuscoli[i] = minuscolo(libri[i].getAutori());
+                if (libri[i].getId() != null) {
+                    inserisciId(libri[i].getId(), i);
+                }
+            }
+            this.facette = new IndiceFacette(libri);
+            this.intervalli = new IndiceIntervalli(libri);
+            this.pianificatore = new PianificatoreQuery(sintesi, titoliMinuscoli, autoriMinuscoli, facette, intervalli);
+        }
+
+        private Istantanea(Libro[] libri, LibroSintesi[] sintesi, String[] titoliMinuscoli, String[] autoriMinuscoli,
+                           IndiceFacette facette, IndiceIntervalli intervalli, long[] chiaviId, int[] posizioniId) {
+            this.libri = libri;
+            this.sintesi = sintesi;
+            this.titoliMinuscoli = titoliMinuscoli;
+            this.autoriMinuscoli = autoriMinuscoli;
+            this.facette = facette;
+            this.intervalli = intervalli;
+            this.chiaviId = chiaviId;
+            this.posizioniId = posizioniId;
+            this.maschera = chiaviId.length - 1;
+            this.pianificatore = new PianificatoreQuery(sintesi, titoliMinuscoli, autoriMinuscoli, facette, intervalli);
+        }
+
+        /**
+         * Istantanea con un libro in piu' nella posizione indicata. Gli array vengono copiati con
+         * un elemento in piu' e gli indici spostano di uno le posizioni successive: chiavi in
+         * minuscolo, sintesi e valori di facetta degli altri libri non vengono ricalcolati.
+         */
+        Istantanea conLibro(int posizione, Libro libro) {
+            LibroSintesi[] nuoveSintesi = inserisci(sintesi, new LibroSintesi[sintesi.length + 1], posizione, LibroSintesi.di(libro));
+            String[] nuoviTitoli = inserisci(titoliMinuscoli, new String[libri.length + 1], posizione, minuscolo(libro.getTitolo()));
+            String[] nuoviAutori = inserisci(autoriMinuscoli, new String[libri.length + 1], posizione, minuscolo(libro.getAutori()));
+            Libro[] nuovi = inserisci(libri, new Libro[libri.length + 1], posizione, libro);
+
+            long[] nuoveChiavi;
+            int[] nuovePosizioni;
+            if ((nuovi.length * 2L) > chiaviId.length) {
+                // Tabella troppo piena: si ricostruisce con capacita' doppia
+                nuoveChiavi = new long[chiaviId.length * 2];
+                nuovePosizioni = new int[chiaviId.length * 2];
+                Arrays.fill(nuovePosizioni, -1);
+                for (int i = 0; i < nuovi.length; i++) {
+                    if (nuovi[i].getId() != null) {
+                        inserisciId(nuoveChiavi, nuovePosizioni, nuovi[i].getId(), i);
+                    }
+                }
+            } else {
+                nuoveChiavi = chiaviId.clone();
+                nuovePosizioni = posizioniId.clone();
+                for (int i = 0; i < nuovePosizioni.length; i++) {
+                    if (nuovePosizioni[i] >= posizione) {
+                        nuovePosizioni[i]++;
+                    }
+                }
+                if (libro.getId() != null) {
+                    inserisciId(nuoveChiavi, nuovePosizioni, libro.getId(), posizione);
+                }
+            }
+            return new Istantanea(nuovi, nuoveSintesi, nuoviTitoli, nuoviAutori, facette.conLibro(posizione, libro),
+                    intervalli.conLibro(posizione, libro), nuoveChiavi, nuovePosizioni);
+        }
+
+        private static <T> T[] inserisci(T[] origine, T[] destinazione, int posizione, T elemento) {
+            System.arraycopy(origine, 0, destinazione, 0, posizione);
+            destinazione[posizione] = elemento;
+            System.arraycopy(origine, posizione, destinazione, posizione + 1, origine.length - posizione);
+            return destinazione;
+        }
+
+        private void inserisciId(long id, int posizione) {
+            inserisciId(chiaviId, posizioniId, id, posizione);
+        }
+
+        private static void inserisciId(long[] chiavi, int[] posizioni, long id, int posizione) {
+            int maschera = chiavi.length - 1;
+            int slot = hash(id) & maschera;
+            while (posizioni[slot] >= 0 && chiavi[slot] != id) {
+                slot = (slot + 1) & maschera;
+            }
+            chiavi[slot] = id;
+            posizioni[slot] = posizione;
+        }
+
+        int posizioneDi(long id) {
+            int slot = hash(id) & maschera;
+            while (posizioniId[slot] >= 0) {
+                if (chiaviId[slot] == id) {
+                    return posizioniId[slot];
+                }
+                slot = (slot + 1) & maschera;
+            }
+            return -1;
+        }
+
+        private static int hash(long id) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
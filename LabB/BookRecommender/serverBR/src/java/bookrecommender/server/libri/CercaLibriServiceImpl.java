@@ -1,97 +1,467 @@
 package bookrecommender.server.libri;
 
+import bookrecommender.condivisi.libri.CampoRicerca;
 import bookrecommender.condivisi.libri.Libro;
+import bookrecommender.condivisi.libri.LibroQuery;
+import bookrecommender.condivisi.libri.LibroSintesi;
 import bookrecommender.condivisi.libri.CercaLibriService;
-import bookrecommender.server.utili.DBConnectionSingleton;
+import bookrecommender.condivisi.libri.FiltriFacette;
+import bookrecommender.condivisi.libri.PaginaLibri;
+import bookrecommender.condivisi.libri.RisultatoRicercaFacette;
+import bookrecommender.condivisi.libri.RisultatoRicercaFuzzy;
+import bookrecommender.condivisi.libri.Suggerimento;
+import bookrecommender.condivisi.rmi.ServizioOccupatoException;
+import bookrecommender.server.metriche.RegistroMetriche;
+import bookrecommender.server.utili.EsecutoreLimitato;
+import bookrecommender.server.utili.RichiesteCondivise;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
 import java.rmi.server.UnicastRemoteObject;
-import java.sql.Connection;
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
 
 public class CercaLibriServiceImpl extends UnicastRemoteObject implements CercaLibriService {
     
     private static final Logger logger = LogManager.getLogger(CercaLibriServiceImpl.class);
-    private LibroDAO libroDAO;
+    private static final RegistroMetriche metriche = RegistroMetriche.di("CercaLibriService");
+    private static final int DIMENSIONE_MASSIMA_PAGINA = 200;
+    // Risultati massimi di una LibroQuery inviata dal client
+    private static final int LIMITE_MASSIMO_QUERY = 1000;
+    // Id massimi richiesti in un solo caricamento multiplo
+    private static final int MASSIMO_ID_PER_RICHIESTA = 1000;
+    // Limiti dell'esecutore quando non ne viene fornito uno
+    private static final int CONCORRENZA_PREDEFINITA = 10;
+    private static final int CODA_PREDEFINITA = 100;
+    // Errori di battitura tollerati per parola nella ricerca approssimata
+    private static final int DISTANZA_MASSIMA_FUZZY = 2;
+    // Il DAO e' privo di stato oppure, nel caso del catalogo in memoria, legge da istantanee
+    // immutabili: le ricerche concorrenti dei thread RMI non si serializzano tra loro (la
+    // LibroDAOConCache, se presente, legge le voci senza lock)
+    private final LibroDAO libroDAO;
+    // Indice per l'autocompletamento; null se non e' stato possibile costruirlo
+    private volatile IndicePrefissi indicePrefissi;
+    // Ricerche identiche in corso: le richieste che arrivano insieme (es. dallo stesso link
+    // condiviso) aspettano l'esecuzione gia' avviata invece di ripetere la ricerca sul DAO
+    private final RichiesteCondivise<Richiesta> ricercheInCorso = new RichiesteCondivise<>();
+    // Limita le ricerche eseguite contemporaneamente sul DAO; oltre la coda le richieste sono rifiutate
+    private final EsecutoreLimitato esecutore;
 
-    public CercaLibriServiceImpl() throws RemoteException {
-        super(); // la chiamata a super() può sollevare RemoteException
-        initDAO();
+    /**
+     * Chiave di una ricerca: metodo del DAO e parametri gia' normalizzati dal servizio
+     */
+    private record Richiesta(String metodo, List<Object> parametri) {
+        static Richiesta di(String metodo, Object... parametri) {
+            return new Richiesta(metodo, Arrays.asList(parametri));
+        }
     }
-    
-    private void initDAO() {
+
+    public CercaLibriServiceImpl(LibroDAO libroDAO) throws RemoteException {
+        this(libroDAO, null);
+    }
+
+    public CercaLibriServiceImpl(LibroDAO libroDAO, IndicePrefissi indicePrefissi) throws RemoteException {
+        this(libroDAO, indicePrefissi, null, null);
+    }
+
+    /**
+     * @param fabbricaClient fabbrica dei socket usata dagli stub, null per i socket predefiniti
+     * @param fabbricaServer fabbrica dei socket di ascolto, null per i socket predefiniti
+     */
+    public CercaLibriServiceImpl(LibroDAO libroDAO, IndicePrefissi indicePrefissi,
+                                 RMIClientSocketFactory fabbricaClient, RMIServerSocketFactory fabbricaServer) throws RemoteException {
+        this(libroDAO, indicePrefissi, new EsecutoreLimitato("ricerche", CONCORRENZA_PREDEFINITA, CODA_PREDEFINITA),
+                fabbricaClient, fabbricaServer);
+    }
+
+    /**
+     * @param esecutore esecutore su cui girano le ricerche sul DAO
+     * @param fabbricaClient fabbrica dei socket usata dagli stub, null per i socket predefiniti
+     * @param fabbricaServer fabbrica dei socket di ascolto, null per i socket predefiniti
+     */
+    public CercaLibriServiceImpl(LibroDAO libroDAO, IndicePrefissi indicePrefissi, EsecutoreLimitato esecutore,
+                                 RMIClientSocketFactory fabbricaClient, RMIServerSocketFactory fabbricaServer) throws RemoteException {
+        super(0, fabbricaClient, fabbricaServer); // la chiamata a super() può sollevare RemoteException
+        this.libroDAO = libroDAO;
+        this.indicePrefissi = indicePrefissi;
+        this.esecutore = esecutore;
+        // Ricerche eseguite e accorpate a una identica in corso, visibili con jconsole
+        RegistroMetriche.pubblica("RichiesteCondivise", "ricerche", ricercheInCorso);
+        logger.info("CercaLibriServiceImpl inizializzato con {}", libroDAO.getClass().getSimpleName());
+    }
+
+    @Override
+    public List<LibroSintesi> cercaLibri(LibroQuery query) throws RemoteException {
+        long inizio = System.nanoTime();
         try {
-            Connection connection = DBConnectionSingleton.getConnection();
-            if (connection == null) {
-                logger.error("Connessione al database non disponibile");
-                throw new RuntimeException("Database connection not available");
+            if (query == null) {
+                throw new IllegalArgumentException("Query mancante");
+            }
+            if (query.getLimite() == 0 || query.getLimite() > LIMITE_MASSIMO_QUERY) {
+                query = query.conLimite(LIMITE_MASSIMO_QUERY);
             }
-            this.libroDAO = new JdbcCercaLibriDAO(connection);
-            logger.info("LibroDAO inizializzato correttamente");
+            logger.info("Ricerca libri: {}", query);
+            LibroQuery q = query;
+            List<LibroSintesi> risultati = condividi(Richiesta.di("cerca", q), () -> libroDAO.cerca(q));
+            logger.info("Trovati {} libri per {}", risultati.size(), query);
+            return risultati;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("cercaLibri");
+            throw e;
         } catch (Exception e) {
-            logger.error("Errore durante l'inizializzazione del LibroDAO", e);
-            throw new RuntimeException("Failed to initialize LibroDAO", e);
+            metriche.errore("cercaLibri");
+            logger.error("Errore durante la ricerca " + query, e);
+            throw new RemoteException("Errore durante la ricerca", e);
+        } finally {
+            metriche.registra("cercaLibri", inizio);
         }
     }
 
 	@Override
-	public List<Libro> cercaLibro_Per_Titolo(String titolo) throws RemoteException {
+	public List<LibroSintesi> cercaLibro_Per_Titolo(String titolo) throws RemoteException {
+        long inizio = System.nanoTime();
 		try {
             logger.info("Ricerca libri per titolo: {}", titolo);
-            List<Libro> risultati = libroDAO.cercaLibriPerTitolo(titolo);
+            String cercato = chiaveTesto(titolo);
+            List<LibroSintesi> risultati = condividi(Richiesta.di("titolo", cercato),
+                    () -> libroDAO.cercaLibriPerTitolo(cercato));
             logger.info("Trovati {} libri per titolo '{}'", risultati.size(), titolo);
             return risultati;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("cercaLibro_Per_Titolo");
+            throw e;
         } catch (Exception e) {
+            metriche.errore("cercaLibro_Per_Titolo");
             logger.error("Errore durante la ricerca per titolo: " + titolo, e);
             throw new RemoteException("Errore durante la ricerca per titolo", e);
+        } finally {
+            metriche.registra("cercaLibro_Per_Titolo", inizio);
         }
 	}
 
 	@Override
 	public Libro getTitoloLibroById(int id) throws RemoteException {
+        long inizio = System.nanoTime();
 		try {
             logger.info("Ricerca libro per ID: {}", id);
-            Libro libro = libroDAO.getLibroById(id);
+            Libro libro = condividi(Richiesta.di("id", id), () -> libroDAO.getLibroById(id));
             if (libro != null) {
                 logger.info("Libro trovato: {}", libro.getTitolo());
             } else {
                 logger.info("Nessun libro trovato con ID: {}", id);
             }
             return libro;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("getTitoloLibroById");
+            throw e;
         } catch (Exception e) {
+            metriche.errore("getTitoloLibroById");
             logger.error("Errore durante la ricerca per ID: " + id, e);
             throw new RemoteException("Errore durante la ricerca per ID", e);
+        } finally {
+            metriche.registra("getTitoloLibroById", inizio);
         }
 	}
 
 	@Override
-	public List<Libro> cercaLibro_Per_Autore(String autore) throws RemoteException {
+	public List<Libro> getLibriByIds(int[] ids) throws RemoteException {
+        long inizio = System.nanoTime();
+		try {
+            if (ids == null) {
+                throw new IllegalArgumentException("Elenco di id mancante");
+            }
+            if (ids.length > MASSIMO_ID_PER_RICHIESTA) {
+                throw new IllegalArgumentException("Troppi id richiesti: " + ids.length + " (massimo " + MASSIMO_ID_PER_RICHIESTA + ")");
+            }
+            logger.info("Caricamento di {} libri per ID", ids.length);
+            List<Libro> libri = condividi(Richiesta.di("ids", (Object[]) Arrays.stream(ids).boxed().toArray(Integer[]::new)),
+                    () -> libroDAO.getLibriByIds(ids));
+            logger.info("Caricati {} libri su {} richiesti", libri.stream().filter(l -> l != null).count(), ids.length);
+            return libri;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("getLibriByIds");
+            throw e;
+        } catch (Exception e) {
+            metriche.errore("getLibriByIds");
+            logger.error("Errore durante il caricamento di piu' libri per ID", e);
+            throw new RemoteException("Errore durante il caricamento dei libri per ID", e);
+        } finally {
+            metriche.registra("getLibriByIds", inizio);
+        }
+	}
+
+	@Override
+	public List<LibroSintesi> cercaLibro_Per_Autore(String autore) throws RemoteException {
+        long inizio = System.nanoTime();
 		try {
             logger.info("Ricerca libri per autore: {}", autore);
-            List<Libro> risultati = libroDAO.cercaLibriPerAutore(autore);
+            String cercato = chiaveTesto(autore);
+            List<LibroSintesi> risultati = condividi(Richiesta.di("autore", cercato),
+                    () -> libroDAO.cercaLibriPerAutore(cercato));
             logger.info("Trovati {} libri per autore '{}'", risultati.size(), autore);
             return risultati;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("cercaLibro_Per_Autore");
+            throw e;
         } catch (Exception e) {
+            metriche.errore("cercaLibro_Per_Autore");
             logger.error("Errore durante la ricerca per autore: " + autore, e);
             throw new RemoteException("Errore durante la ricerca per autore", e);
+        } finally {
+            metriche.registra("cercaLibro_Per_Autore", inizio);
         }
 	}
 
 	@Override
-	public List<Libro> cercaLibro_Per_Autore_e_Anno(String autore, String anno) throws RemoteException {
+	public List<LibroSintesi> cercaLibro_Per_Autore_e_Anno(String autore, String anno) throws RemoteException {
+        long inizio = System.nanoTime();
 		try {
             logger.info("Ricerca libri per autore '{}' e anno '{}'", autore, anno);
-            List<Libro> risultati = libroDAO.cercaLibriPerAutoreEAnno(autore, anno);
+            String cercato = chiaveTesto(autore);
+            List<LibroSintesi> risultati = condividi(Richiesta.di("autoreAnno", cercato, IndiceFacette.annoDi(anno)),
+                    () -> libroDAO.cercaLibriPerAutoreEAnno(cercato, anno));
             logger.info("Trovati {} libri per autore '{}' e anno '{}'", risultati.size(), autore, anno);
             return risultati;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("cercaLibro_Per_Autore_e_Anno");
+            throw e;
         } catch (Exception e) {
+            metriche.errore("cercaLibro_Per_Autore_e_Anno");
             logger.error("Errore durante la ricerca per autore e anno: " + autore + ", " + anno, e);
             throw new RemoteException("Errore durante la ricerca per autore e anno", e);
+        } finally {
+            metriche.registra("cercaLibro_Per_Autore_e_Anno", inizio);
+        }
+    }
+
+    @Override
+    public PaginaLibri cercaLibro_Per_Titolo_Paginato(String titolo, int dimensionePagina, String cursore) throws RemoteException {
+        long inizio = System.nanoTime();
+        try {
+            logger.info("Ricerca paginata libri per titolo: {} (pagina da {})", titolo, dimensionePagina);
+            CursoreLibri dopo = CursoreLibri.decodifica(cursore);
+            int dimensione = limitaDimensionePagina(dimensionePagina);
+            String cercato = chiaveTesto(titolo);
+            PaginaLibri pagina = condividi(Richiesta.di("paginaTitolo", cercato, dopo, dimensione),
+                    () -> libroDAO.cercaLibriPerTitolo(cercato, dopo, dimensione));
+            logger.info("Restituiti {} libri per titolo '{}'", pagina.libri().size(), titolo);
+            return pagina;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("cercaLibro_Per_Titolo_Paginato");
+            throw e;
+        } catch (Exception e) {
+            metriche.errore("cercaLibro_Per_Titolo_Paginato");
+            logger.error("Errore durante la ricerca paginata per titolo: " + titolo, e);
+            throw new RemoteException("Errore durante la ricerca paginata per titolo", e);
+        } finally {
+            metriche.registra("cercaLibro_Per_Titolo_Paginato", inizio);
+        }
+    }
+
+    @Override
+    public PaginaLibri cercaLibro_Per_Autore_Paginato(String autore, int dimensionePagina, String cursore) throws RemoteException {
+        long inizio = System.nanoTime();
+        try {
+            logger.info("Ricerca paginata libri per autore: {} (pagina da {})", autore, dimensionePagina);
+            CursoreLibri dopo = CursoreLibri.decodifica(cursore);
+            int dimensione = limitaDimensionePagina(dimensionePagina);
+            String cercato = chiaveTesto(autore);
+            PaginaLibri pagina = condividi(Richiesta.di("paginaAutore", cercato, dopo, dimensione),
+                    () -> libroDAO.cercaLibriPerAutore(cercato, dopo, dimensione));
+            logger.info("Restituiti {} libri per autore '{}'", pagina.libri().size(), autore);
+            return pagina;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("cercaLibro_Per_Autore_Paginato");
+            throw e;
+        } catch (Exception e) {
+            metriche.errore("cercaLibro_Per_Autore_Paginato");
+            logger.error("Errore durante la ricerca paginata per autore: " + autore, e);
+            throw new RemoteException("Errore durante la ricerca paginata per autore", e);
+        } finally {
+            metriche.registra("cercaLibro_Per_Autore_Paginato", inizio);
         }
     }
+
+    @Override
+    public PaginaLibri cercaLibro_Per_Autore_e_Anno_Paginato(String autore, String anno, int dimensionePagina, String cursore) throws RemoteException {
+        long inizio = System.nanoTime();
+        try {
+            logger.info("Ricerca paginata libri per autore '{}' e anno '{}' (pagina da {})", autore, anno, dimensionePagina);
+            CursoreLibri dopo = CursoreLibri.decodifica(cursore);
+            int dimensione = limitaDimensionePagina(dimensionePagina);
+            String cercato = chiaveTesto(autore);
+            PaginaLibri pagina = condividi(Richiesta.di("paginaAutoreAnno", cercato, IndiceFacette.annoDi(anno), dopo, dimensione),
+                    () -> libroDAO.cercaLibriPerAutoreEAnno(cercato, anno, dopo, dimensione));
+            logger.info("Restituiti {} libri per autore '{}' e anno '{}'", pagina.libri().size(), autore, anno);
+            return pagina;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("cercaLibro_Per_Autore_e_Anno_Paginato");
+            throw e;
+        } catch (Exception e) {
+            metriche.errore("cercaLibro_Per_Autore_e_Anno_Paginato");
+            logger.error("Errore durante la ricerca paginata per autore e anno: " + autore + ", " + anno, e);
+            throw new RemoteException("Errore durante la ricerca paginata per autore e anno", e);
+        } finally {
+            metriche.registra("cercaLibro_Per_Autore_e_Anno_Paginato", inizio);
+        }
+    }
+
+    @Override
+    public List<LibroSintesi> cercaLibri_Per_ParoleChiave(String testo, int limite) throws RemoteException {
+        long inizio = System.nanoTime();
+        try {
+            logger.info("Ricerca full-text libri per parole chiave: {}", testo);
+            if (testo == null || testo.isBlank()) {
+                return new ArrayList<>();
+            }
+            String cercato = testo.trim();
+            int massimo = limitaDimensionePagina(limite);
+            List<LibroSintesi> risultati = condividi(Richiesta.di("paroleChiave", cercato, massimo),
+                    () -> libroDAO.cercaLibriPerParoleChiave(cercato, massimo));
+            logger.info("Trovati {} libri per parole chiave '{}'", risultati.size(), testo);
+            return risultati;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("cercaLibri_Per_ParoleChiave");
+            throw e;
+        } catch (Exception e) {
+            metriche.errore("cercaLibri_Per_ParoleChiave");
+            logger.error("Errore durante la ricerca per parole chiave: " + testo, e);
+            throw new RemoteException("Errore durante la ricerca per parole chiave", e);
+        } finally {
+            metriche.registra("cercaLibri_Per_ParoleChiave", inizio);
+        }
+    }
+
+    @Override
+    public RisultatoRicercaFuzzy cercaLibri_Fuzzy(String testo, CampoRicerca campo, int limite) throws RemoteException {
+        long inizio = System.nanoTime();
+        try {
+            logger.info("Ricerca approssimata libri per {}: {}", campo, testo);
+            if (testo == null || testo.isBlank() || campo == null) {
+                return new RisultatoRicercaFuzzy(new ArrayList<>(), new ArrayList<>());
+            }
+            int massimo = limitaDimensionePagina(limite);
+
+            // Prima la ricerca esatta, limitata ai libri da restituire: la ricerca approssimata
+            // serve solo se questa non trova nulla
+            String cercato = testo.trim();
+            LibroQuery esatta = (campo == CampoRicerca.AUTORE
+                    ? LibroQuery.builder().autoreContiene(cercato)
+                    : LibroQuery.builder().titoloContiene(cercato)).limite(massimo).build();
+            List<LibroSintesi> esatti = condividi(Richiesta.di("esattiFuzzy", cercato, campo, massimo),
+                    () -> libroDAO.cerca(esatta));
+            if (!esatti.isEmpty()) {
+                return new RisultatoRicercaFuzzy(esatti, new ArrayList<>());
+            }
+
+            RisultatoRicercaFuzzy risultato = condividi(Richiesta.di("fuzzy", cercato, campo, massimo),
+                    () -> libroDAO.cercaLibriFuzzy(cercato, campo, DISTANZA_MASSIMA_FUZZY, massimo));
+            logger.info("Trovati {} libri simili a '{}', correzioni proposte: {}", risultato.libri().size(), testo, risultato.forseCercavi());
+            return risultato;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("cercaLibri_Fuzzy");
+            throw e;
+        } catch (Exception e) {
+            metriche.errore("cercaLibri_Fuzzy");
+            logger.error("Errore durante la ricerca approssimata: " + testo, e);
+            throw new RemoteException("Errore durante la ricerca approssimata", e);
+        } finally {
+            metriche.registra("cercaLibri_Fuzzy", inizio);
+        }
+    }
+
+    @Override
+    public RisultatoRicercaFacette cercaLibri_Con_Facette(String testo, CampoRicerca campo, FiltriFacette filtri,
+                                                         int pagina, int dimensionePagina) throws RemoteException {
+        long inizio = System.nanoTime();
+        try {
+            logger.info("Ricerca con facette per {} '{}', filtri {} (pagina {})", campo, testo, filtri, pagina);
+            String cercato = testo == null ? null : testo.trim();
+            int numeroPagina = Math.max(0, pagina);
+            int dimensione = limitaDimensionePagina(dimensionePagina);
+            RisultatoRicercaFacette risultato = condividi(Richiesta.di("facette", cercato, campo, filtri, numeroPagina, dimensione),
+                    () -> libroDAO.cercaLibriConFacette(cercato, campo, filtri, numeroPagina, dimensione));
+            logger.info("Trovati {} libri con facette per '{}'", risultato.totale(), testo);
+            return risultato;
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("cercaLibri_Con_Facette");
+            throw e;
+        } catch (Exception e) {
+            metriche.errore("cercaLibri_Con_Facette");
+            logger.error("Errore durante la ricerca con facette: " + testo, e);
+            throw new RemoteException("Errore durante la ricerca con facette", e);
+        } finally {
+            metriche.registra("cercaLibri_Con_Facette", inizio);
+        }
+    }
+
+    @Override
+    public List<Suggerimento> suggerisci(String prefisso, int k) throws RemoteException {
+        long inizio = System.nanoTime();
+        try {
+            // Chiamata a ogni tasto premuto: niente log a livello info
+            IndicePrefissi indice = indicePrefissi;
+            if (indice == null) {
+                return new ArrayList<>();
+            }
+            return indice.suggerisci(prefisso, k);
+        } catch (Exception e) {
+            metriche.errore("suggerisci");
+            logger.error("Errore durante l'autocompletamento per il prefisso: " + prefisso, e);
+            throw new RemoteException("Errore durante l'autocompletamento", e);
+        } finally {
+            metriche.registra("suggerisci", inizio);
+        }
+    }
+
+    /**
+     * Sostituisce l'indice dell'autocompletamento, ad esempio dopo una ricarica del catalogo.
+     * I suggerimenti gia' in corso terminano sull'indice precedente.
+     */
+    public void sostituisciIndicePrefissi(IndicePrefissi nuovo) {
+        indicePrefissi = nuovo;
+    }
+
+    /**
+     * Esegue la ricerca sul DAO tramite l'esecutore, oppure attende il risultato di una ricerca
+     * identica gia' in corso (che occupa un solo posto nell'esecutore)
+     *
+     * @throws ServizioOccupatoException se l'esecutore e' saturo
+     * @throws RemoteException se il database non ha risposto; la causa (classi del server e del
+     *         driver) resta nel log e non viene inviata al client, che non saprebbe deserializzarla
+     */
+    private <T> T condividi(Richiesta richiesta, Supplier<T> ricerca) throws RemoteException {
+        try {
+            return ricercheInCorso.esegui(richiesta, () -> esecutore.esegui(ricerca));
+        } catch (EsecutoreLimitato.RichiestaRifiutataException e) {
+            throw e.perIlClient();
+        } catch (AccessoDatiException e) {
+            logger.error("Errore di accesso al database per {}", richiesta, e);
+            throw new RemoteException(e.getMessage());
+        }
+    }
+
+    /**
+     * Forma normalizzata del testo cercato per titolo o autore, usata sia nella chiave di
+     * {@link Richiesta} sia nella chiamata al DAO: "Eco", "eco" e " eco" condividono cosi' la
+     * stessa query (il LIKE del DAO confronta gia' in minuscolo)
+     */
+    private static String chiaveTesto(String testo) {
+        return testo == null ? "" : testo.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Riporta la dimensione di pagina richiesta dal client entro i limiti ammessi
+     */
+    private static int limitaDimensionePagina(int dimensionePagina) {
+        return Math.max(1, Math.min(dimensionePagina, DIMENSIONE_MASSIMA_PAGINA));
+    }
 }
    
\ No newline at end of file
@@ -0,0 +1,43 @@
+package bookrecommender.server.libri;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Posizione di una ricerca paginata: ultima coppia (titolo, id) restituita al client.
+ * Viene scambiata con il client come stringa opaca, cosi' la forma interna puo' cambiare
+ * senza modificare l'interfaccia remota.
+ */
+public record CursoreLibri(String titolo, long id) {
+
+    /**
+     * @return rappresentazione opaca del cursore (Base64 URL-safe di "id:titolo")
+     */
+    public String codifica() {
+        String testo = id + ":" + titolo;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(testo.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Ricostruisce un cursore dalla sua rappresentazione opaca.
+     *
+     * @param cursore cursore ricevuto dal client, puo' essere null o vuoto per la prima pagina
+     * @return il cursore decodificato, oppure null se {@code cursore} e' null o vuoto
+     * @throws IllegalArgumentException se il cursore non e' valido
+     */
+    public static CursoreLibri decodifica(String cursore) {
+        if (cursore == null || cursore.isEmpty()) {
+            return null;
+        }
+        String testo = new String(Base64.getUrlDecoder().decode(cursore), StandardCharsets.UTF_8);
+        int separatore = testo.indexOf(':');
+        if (separatore <= 0) {
+            throw new IllegalArgumentException("Cursore non valido: " + cursore);
+        }
+        try {
+            return new CursoreLibri(testo.substring(separatore + 1), Long.parseLong(testo.substring(0, separatore)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cursore non valido: " + cursore, e);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package bookrecommender.server.libri;
+
+import bookrecommender.condivisi.libri.ConteggioFacetta;
+import bookrecommender.condivisi.libri.FiltriFacette;
+import bookrecommender.condivisi.libri.Libro;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bitmap precalcolate per le facette del catalogo in memoria: per ogni categoria, decennio,
+ * anno ed editore l'insieme delle posizioni dei libri che hanno quel valore.
+ * <p>
+ * I conteggi di una ricerca si ottengono intersecando la bitmap dei libri trovati con quella di
+ * ogni valore, senza rileggere i libri. I valori frequenti sono bitmap piene (una parola ogni 64
+ * libri), quelli rari liste ordinate di posizioni, cosi' le migliaia di editori con pochi libri
+ * non occupano ciascuno una bitmap grande quanto il catalogo.
+ */
+final class IndiceFacette {
+
+    /** Numero massimo di valori restituiti per ogni facetta */
+    static final int MASSIMO_VALORI = 20;
+
+    private static final Pattern ANNO = Pattern.compile("\\d{4}");
+
+    private final int numeroLibri;
+    private final Map<String, Bitmap> categorie;
+    private final Map<String, Bitmap> decenni;
+    private final Map<String, Bitmap> anni;
+    private final Map<String, Bitmap> editori;
+
+    /**
+     * @param libri libri del catalogo; le posizioni delle bitmap sono gli indici in questo array
+     */
+    IndiceFacette(Libro[] libri) {
+        this.numeroLibri = libri.length;
+        Map<String, Posizioni> perCategoria = new HashMap<>();
+        Map<String, Posizioni> perDecennio = new HashMap<>();
+        Map<String, Posizioni> perAnno = new HashMap<>();
+        Map<String, Posizioni> perEditore = new HashMap<>();
+
+        for (int i = 0; i < libri.length; i++) {
+            for (String categoria : categorieDi(libri[i].getCategorie())) {
+                perCategoria.computeIfAbsent(categoria, k -> new Posizioni()).aggiungi(i);
+            }
+            String anno = annoDi(libri[i].getAnno());
+            if (anno != null) {
+                perAnno.computeIfAbsent(anno, k -> new Posizioni()).aggiungi(i);
+                perDecennio.computeIfAbsent(decennioDi(anno), k -> new Posizioni()).aggiungi(i);
+            }
+            String editore = editoreDi(libri[i].getEditore());
+            if (editore != null) {
+                perEditore.computeIfAbsent(editore, k -> new Posizioni()).aggiungi(i);
+            }
+        }
+
+        this.categorie = comprimi(perCategoria, numeroLibri);
+        this.decenni = comprimi(perDecennio, numeroLibri);
+        this.anni = comprimi(perAnno, numeroLibri);
+        this.editori = comprimi(perEditore, numeroLibri);
+    }
+
+    private IndiceFacette(int numeroLibri, Map<String, Bitmap> categorie, Map<String, Bitmap> decenni,
+                          Map<String, Bitmap> anni, Map<String, Bitmap> editori) {
+        this.numeroLibri = numeroLibri;
+        this.categorie = categorie;
+        this.decenni = decenni;
+        this.anni = anni;
+        this.editori = editori;
+    }
+
+    /**
+     * Indice del catalogo con un libro in piu' nella posizione indicata: le posizioni successive
+     * scorrono di uno, senza rileggere gli altri libri. L'indice corrente non viene modificato.
+     */
+    IndiceFacette conLibro(int posizione, Libro libro) {
+        int nuovoNumero = numeroLibri + 1;
+        String anno = annoDi(libro.getAnno());
+        String editore = editoreDi(libro.getEditore());
+        return new IndiceFacette(nuovoNumero,
+                conPosizione(categorie, posizione, categorieDi(libro.getCategorie()), nuovoNumero),
+                conPosizione(decenni, posizione, anno == null ? List.of() : List.of(decennioDi(anno)), nuovoNumero),
+                conPosizione(anni, posizione, anno == null ? List.of() : List.of(anno), nuovoNumero),
+                conPosizione(editori, posizione, editore == null ? List.of() : List.of(editore), nuovoNumero));
+    }
+
+    private static Map<String, Bitmap> conPosizione(Map<String, Bitmap> facetta, int posizione, List<String> valori,
+                                                    int numeroLibri) {
+        Map<String, Bitmap> nuova = new HashMap<>(facetta.size() * 2 + 2);
+        for (Map.Entry<String, Bitmap> e : facetta.entrySet()) {
+            nuova.put(e.getKey(), e.getValue().conPosizione(posizione, valori.contains(e.getKey()), numeroLibri));
+        }
+        for (String valore : valori) {
+            nuova.computeIfAbsent(valore, k -> new Bitmap(null, new int[]{posizione}, 1));
+        }
+        return nuova;
+    }
+
+    /**
+     * @return una bitmap vuota della dimensione del catalogo
+     */
+    long[] nuovaBitmap() {
+        return new long[(numeroLibri + 63) >>> 6];
+    }
+
+    /**
+     * @return una bitmap con tutti i libri del catalogo
+     */
+    long[] bitmapCompleta() {
+        long[] tutti = nuovaBitmap();
+        Arrays.fill(tutti, -1L);
+        if ((numeroLibri & 63) != 0) {
+            tutti[tutti.length - 1] = (1L << numeroLibri) - 1;
+        }
+        return tutti;
+    }
+
+    /**
+     * Restringe i libri trovati a quelli che hanno i valori di facetta scelti
+     */
+    void applicaFiltri(long[] trovati, FiltriFacette filtri) {
+        if (filtri == null) {
+            return;
+        }
+        interseca(trovati, categorie, filtri.categoria());
+        interseca(trovati, decenni, filtri.decennio());
+        interseca(trovati, anni, filtri.anno());
+        interseca(trovati, editori, filtri.editore());
+    }
+
+    /**
+     * @return numero di libri del catalogo con la categoria indicata
+     */
+    int cardinalitaCategoria(String categoria) {
+        Bitmap bitmap = categorie.get(categoria.trim());
+        return bitmap == null ? 0 : bitmap.cardinalita;
+    }
+
+    /**
+     * @return numero di libri del catalogo dell'editore indicato
+     */
+    int cardinalitaEditore(String editore) {
+        Bitmap bitmap = editori.get(editore.trim());
+        return bitmap == null ? 0 : bitmap.cardinalita;
+    }
+
+    List<ConteggioFacetta> contaCategorie(long[] trovati) {
+        return conta(trovati, categorie);
+    }
+
+    List<ConteggioFacetta> contaDecenni(long[] trovati) {
+        return conta(trovati, decenni);
+    }
+
+    List<ConteggioFacetta> contaAnni(long[] trovati) {
+        return conta(trovati, anni);
+    }
+
+    List<ConteggioFacetta> contaEditori(long[] trovati) {
+        return conta(trovati, editori);
+    }
+
+    private static void interseca(long[] trovati, Map<String, Bitmap> facetta, String valore) {
+        if (vuoto(valore)) {
+            return;
+        }
+        Bitmap bitmap = facetta.get(valore.trim());
+        if (bitmap == null) {
+            Arrays.fill(trovati, 0L);
+        } else {
+            bitmap.interseca(trovati);
+        }
+    }
+
+    private static List<ConteggioFacetta> conta(long[] trovati, Map<String, Bitmap> facetta) {
+        List<ConteggioFacetta> conteggi = new ArrayList<>();
+        for (Map.Entry<String, Bitmap> e : facetta.entrySet()) {
+            int conteggio = e.getValue().contaIntersezione(trovati);
+            if (conteggio > 0) {
+                conteggi.add(new ConteggioFacetta(e.getKey(), conteggio));
+            }
+        }
+        return migliori(conteggi);
+    }
+
+    /**
+     * Verifica i filtri su un singolo libro, per chi non dispone delle bitmap (il DAO JDBC)
+     *
+     * @param categorie categorie del libro, come restituite da {@link #categorieDi}
+     * @param anno anno del libro, come restituito da {@link #annoDi}
+     */
+    static boolean soddisfa(FiltriFacette filtri, List<String> categorie, String anno, String editore) {
+        if (filtri == null) {
+            return true;
+        }
+        return (vuoto(filtri.categoria()) || categorie.contains(filtri.categoria().trim()))
+                && (vuoto(filtri.anno()) || filtri.anno().trim().equals(anno))
+                && (vuoto(filtri.decennio()) || (anno != null && filtri.decennio().trim().equals(decennioDi(anno))))
+                && (vuoto(filtri.editore()) || filtri.editore().trim().equals(editore));
+    }
+
+    private static boolean vuoto(String valore) {
+        return valore == null || valore.isBlank();
+    }
+
+    static List<ConteggioFacetta> migliori(Map<String, Integer> conteggi) {
+        List<ConteggioFacetta> lista = new ArrayList<>(conteggi.size());
+        conteggi.forEach((valore, conteggio) -> lista.add(new ConteggioFacetta(valore, conteggio)));
+        return migliori(lista);
+    }
+
+    /**
+     * Ordina i conteggi dal piu' alto e tiene i primi {@link #MASSIMO_VALORI}
+     */
+    static List<ConteggioFacetta> migliori(List<ConteggioFacetta> conteggi) {
+        conteggi.sort(Comparator.comparingInt(ConteggioFacetta::conteggio).reversed()
+                .thenComparing(ConteggioFacetta::valore));
+        return conteggi.size() > MASSIMO_VALORI ? new ArrayList<>(conteggi.subList(0, MASSIMO_VALORI)) : conteggi;
+    }
+
+    /**
+     * Le categorie sono memorizzate come elenco separato da virgole (es. "Fiction , Mystery & Detective")
+     */
+    static List<String> categorieDi(String categorie) {
+        List<String> valori = new ArrayList<>();
+        if (categorie == null) {
+            return valori;
+        }
+        for (String categoria : categorie.split(",")) {
+            String pulita = categoria.trim();
+            if (!pulita.isEmpty() && !valori.contains(pulita)) {
+                valori.add(pulita);
+            }
+        }
+        return valori;
+    }
+
+    /**
+     * @return l'anno a quattro cifre contenuto nel campo anno (es. "Published 1993" -> "1993"), o null
+     */
+    static String annoDi(String anno) {
+        if (anno == null) {
+            return null;
+        }
+        Matcher m = ANNO.matcher(anno);
+        return m.find() ? m.group() : null;
+    }
+
+    /**
+     * @return il decennio di un anno a quattro cifre, es. "1993" -> "1990-1999"
+     */
+    static String decennioDi(String anno) {
+        int inizio = Integer.parseInt(anno) / 10 * 10;
+        return inizio + "-" + (inizio + 9);
+    }
+
+    static String editoreDi(String editore) {
+        return editore == null || editore.isBlank() ? null : editore.trim();
+    }
+
+    private static Map<String, Bitmap> comprimi(Map<String, Posizioni> posizioni, int numeroLibri) {
+        Map<String, Bitmap> bitmap = new HashMap<>(posizioni.size() * 2);
+        for (Map.Entry<String, Posizioni> e : posizioni.entrySet()) {
+            bitmap.put(e.getKey(), Bitmap.di(e.getValue(), numeroLibri));
+        }
+        return bitmap;
+    }
+
+    /**
+     * Insieme di posizioni: bitmap piena se il valore e' frequente, lista ordinata di posizioni
+     * se e' raro. Si sceglie la rappresentazione che occupa meno memoria.
+     */
+    private static final class Bitmap {
+        private final long[] parole;
+        private final int[] posizioni;
+        private final int cardinalita;
+
+        private Bitmap(long[] parole, int[] posizioni, int cardinalita) {
+            this.parole = parole;
+            this.posizioni = posizioni;
+            this.cardinalita = cardinalita;
+        }
+
+        static Bitmap di(Posizioni p, int numeroLibri) {
+            int parole = (numeroLibri + 63) >>> 6;
+            if ((long) p.numero * Integer.BYTES < (long) parole * Long.BYTES) {
+                return new Bitmap(null, Arrays.copyOf(p.valori, p.numero), p.numero);
+            }
+            long[] bitmap = new long[parole];
+            for (int i = 0; i < p.numero; i++) {
+                bitmap[p.valori[i] >>> 6] |= 1L << p.valori[i];
+            }
+            return new Bitmap(bitmap, null, p.numero);
+        }
+
+        /**
+         * @return la bitmap con le posizioni da {@code posizione} in poi spostate di uno, e
+         *         {@code posizione} impostata se {@code presente}; questa se non cambia nulla
+         */
+        Bitmap conPosizione(int posizione, boolean presente, int numeroLibri) {
+            int nuovaCardinalita = cardinalita + (presente ? 1 : 0);
+            if (parole == null) {
+                if (!presente && (posizioni.length == 0 || posizioni[posizioni.length - 1] < posizione)) {
+                    return this;
+                }
+                int[] nuove = new int[nuovaCardinalita];
+                int j = 0;
+                int i = 0;
+                for (; i < posizioni.length && posizioni[i] < posizione; i++) {
+                    nuove[j++] = posizioni[i];
+                }
+                if (presente) {
+                    nuove[j++] = posizione;
+                }
+                for (; i < posizioni.length; i++) {
+                    nuove[j++] = posizioni[i] + 1;
+                }
+                return new Bitmap(null, nuove, nuovaCardinalita);
+            }
+
+            // Bitmap piena: i bit da posizione in poi scorrono di uno verso l'alto
+            long[] nuove = new long[(numeroLibri + 63) >>> 6];
+            int parola = posizione >>> 6;
+            System.arraycopy(parole, 0, nuove, 0, Math.min(parola, parole.length));
+            long bassi = (1L << posizione) - 1;
+            for (int i = parola; i < nuove.length; i++) {
+                long corrente = i < parole.length ? parole[i] : 0;
+                if (i == parola) {
+                    nuove[i] = (corrente & bassi) | ((corrente & ~bassi) << 1);
+                } else {
+                    nuove[i] = (corrente << 1) | (parole[i - 1] >>> 63);
+                }
+            }
+            if (presente) {
+                nuove[parola] |= 1L << posizione;
+            }
+            return new Bitmap(nuove, null, nuovaCardinalita);
+        }
+
+        int contaIntersezione(long[] trovati) {
+            int conteggio = 0;
+            if (parole != null) {
+                for (int i = 0; i < parole.length; i++) {
+                    conteggio += Long.bitCount(parole[i] & trovati[i]);
+                }
+            } else {
+                for (int posizione : posizioni) {
+                    if ((trovati[posizione >>> 6] & (1L << posizione)) != 0) {
+                        conteggio++;
+                    }
+                }
+            }
+            return conteggio;
+        }
+
+        void interseca(long[] trovati) {
+            if (parole != null) {
+                for (int i = 0; i < parole.length; i++) {
+                    trovati[i] &= parole[i];
+                }
+                return;
+            }
+            long[] risultato = new long[trovati.length];
+            for (int posizione : posizioni) {
+                risultato[posizione >>> 6] |= trovati[posizione >>> 6] & (1L << posizione);
+            }
+            System.arraycopy(risultato, 0, trovati, 0, trovati.length);
+        }
+    }
+
+    private static final class Posizioni {
+        private int[] valori = new int[4];
+        private int numero;
+
+        void aggiungi(int posizione) {
+            if (numero == valori.length) {
+                valori = Arrays.copyOf(valori, numero * 2);
+            }
+            valori[numero++] = posizione;
+        }
+    }
+}
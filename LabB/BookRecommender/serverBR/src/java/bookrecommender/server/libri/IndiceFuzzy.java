@@ -0,0 +1,192 @@
+package bookrecommender.server.libri;
+
+import bookrecommender.condivisi.libri.CampoRicerca;
+import bookrecommender.condivisi.libri.Libro;
+import bookrecommender.condivisi.libri.LibroSintesi;
+import bookrecommender.condivisi.libri.RisultatoRicercaFuzzy;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Indice per la ricerca tollerante agli errori di battitura su titoli e autori.
+ * <p>
+ * Titoli e autori vengono spezzati in parole normalizzate (minuscole, senza accenti) e ogni
+ * parola viene inserita in un {@link AlberoBK} per campo. Una ricerca cerca ogni parola del
+ * testo entro una distanza di modifica che cresce con la sua lunghezza, poi interseca i libri
+ * trovati per le diverse parole e li ordina per distanza complessiva.
+ */
+final class IndiceFuzzy {
+
+    private static final Pattern SEPARATORI = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern DIACRITICI = Pattern.compile("\\p{M}+");
+
+    private final AlberoBK titoli = new AlberoBK();
+    private final AlberoBK autori = new AlberoBK();
+    private final Comparator<Libro> ordine;
+
+    /**
+     * @param ordine ordine dei risultati a parita' di distanza
+     */
+    IndiceFuzzy(Comparator<Libro> ordine) {
+        this.ordine = ordine;
+    }
+
+    /**
+     * Indicizza un libro, visibile alle ricerche appena il metodo termina
+     */
+    void aggiungi(Libro libro) {
+        for (String termine : termini(libro.getTitolo())) {
+            titoli.aggiungi(termine, libro);
+        }
+        for (String termine : termini(libro.getAutori())) {
+            autori.aggiungi(termine, libro);
+        }
+    }
+
+    /**
+     * Indicizza tutti i libri insieme, pubblicando la lista dei libri di ogni termine una volta sola
+     */
+    void aggiungiTutti(Libro[] libri) {
+        for (Libro libro : libri) {
+            for (String termine : termini(libro.getTitolo())) {
+                titoli.accoda(termine, libro);
+            }
+            for (String termine : termini(libro.getAutori())) {
+                autori.accoda(termine, libro);
+            }
+        }
+        titoli.completaCaricamento();
+        autori.completaCaricamento();
+    }
+
+    int getNumeroTermini() {
+        return titoli.getNumeroTermini() + autori.getNumeroTermini();
+    }
+
+    /**
+     * Cerca i libri il cui campo contiene tutte le parole del testo, ciascuna a meno di
+     * {@code distanzaMassima} errori, e propone la correzione del testo con i termini piu' vicini.
+     */
+    RisultatoRicercaFuzzy cerca(String testo, CampoRicerca campo, int distanzaMassima, int limite) {
+        AlberoBK albero = campo == CampoRicerca.AUTORE ? autori : titoli;
+        List<String> parole = termini(testo);
+        if (parole.isEmpty()) {
+            return new RisultatoRicercaFuzzy(new ArrayList<>(), new ArrayList<>());
+        }
+
+        Map<Libro, Integer> distanze = null;
+        List<List<AlberoBK.Corrispondenza>> trovatePerParola = new ArrayList<>(parole.size());
+
+        for (String parola : parole) {
+            List<AlberoBK.Corrispondenza> trovate = albero.cerca(parola, Math.min(distanzaMassima, tolleranza(parola)));
+            trovatePerParola.add(trovate);
+
+            // Distanza minima di ogni libro per questa parola
+            Map<Libro, Integer> perParola = new IdentityHashMap<>();
+            for (AlberoBK.Corrispondenza c : trovate) {
+                for (Libro libro : c.libri()) {
+                    perParola.merge(libro, c.distanza(), Math::min);
+                }
+            }
+
+            if (distanze == null) {
+                distanze = perParola;
+            } else {
+                Map<Libro, Integer> intersezione = new IdentityHashMap<>();
+                for (Map.Entry<Libro, Integer> e : distanze.entrySet()) {
+                    Integer d = perParola.get(e.getKey());
+                    if (d != null) {
+                        intersezione.put(e.getKey(), e.getValue() + d);
+                    }
+                }
+                distanze = intersezione;
+            }
+        }
+
+        Map<Libro, Integer> punteggi = distanze;
+        List<Libro> trovati = new ArrayList<>(punteggi.keySet());
+        trovati.sort(Comparator.comparingInt((Libro l) -> punteggi.get(l)).thenComparing(ordine));
+        List<LibroSintesi> libri = new ArrayList<>(Math.min(limite, trovati.size()));
+        for (int i = 0; i < trovati.size() && libri.size() < limite; i++) {
+            libri.add(LibroSintesi.di(trovati.get(i)));
+        }
+
+        List<String> forseCercavi = new ArrayList<>();
+        String correzione = correggi(parole, trovatePerParola, punteggi);
+        if (!correzione.equals(String.join(" ", parole))) {
+            forseCercavi.add(correzione);
+        }
+        return new RisultatoRicercaFuzzy(libri, forseCercavi);
+    }
+
+    /**
+     * Sostituisce ogni parola con il termine piu' vicino, preferendo i termini che compaiono nei
+     * libri trovati (cosi' la correzione e' coerente con i risultati) e, a parita' di distanza,
+     * quelli presenti in piu' libri.
+     */
+    private static String correggi(List<String> parole, List<List<AlberoBK.Corrispondenza>> trovatePerParola,
+                                   Map<Libro, Integer> risultati) {
+        StringBuilder correzione = new StringBuilder();
+        for (int i = 0; i < parole.size(); i++) {
+            AlberoBK.Corrispondenza migliore = null;
+            boolean miglioreNeiRisultati = false;
+            for (AlberoBK.Corrispondenza c : trovatePerParola.get(i)) {
+                boolean neiRisultati = false;
+                for (Libro libro : c.libri()) {
+                    if (risultati.containsKey(libro)) {
+                        neiRisultati = true;
+                        break;
+                    }
+                }
+                if (migliore == null
+                        || (neiRisultati && !miglioreNeiRisultati)
+                        || (neiRisultati == miglioreNeiRisultati && (c.distanza() < migliore.distanza()
+                            || (c.distanza() == migliore.distanza() && c.libri().length > migliore.libri().length)))) {
+                    migliore = c;
+                    miglioreNeiRisultati = neiRisultati;
+                }
+            }
+            if (i > 0) {
+                correzione.append(' ');
+            }
+            correzione.append(migliore != null ? migliore.termine() : parole.get(i));
+        }
+        return correzione.toString();
+    }
+
+    /**
+     * Errori ammessi per parola: nessuno per le parole corte, dove quasi ogni modifica
+     * produce un'altra parola valida, uno fino a 5 caratteri e due oltre (uno scambio di
+     * lettere adiacenti conta come due modifiche).
+     */
+    private static int tolleranza(String parola) {
+        if (parola.length() <= 3) {
+            return 0;
+        }
+        return parola.length() <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Spezza il testo in parole minuscole senza accenti, scartando quelle di un solo carattere
+     */
+    static List<String> termini(String testo) {
+        List<String> termini = new ArrayList<>();
+        if (testo == null || testo.isBlank()) {
+            return termini;
+        }
+        String normalizzato = DIACRITICI.matcher(Normalizer.normalize(testo, Normalizer.Form.NFD)).replaceAll("");
+        for (String parola : SEPARATORI.split(normalizzato.toLowerCase(Locale.ROOT))) {
+            if (parola.length() > 1) {
+                termini.add(parola);
+            }
+        }
+        return termini;
+    }
+}
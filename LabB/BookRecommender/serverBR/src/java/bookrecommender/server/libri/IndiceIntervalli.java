@@ -0,0 +1,211 @@
+package bookrecommender.server.libri;
+
+import bookrecommender.condivisi.libri.Libro;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Indice per i criteri a intervallo del catalogo in memoria: anno di pubblicazione e prezzo.
+ * <p>
+ * I due campi sono testo libero nel database ("Published 1993", "Price Starting at $5.29"):
+ * il valore numerico viene estratto una volta sola e per ogni campo si tiene l'elenco delle
+ * posizioni ordinate per valore. Contare o marcare i libri di un intervallo costa due ricerche
+ * binarie piu' il numero di libri dell'intervallo.
+ */
+final class IndiceIntervalli {
+
+    private static final Pattern PREZZO = Pattern.compile("\\d+(?:\\.\\d+)?");
+
+    private final Colonna anni;
+    private final Colonna prezzi;
+
+    IndiceIntervalli(Libro[] libri) {
+        double[] valoriAnno = new double[libri.length];
+        double[] valoriPrezzo = new double[libri.length];
+        for (int i = 0; i < libri.length; i++) {
+            String anno = IndiceFacette.annoDi(libri[i].getAnno());
+            valoriAnno[i] = anno == null ? Double.NaN : Integer.parseInt(anno);
+            valoriPrezzo[i] = prezzoDi(libri[i].getPrezzo());
+        }
+        this.anni = new Colonna(valoriAnno);
+        this.prezzi = new Colonna(valoriPrezzo);
+    }
+
+    private IndiceIntervalli(Colonna anni, Colonna prezzi) {
+        this.anni = anni;
+        this.prezzi = prezzi;
+    }
+
+    /**
+     * Indice del catalogo con un libro in piu' nella posizione indicata; quello corrente non
+     * viene modificato
+     */
+    IndiceIntervalli conLibro(int posizione, Libro libro) {
+        String anno = IndiceFacette.annoDi(libro.getAnno());
+        return new IndiceIntervalli(anni.conValore(posizione, anno == null ? Double.NaN : Integer.parseInt(anno)),
+                prezzi.conValore(posizione, prezzoDi(libro.getPrezzo())));
+    }
+
+    Colonna anni() {
+        return anni;
+    }
+
+    Colonna prezzi() {
+        return prezzi;
+    }
+
+    /**
+     * @return il primo numero contenuto nel campo prezzo, o NaN se non ce n'e'
+     */
+    static double prezzoDi(String prezzo) {
+        if (prezzo == null) {
+            return Double.NaN;
+        }
+        Matcher m = PREZZO.matcher(prezzo);
+        return m.find() ? Double.parseDouble(m.group()) : Double.NaN;
+    }
+
+    /**
+     * Valori numerici di un campo, per posizione nel catalogo, con le posizioni ordinate per valore.
+     * I libri senza valore (NaN) non rientrano in nessun intervallo.
+     */
+    static final class Colonna {
+        private final double[] valori;
+        private final double[] ordinati;
+        private final int[] posizioni;
+
+        private Colonna(double[] valori) {
+            this.valori = valori;
+            Integer[] conValore = new Integer[valori.length];
+            int n = 0;
+            for (int i = 0; i < valori.length; i++) {
+                if (!Double.isNaN(valori[i])) {
+                    conValore[n++] = i;
+                }
+            }
+            // Ordinamento stabile: a parita' di valore resta l'ordine per titolo
+            Arrays.sort(conValore, 0, n, (a, b) -> Double.compare(valori[a], valori[b]));
+            this.ordinati = new double[n];
+            this.posizioni = new int[n];
+            for (int i = 0; i < n; i++) {
+                posizioni[i] = conValore[i];
+                ordinati[i] = valori[posizioni[i]];
+            }
+        }
+
+        private Colonna(double[] valori, double[] ordinati, int[] posizioni) {
+            this.valori = valori;
+            this.ordinati = ordinati;
+            this.posizioni = posizioni;
+        }
+
+        /**
+         * Inserisce un valore nella posizione indicata, spostando di uno le posizioni successive;
+         * a parita' di valore il nuovo libro resta nell'ordine per titolo come nel costruttore
+         */
+        Colonna conValore(int posizione, double valore) {
+            double[] nuoviValori = new double[valori.length + 1];
+            System.arraycopy(valori, 0, nuoviValori, 0, posizione);
+            nuoviValori[posizione] = valore;
+            System.arraycopy(valori, posizione, nuoviValori, posizione + 1, valori.length - posizione);
+
+            boolean conValore = !Double.isNaN(valore);
+            int punto = ordinati.length;
+            if (conValore) {
+                // Tra i valori uguali le posizioni sono crescenti: si cerca la prima successiva
+                punto = primoNonMinore(valore);
+                int fine = primoMaggiore(valore);
+                while (punto < fine) {
+                    int medio = (punto + fine) >>> 1;
+                    if (posizioni[medio] < posizione) {
+                        punto = medio + 1;
+                    } else {
+                        fine = medio;
+                    }
+                }
+            }
+            int n = ordinati.length + (conValore ? 1 : 0);
+            double[] nuoviOrdinati = new double[n];
+            int[] nuovePosizioni = new int[n];
+            for (int i = 0, j = 0; i < ordinati.length; i++, j++) {
+                if (conValore && i == punto) {
+                    nuoviOrdinati[j] = valore;
+                    nuovePosizioni[j++] = posizione;
+                }
+                nuoviOrdinati[j] = ordinati[i];
+                nuovePosizioni[j] = posizioni[i] >= posizione ? posizioni[i] + 1 : posizioni[i];
+            }
+            if (conValore && punto == ordinati.length) {
+                nuoviOrdinati[n - 1] = valore;
+                nuovePosizioni[n - 1] = posizione;
+            }
+            return new Colonna(nuoviValori, nuoviOrdinati, nuovePosizioni);
+        }
+
+        /**
+         * @return il valore del libro in quella posizione, NaN se assente
+         */
+        double valore(int posizione) {
+            return valori[posizione];
+        }
+
+        /**
+         * @return numero di libri con valore compreso tra gli estremi (inclusi; null = illimitato)
+         */
+        int conta(Double minimo, Double massimo) {
+            return fine(massimo) - inizio(minimo);
+        }
+
+        /**
+         * Azzera nella bitmap i libri con valore fuori dall'intervallo
+         */
+        void restringi(long[] bitmap, Double minimo, Double massimo) {
+            long[] nellIntervallo = new long[bitmap.length];
+            for (int i = inizio(minimo), fine = fine(massimo); i < fine; i++) {
+                int p = posizioni[i];
+                nellIntervallo[p >>> 6] |= 1L << p;
+            }
+            for (int i = 0; i < bitmap.length; i++) {
+                bitmap[i] &= nellIntervallo[i];
+            }
+        }
+
+        private int inizio(Double minimo) {
+            return minimo == null ? 0 : primoNonMinore(minimo);
+        }
+
+        private int fine(Double massimo) {
+            return massimo == null ? ordinati.length : primoMaggiore(massimo);
+        }
+
+        private int primoNonMinore(double valore) {
+            int basso = 0;
+            int alto = ordinati.length;
+            while (basso < alto) {
+                int medio = (basso + alto) >>> 1;
+                if (ordinati[medio] < valore) {
+                    basso = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            return basso;
+        }
+
+        private int primoMaggiore(double valore) {
+            int basso = 0;
+            int alto = ordinati.length;
+            while (basso < alto) {
+                int medio = (basso + alto) >>> 1;
+                if (ordinati[medio] <= valore) {
+                    basso = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            return basso;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package bookrecommender.server.libri;
+
+import bookrecommender.condivisi.libri.Suggerimento;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Indice per l'autocompletamento di titoli e autori.
+ * <p>
+ * Le chiavi (titoli e autori in minuscolo; per gli autori anche ogni suffisso che inizia con una
+ * parola, cosi' "eco" completa "Umberto Eco") sono tenute in un array ordinato: i completamenti
+ * di un prefisso occupano un intervallo contiguo che si trova con due ricerche binarie.
+ * Per i prefissi che coprono molte chiavi (quelli corti, tipicamente) i migliori suggerimenti
+ * sono precalcolati, quindi una richiesta non scorre mai piu' di {@link #SOGLIA_SCANSIONE} chiavi.
+ * <p>
+ * L'indice rispetta un budget di memoria: se le voci non ci stanno vengono scartate le meno popolari.
+ */
+public final class IndicePrefissi {
+
+    private static final Logger logger = LogManager.getLogger(IndicePrefissi.class);
+
+    /** Numero massimo di suggerimenti restituiti per richiesta */
+    public static final int K_MASSIMO = 10;
+    /** Lunghezza minima del prefisso per cui vengono proposti suggerimenti */
+    public static final int LUNGHEZZA_MINIMA = 2;
+    // Oltre questa ampiezza di intervallo i migliori suggerimenti vengono precalcolati
+    private static final int SOGLIA_SCANSIONE = 256;
+    // Stima prudente dell'occupazione di una voce: oggetti, array e caratteri di chiave e testo
+    private static final int COSTO_FISSO_VOCE = 96;
+
+    private final String[] chiavi;
+    private final String[] testi;
+    private final boolean[] autore;
+    private final int[] popolarita;
+    private final Map<String, int[]> migliori = new HashMap<>();
+
+    private IndicePrefissi(List<Voce> voci) {
+        int n = voci.size();
+        chiavi = new String[n];
+        testi = new String[n];
+        autore = new boolean[n];
+        popolarita = new int[n];
+        for (int i = 0; i < n; i++) {
+            Voce v = voci.get(i);
+            chiavi[i] = v.chiave;
+            testi[i] = v.testo;
+            autore[i] = v.autore;
+            popolarita[i] = v.popolarita;
+        }
+        precalcola(0, n, 0);
+    }
+
+    /**
+     * Costruisce l'indice a partire da titoli, autori e popolarita' dei libri presenti nel database.
+     *
+     * @param dao DAO da cui leggere i libri
+     * @param budgetByte memoria massima (stimata) occupata dalle voci dell'indice
+     * @throws SQLException se la lettura fallisce
+     */
+    public static IndicePrefissi costruisci(JdbcCercaLibriDAO dao, long budgetByte) throws SQLException {
+        long inizio = System.nanoTime();
+        Map<String, Voce> titoli = new HashMap<>();
+        Map<String, Voce> autori = new HashMap<>();
+
+        dao.caricaPopolarita(libro -> {
+            // Ogni libro conta almeno 1, cosi' a parita' di librerie vince il titolo/autore con piu' edizioni
+            int punti = libro.popolarita() + 1;
+            accumula(titoli, libro.titolo(), false, punti);
+            accumula(autori, libro.autori(), true, punti);
+        });
+
+        List<Voce> voci = new ArrayList<>(titoli.values());
+        for (Voce a : autori.values()) {
+            voci.add(a);
+            // Suffissi che iniziano con una parola: "umberto eco" -> "eco"
+            for (int i = 1; i < a.chiave.length(); i++) {
+                if (a.chiave.charAt(i - 1) == ' ' && a.chiave.charAt(i) != ' ') {
+                    voci.add(new Voce(a.chiave.substring(i), a.testo, true, a.popolarita));
+                }
+            }
+        }
+
+        // Rispetto del budget: si tengono le voci piu' popolari
+        voci.sort(Comparator.comparingInt((Voce v) -> v.popolarita).reversed());
+        long occupati = 0;
+        int tenute = 0;
+        for (Voce v : voci) {
+            long costo = COSTO_FISSO_VOCE + v.chiave.length() + v.testo.length();
+            if (occupati + costo > budgetByte) {
+                break;
+            }
+            occupati += costo;
+            tenute++;
+        }
+        if (tenute < voci.size()) {
+            logger.warn("Budget di memoria dell'autocompletamento raggiunto: scartate {} voci su {}", voci.size() - tenute, voci.size());
+        }
+        List<Voce> ordinate = new ArrayList<>(voci.subList(0, tenute));
+        ordinate.sort(Comparator.comparing((Voce v) -> v.chiave));
+
+        IndicePrefissi indice = new IndicePrefissi(ordinate);
+        logger.info("Indice di autocompletamento costruito: {} voci (~{} KB), {} prefissi precalcolati in {} ms",
+                tenute, occupati / 1024, indice.migliori.size(), (System.nanoTime() - inizio) / 1_000_000);
+        return indice;
+    }
+
+    /**
+     * Restituisce i completamenti piu' popolari per il prefisso indicato.
+     *
+     * @param prefisso testo digitato dall'utente
+     * @param k numero massimo di suggerimenti (al piu' {@link #K_MASSIMO})
+     */
+    public List<Suggerimento> suggerisci(String prefisso, int k) {
+        String p = prefisso == null ? "" : prefisso.stripLeading().toLowerCase(Locale.ROOT);
+        int quanti = Math.min(k, K_MASSIMO);
+        if (p.length() < LUNGHEZZA_MINIMA || quanti <= 0) {
+            return new ArrayList<>();
+        }
+
+        int da = limiteInferiore(p);
+        int a = limiteInferiore(p + Character.MAX_VALUE);
+        int[] posizioni = a - da > SOGLIA_SCANSIONE ? migliori.get(p) : null;
+        if (posizioni == null) {
+            posizioni = selezionaMigliori(da, a);
+        }
+
+        List<Suggerimento> suggerimenti = new ArrayList<>(Math.min(quanti, posizioni.length));
+        for (int i = 0; i < posizioni.length && suggerimenti.size() < quanti; i++) {
+            int pos = posizioni[i];
+            suggerimenti.add(new Suggerimento(testi[pos],
+                    autore[pos] ? Suggerimento.Tipo.AUTORE : Suggerimento.Tipo.TITOLO, popolarita[pos]));
+        }
+        return suggerimenti;
+    }
+
+    public int getNumeroVoci() {
+        return chiavi.length;
+    }
+
+    /**
+     * Precalcola i migliori suggerimenti per ogni prefisso il cui intervallo supera la soglia,
+     * scendendo di un carattere alla volta. I prefissi sono sempre prefissi di chiavi esistenti.
+     */
+    private void precalcola(int da, int a, int lunghezza) {
+        if (a - da <= SOGLIA_SCANSIONE) {
+            return;
+        }
+        if (lunghezza >= LUNGHEZZA_MINIMA) {
+            migliori.put(chiavi[da].substring(0, lunghezza), selezionaMigliori(da, a));
+        }
+        int i = da;
+        // Le chiavi uguali al prefisso stesso vengono prima delle altre nell'ordinamento
+        while (i < a && chiavi[i].length() == lunghezza) {
+            i++;
+        }
+        while (i < a) {
+            char c = chiavi[i].charAt(lunghezza);
+            int j = i + 1;
+            while (j < a && chiavi[j].charAt(lunghezza) == c) {
+                j++;
+            }
+            precalcola(i, j, lunghezza + 1);
+            i = j;
+        }
+    }
+
+    /**
+     * Sceglie le {@link #K_MASSIMO} voci piu' popolari dell'intervallo, senza ripetere lo stesso
+     * titolo o autore raggiunto da chiavi diverse.
+     */
+    private int[] selezionaMigliori(int da, int a) {
+        int[] scelte = new int[K_MASSIMO];
+        int n = 0;
+        for (int i = da; i < a; i++) {
+            if (n == K_MASSIMO && !precede(i, scelte[n - 1])) {
+                continue;
+            }
+            int duplicato = -1;
+            for (int j = 0; j < n; j++) {
+                if (autore[scelte[j]] == autore[i] && testi[scelte[j]].equals(testi[i])) {
+                    duplicato = j;
+                    break;
+                }
+            }
+            if (duplicato >= 0) {
+                continue;
+            }
+            int pos = n < K_MASSIMO ? n++ : n - 1;
+            while (pos > 0 && precede(i, scelte[pos - 1])) {
+                scelte[pos] = scelte[pos - 1];
+                pos--;
+            }
+            scelte[pos] = i;
+        }
+        return Arrays.copyOf(scelte, n);
+    }
+
+    /**
+     * Ordine dei suggerimenti: popolarita' decrescente, poi testo piu' corto, poi alfabetico
+     */
+    private boolean precede(int x, int y) {
+        if (popolarita[x] != popolarita[y]) {
+            return popolarita[x] > popolarita[y];
+        }
+        if (testi[x].length() != testi[y].length()) {
+            return testi[x].length() < testi[y].length();
+        }
+        return testi[x].compareTo(testi[y]) < 0;
+    }
+
+    private int limiteInferiore(String chiave) {
+        int basso = 0;
+        int alto = chiavi.length;
+        while (basso < alto) {
+            int medio = (basso + alto) >>> 1;
+            if (chiavi[medio].compareTo(chiave) < 0) {
+                basso = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return basso;
+    }
+
+    private static void accumula(Map<String, Voce> voci, String testo, boolean autore, int punti) {
+        if (testo == null || testo.isBlank()) {
+            return;
+        }
+        String pulito = testo.trim();
+        Voce voce = voci.computeIfAbsent(pulito.toLowerCase(Locale.ROOT), chiave -> new Voce(chiave, pulito, autore, 0));
+        voce.popolarita += punti;
+    }
+
+    private static final class Voce {
+        private final String chiave;
+        private final String testo;
+        private final boolean autore;
+        private int popolarita;
+
+        Voce(String chiave, String testo, boolean autore, int popolarita) {
+            this.chiave = chiave;
+            this.testo = testo;
+            this.autore = autore;
+            this.popolarita = popolarita;
+        }
+    }
+}
@@ -1,26 +1,94 @@
 package bookrecommender.server.libri;
 
+import bookrecommender.condivisi.libri.CampoRicerca;
+import bookrecommender.condivisi.libri.FiltriFacette;
 import bookrecommender.condivisi.libri.Libro;
+import bookrecommender.condivisi.libri.LibroQuery;
+import bookrecommender.condivisi.libri.LibroSintesi;
+import bookrecommender.condivisi.libri.PaginaLibri;
+import bookrecommender.condivisi.libri.RisultatoRicercaFacette;
+import bookrecommender.condivisi.libri.RisultatoRicercaFuzzy;
+import bookrecommender.server.metriche.RegistroMetriche;
+import bookrecommender.server.utili.DBConnectionPool;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Locale;
+import java.util.function.Consumer;
 
+/**
+ * DAO JDBC per la tabella Libri.
+ * <p>
+ * Non mantiene stato condiviso tra le chiamate: ogni operazione prende in prestito una
+ * connessione dal pool e la restituisce al termine, quindi la stessa istanza puo' essere
+ * usata in parallelo da tutti i thread RMI.
+ * <p>
+ * Le letture non riuscite sollevano {@link AccessoDatiException} invece di restituire un
+ * risultato vuoto, che i livelli superiori (cache compresa) scambierebbero per una risposta.
+ */
 public class JdbcCercaLibriDAO implements LibroDAO {
     private static final Logger logger = LogManager.getLogger(JdbcCercaLibriDAO.class);
-    private Connection connection;
+    private static final RegistroMetriche metriche = RegistroMetriche.di("JdbcCercaLibriDAO");
 
-    public JdbcCercaLibriDAO(Connection connection) {
-        this.connection = connection;
+    // Le condizioni di ricerca usano esattamente le espressioni degli indici trigram
+    // idx_libri_titolo_trgm e idx_libri_autori_trgm (GIN su LOWER(colonna) gin_trgm_ops)
+    private static final String CONDIZIONE_TITOLO = "LOWER(titolo) LIKE ?";
+    private static final String CONDIZIONE_AUTORE = "LOWER(autori) LIKE ?";
+
+    // Valori numerici estratti dai campi testuali anno e prezzo (es. "Price Starting at $5.29"),
+    // identici alle espressioni degli indici idx_libri_anno e idx_libri_prezzo
+    private static final String ESPRESSIONE_ANNO = "(substring(anno from '[0-9]{4}'))::int";
+    private static final String ESPRESSIONE_PREZZO = "(substring(prezzo from '[0-9]+(?:[.][0-9]+)?'))::numeric";
+    private static final String ESPRESSIONE_EDITORE = "btrim(editore)";
+
+    // Colonne mappate su Libro: la colonna ricerca_fts (tsvector) non viene mai trasferita
+    private static final String COLONNE_LIBRO = "id, titolo, autori, anno, descrizione, categorie, editore, prezzo";
+    // Colonne lette dalle ricerche che restituiscono elenchi: la descrizione (TEXT senza limite)
+    // e gli altri campi servono solo quando si apre un singolo libro
+    private static final String COLONNE_SINTESI = "id, titolo, autori, anno";
+
+    private static final int DIMENSIONE_FETCH_CATALOGO = 10_000;
+
+    // Oltre questo numero di risultati la prima pagina di una ricerca paginata non li conta piu':
+    // contarli tutti costa quanto leggerli tutti, anche quando il client ne mostra solo una pagina
+    private static final int LIMITE_CONTEGGIO = 1_000;
+
+    // La query viene interpretata sia in italiano sia in inglese, come il vettore ricerca_fts
+    private static final String QUERY_PAROLE_CHIAVE =
+        "SELECT " + COLONNE_SINTESI + ", ts_rank(ricerca_fts, query.q) AS rango " +
+        "FROM Libri, (SELECT websearch_to_tsquery('italian', ?) || websearch_to_tsquery('english', ?) AS q) AS query " +
+        "WHERE ricerca_fts @@ query.q " +
+        "ORDER BY rango DESC, id " +
+        "LIMIT ?";
+
+    // Somiglianza per trigrammi tra il testo cercato e la parte piu' simile della colonna;
+    // l'operatore <% usa gli stessi indici GIN gin_trgm_ops delle ricerche per sottostringa
+    private static final String QUERY_FUZZY =
+        "SELECT " + COLONNE_SINTESI + " FROM Libri " +
+        "WHERE ? <%% LOWER(%1$s) " +
+        "ORDER BY word_similarity(?, LOWER(%1$s)) DESC, titolo, id " +
+        "LIMIT ?";
+
+    private final DBConnectionPool pool;
+
+    public JdbcCercaLibriDAO(DBConnectionPool pool) {
+        this.pool = pool;
     }
 
     @Override
     public Libro creaLibro(String titolo, String autore, String descrizione, String categoria, String year, String price) {
-        String sql = "INSERT INTO Libri (titolo, autori, anno, descrizione, categorie, editore, prezzo) VALUES (?, ?, ?, ?, ?, ?, ?) RETURNING *";
+        long inizio = System.nanoTime();
+        String sql = "INSERT INTO Libri (titolo, autori, anno, descrizione, categorie, editore, prezzo) VALUES (?, ?, ?, ?, ?, ?, ?) RETURNING " + COLONNE_LIBRO;
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, titolo);
             stmt.setString(2, autore);
             stmt.setString(3, year);
@@ -29,91 +97,530 @@ public class JdbcCercaLibriDAO implements LibroDAO {
             stmt.setString(6, ""); // editore vuoto per ora
             stmt.setString(7, price);
             
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return mapResultSetToLibro(rs);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return mapResultSetToLibro(rs);
+                }
             }
         } catch (SQLException e) {
+            metriche.errore("creaLibro");
             logger.error("Errore durante la creazione del libro: " + e.getMessage(), e);
+        } finally {
+            metriche.registra("creaLibro", inizio);
         }
         return null;
     }
 
     @Override
     public Libro getLibroById(int id) {
-        String sql = "SELECT * FROM Libri WHERE id = ?";
+        long inizio = System.nanoTime();
+        String sql = "SELECT " + COLONNE_LIBRO + " FROM Libri WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = apriConnessioneLettura();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, id);
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                return mapResultSetToLibro(rs);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return mapResultSetToLibro(rs);
+                }
             }
         } catch (SQLException e) {
-            logger.error("Errore durante la ricerca libro per ID " + id + ": " + e.getMessage(), e);
+            metriche.errore("getLibroById");
+            throw new AccessoDatiException("Errore durante la ricerca libro per ID " + id, e);
+        } finally {
+            metriche.registra("getLibroById", inizio);
         }
         return null;
     }
-    
+
+    /**
+     * Carica tutti i libri richiesti con una sola query {@code id = ANY(?)}: gli id ripetuti
+     * vengono inviati una volta sola e i risultati riordinati secondo l'array ricevuto.
+     */
     @Override
-    public List<Libro> cercaLibriPerTitolo(String titolo) {
-        String sql = "SELECT * FROM Libri WHERE LOWER(titolo) LIKE LOWER(?) ORDER BY titolo";
-        List<Libro> libri = new ArrayList<>();
-        
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, "%" + titolo + "%");
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                libri.add(mapResultSetToLibro(rs));
+    public List<Libro> getLibriByIds(int[] ids) {
+        long inizio = System.nanoTime();
+        List<Libro> libri = new ArrayList<>(ids.length);
+        if (ids.length == 0) {
+            return libri;
+        }
+        Map<Long, Libro> trovati = new HashMap<>(ids.length * 2);
+        Long[] distinti = Arrays.stream(ids).distinct().mapToObj(id -> (long) id).toArray(Long[]::new);
+        String sql = "SELECT " + COLONNE_LIBRO + " FROM Libri WHERE id = ANY(?)";
+
+        try (Connection connection = apriConnessioneLettura();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setArray(1, connection.createArrayOf("bigint", distinti));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Libro libro = mapResultSetToLibro(rs);
+                    trovati.put(libro.getId(), libro);
+                }
             }
-            logger.info("Trovati {} libri per titolo '{}'", libri.size(), titolo);
         } catch (SQLException e) {
-            logger.error("Errore durante la ricerca libri per titolo '" + titolo + "': " + e.getMessage(), e);
+            metriche.errore("getLibriByIds");
+            throw new AccessoDatiException("Errore durante il caricamento di " + distinti.length + " libri per ID", e);
+        } finally {
+            metriche.registra("getLibriByIds", inizio);
+        }
+        for (int id : ids) {
+            libri.add(trovati.get((long) id));
         }
         return libri;
     }
-    
+
+    /**
+     * Costruisce la query SQL con i soli criteri impostati. Ogni criterio usa esattamente
+     * l'espressione di un indice (trigram per titolo e autori, GIN full-text per le parole
+     * chiave, indici su espressione per anno, prezzo ed editore): e' il pianificatore di
+     * PostgreSQL a scegliere, in base alle statistiche, da quale indice partire.
+     */
     @Override
-    public List<Libro> cercaLibriPerAutore(String autore) {
-        String sql = "SELECT * FROM Libri WHERE LOWER(autori) LIKE LOWER(?) ORDER BY titolo";
-        List<Libro> libri = new ArrayList<>();
-        
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, "%" + autore + "%");
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                libri.add(mapResultSetToLibro(rs));
+    public List<LibroSintesi> cerca(LibroQuery query) {
+        long inizio = System.nanoTime();
+        StringBuilder sql = new StringBuilder("SELECT ").append(COLONNE_SINTESI).append(" FROM Libri");
+        List<Object> parametri = new ArrayList<>();
+        List<String> condizioni = new ArrayList<>();
+
+        if (query.haParoleChiave()) {
+            sql.append(", (SELECT websearch_to_tsquery('italian', ?) || websearch_to_tsquery('english', ?) AS q) AS query");
+            parametri.add(query.getParoleChiave());
+            parametri.add(query.getParoleChiave());
+            condizioni.add("ricerca_fts @@ query.q");
+        }
+        if (query.getTitoloContiene() != null) {
+            condizioni.add(CONDIZIONE_TITOLO);
+            parametri.add(patternContiene(query.getTitoloContiene()));
+        }
+        if (query.getAutoreContiene() != null) {
+            condizioni.add(CONDIZIONE_AUTORE);
+            parametri.add(patternContiene(query.getAutoreContiene()));
+        }
+        if (query.getCategoria() != null) {
+            // Stessa regola di IndiceFacette.categorieDi: elenco separato da virgole
+            condizioni.add("? = ANY (SELECT btrim(c) FROM unnest(string_to_array(categorie, ',')) AS c)");
+            parametri.add(query.getCategoria());
+        }
+        if (query.getEditore() != null) {
+            condizioni.add(ESPRESSIONE_EDITORE + " = ?");
+            parametri.add(query.getEditore());
+        }
+        if (query.getAnnoMinimo() != null) {
+            condizioni.add(ESPRESSIONE_ANNO + " >= ?");
+            parametri.add(query.getAnnoMinimo());
+        }
+        if (query.getAnnoMassimo() != null) {
+            condizioni.add(ESPRESSIONE_ANNO + " <= ?");
+            parametri.add(query.getAnnoMassimo());
+        }
+        // Un Double arriverebbe come float8 e il confronto convertirebbe l'espressione, che
+        // non userebbe piu' idx_libri_prezzo: i prezzi si passano come numeric
+        if (query.getPrezzoMinimo() != null) {
+            condizioni.add(ESPRESSIONE_PREZZO + " >= ?");
+            parametri.add(BigDecimal.valueOf(query.getPrezzoMinimo().doubleValue()));
+        }
+        if (query.getPrezzoMassimo() != null) {
+            condizioni.add(ESPRESSIONE_PREZZO + " <= ?");
+            parametri.add(BigDecimal.valueOf(query.getPrezzoMassimo().doubleValue()));
+        }
+
+        if (!condizioni.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", condizioni));
+        }
+        sql.append(" ORDER BY ").append(switch (query.getOrdinamento()) {
+            case ANNO_CRESCENTE -> ESPRESSIONE_ANNO + " ASC NULLS LAST, titolo, id";
+            case ANNO_DECRESCENTE -> ESPRESSIONE_ANNO + " DESC NULLS LAST, titolo, id";
+            case PREZZO_CRESCENTE -> ESPRESSIONE_PREZZO + " ASC NULLS LAST, titolo, id";
+            case PREZZO_DECRESCENTE -> ESPRESSIONE_PREZZO + " DESC NULLS LAST, titolo, id";
+            case RILEVANZA -> query.haParoleChiave() ? "ts_rank(ricerca_fts, query.q) DESC, id" : "titolo, id";
+            default -> "titolo, id";
+        });
+        if (query.getLimite() > 0) {
+            sql.append(" LIMIT ?");
+            parametri.add(query.getLimite());
+        }
+
+        List<LibroSintesi> libri = new ArrayList<>();
+        try (Connection connection = apriConnessioneLettura();
+             PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < parametri.size(); i++) {
+                stmt.setObject(i + 1, parametri.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    libri.add(mapResultSetToSintesi(rs));
+                }
             }
-            logger.info("Trovati {} libri per autore '{}'", libri.size(), autore);
+            logger.info("Trovati {} libri per {}", libri.size(), query);
         } catch (SQLException e) {
-            logger.error("Errore durante la ricerca libri per autore '" + autore + "': " + e.getMessage(), e);
+            metriche.errore("cerca");
+            throw new AccessoDatiException("Errore durante la ricerca " + query, e);
+        } finally {
+            metriche.registra("cerca", inizio);
         }
         return libri;
     }
-    
+
     @Override
-    public List<Libro> cercaLibriPerAutoreEAnno(String autore, String anno) {
-        String sql = "SELECT * FROM Libri WHERE LOWER(autori) LIKE LOWER(?) AND anno = ? ORDER BY titolo";
-        List<Libro> libri = new ArrayList<>();
-        
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, "%" + autore + "%");
-            stmt.setString(2, anno);
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                libri.add(mapResultSetToLibro(rs));
+    public List<LibroSintesi> cercaLibriPerParoleChiave(String testo, int limite) {
+        long inizio = System.nanoTime();
+        List<LibroSintesi> libri = new ArrayList<>();
+
+        try (Connection connection = apriConnessioneLettura();
+             PreparedStatement stmt = connection.prepareStatement(QUERY_PAROLE_CHIAVE)) {
+            stmt.setString(1, testo);
+            stmt.setString(2, testo);
+            stmt.setInt(3, limite);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    libri.add(mapResultSetToSintesi(rs));
+                }
             }
-            logger.info("Trovati {} libri per autore '{}' e anno '{}'", libri.size(), autore, anno);
+            logger.info("Trovati {} libri per parole chiave '{}'", libri.size(), testo);
         } catch (SQLException e) {
-            logger.error("Errore durante la ricerca libri per autore '" + autore + "' e anno '" + anno + "': " + e.getMessage(), e);
+            metriche.errore("cercaLibriPerParoleChiave");
+            throw new AccessoDatiException("Errore durante la ricerca libri per parole chiave '" + testo + "'", e);
+        } finally {
+            metriche.registra("cercaLibriPerParoleChiave", inizio);
         }
         return libri;
     }
-    
+
+    /**
+     * Senza l'indice in memoria la tolleranza agli errori si ottiene con la somiglianza per
+     * trigrammi di pg_trgm, che non misura la distanza di modifica: {@code distanzaMassima}
+     * e' ignorata e non vengono proposte correzioni.
+     */
+    @Override
+    public RisultatoRicercaFuzzy cercaLibriFuzzy(String testo, CampoRicerca campo, int distanzaMassima, int limite) {
+        long inizio = System.nanoTime();
+        String sql = String.format(QUERY_FUZZY, campo == CampoRicerca.AUTORE ? "autori" : "titolo");
+        String cercato = testo == null ? "" : testo.toLowerCase(Locale.ROOT);
+        List<LibroSintesi> libri = new ArrayList<>();
+
+        try (Connection connection = apriConnessioneLettura();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, cercato);
+            stmt.setString(2, cercato);
+            stmt.setInt(3, limite);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    libri.add(mapResultSetToSintesi(rs));
+                }
+            }
+            logger.info("Trovati {} libri simili a '{}' ({})", libri.size(), testo, campo);
+        } catch (SQLException e) {
+            metriche.errore("cercaLibriFuzzy");
+            throw new AccessoDatiException("Errore durante la ricerca approssimata '" + testo + "'", e);
+        } finally {
+            metriche.registra("cercaLibriFuzzy", inizio);
+        }
+        return new RisultatoRicercaFuzzy(libri, new ArrayList<>());
+    }
+
+    /**
+     * Senza il catalogo in memoria non ci sono bitmap: i conteggi si calcolano in un solo
+     * passaggio sulle colonne categorie, anno ed editore dei libri trovati, poi si leggono
+     * per intero solo i libri della pagina richiesta.
+     */
+    @Override
+    public RisultatoRicercaFacette cercaLibriConFacette(String testo, CampoRicerca campo, FiltriFacette filtri, int pagina, int dimensionePagina) {
+        long inizio = System.nanoTime();
+        boolean tutti = testo == null || testo.isBlank();
+        String sql = "SELECT id, categorie, anno, editore FROM Libri" +
+                     (tutti ? "" : " WHERE " + (campo == CampoRicerca.AUTORE ? CONDIZIONE_AUTORE : CONDIZIONE_TITOLO)) +
+                     " ORDER BY titolo, id";
+        Map<String, Integer> categorie = new HashMap<>();
+        Map<String, Integer> decenni = new HashMap<>();
+        Map<String, Integer> anni = new HashMap<>();
+        Map<String, Integer> editori = new HashMap<>();
+        List<Long> idPagina = new ArrayList<>(dimensionePagina);
+        long primo = (long) pagina * dimensionePagina;
+        int totale = 0;
+
+        try (Connection connection = apriConnessioneLettura()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                if (!tutti) {
+                    stmt.setString(1, patternContiene(testo));
+                }
+                stmt.setFetchSize(DIMENSIONE_FETCH_CATALOGO);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        List<String> categorieLibro = IndiceFacette.categorieDi(rs.getString("categorie"));
+                        String anno = IndiceFacette.annoDi(rs.getString("anno"));
+                        String editore = IndiceFacette.editoreDi(rs.getString("editore"));
+                        if (!IndiceFacette.soddisfa(filtri, categorieLibro, anno, editore)) {
+                            continue;
+                        }
+                        if (totale >= primo && idPagina.size() < dimensionePagina) {
+                            idPagina.add(rs.getLong("id"));
+                        }
+                        totale++;
+                        for (String categoria : categorieLibro) {
+                            categorie.merge(categoria, 1, Integer::sum);
+                        }
+                        if (anno != null) {
+                            anni.merge(anno, 1, Integer::sum);
+                            decenni.merge(IndiceFacette.decennioDi(anno), 1, Integer::sum);
+                        }
+                        if (editore != null) {
+                            editori.merge(editore, 1, Integer::sum);
+                        }
+                    }
+                }
+            }
+            connection.commit();
+
+            List<LibroSintesi> libri = new ArrayList<>(idPagina.size());
+            if (!idPagina.isEmpty()) {
+                String sqlPagina = "SELECT " + COLONNE_SINTESI + " FROM Libri WHERE id = ANY(?) ORDER BY titolo, id";
+                try (PreparedStatement stmt = connection.prepareStatement(sqlPagina)) {
+                    stmt.setArray(1, connection.createArrayOf("bigint", idPagina.toArray()));
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            libri.add(mapResultSetToSintesi(rs));
+                        }
+                    }
+                }
+            }
+            logger.info("Trovati {} libri con facette per '{}' ({})", totale, testo, campo);
+            return new RisultatoRicercaFacette(libri, totale, IndiceFacette.migliori(categorie), IndiceFacette.migliori(decenni),
+                    IndiceFacette.migliori(anni), IndiceFacette.migliori(editori));
+        } catch (SQLException e) {
+            metriche.errore("cercaLibriConFacette");
+            throw new AccessoDatiException("Errore durante la ricerca con facette '" + testo + "'", e);
+        } finally {
+            metriche.registra("cercaLibriConFacette", inizio);
+        }
+    }
+
+    @Override
+    public PaginaLibri cercaLibriPerTitolo(String titolo, CursoreLibri dopo, int dimensionePagina) {
+        return cercaPagina("cercaLibriPerTitolo", CONDIZIONE_TITOLO, dopo, dimensionePagina, patternContiene(titolo));
+    }
+
+    @Override
+    public PaginaLibri cercaLibriPerAutore(String autore, CursoreLibri dopo, int dimensionePagina) {
+        return cercaPagina("cercaLibriPerAutore", CONDIZIONE_AUTORE, dopo, dimensionePagina, patternContiene(autore));
+    }
+
+    @Override
+    public PaginaLibri cercaLibriPerAutoreEAnno(String autore, String anno, CursoreLibri dopo, int dimensionePagina) {
+        // Stesso confronto della variante non paginata: "1999", " 1999" e "Mar 1999" sono lo stesso anno
+        String annoNumerico = IndiceFacette.annoDi(anno);
+        if (annoNumerico == null) {
+            return new PaginaLibri(new ArrayList<>(), null, dopo == null ? 0 : -1, dopo == null);
+        }
+        return cercaPagina("cercaLibriPerAutoreEAnno", CONDIZIONE_AUTORE + " AND " + ESPRESSIONE_ANNO + " = ?", dopo, dimensionePagina,
+                patternContiene(autore), Integer.parseInt(annoNumerico));
+    }
+
+    /**
+     * Esegue una ricerca paginata con keyset su (titolo, id) invece di OFFSET: ogni pagina
+     * riparte dall'ultima coppia restituita, quindi il costo non cresce con il numero di pagina.
+     * Viene letta una riga in piu' del necessario per sapere se esiste una pagina successiva.
+     * Solo sulla prima pagina si calcola anche il totale: se la pagina contiene tutti i risultati
+     * e' la sua dimensione, altrimenti i risultati vengono contati fino a {@link #LIMITE_CONTEGGIO}.
+     *
+     * @param metodo metodo pubblico chiamato, per le metriche
+     */
+    private PaginaLibri cercaPagina(String metodo, String condizione, CursoreLibri dopo, int dimensionePagina, Object... parametri) {
+        long inizio = System.nanoTime();
+        boolean primaPagina = dopo == null;
+        StringBuilder sql = new StringBuilder("SELECT ").append(COLONNE_SINTESI);
+        sql.append(" FROM Libri WHERE ").append(condizione);
+        if (!primaPagina) {
+            sql.append(" AND (titolo, id) > (?, ?)");
+        }
+        sql.append(" ORDER BY titolo, id LIMIT ?");
+
+        List<LibroSintesi> libri = new ArrayList<>(dimensionePagina);
+        long totale = -1;
+        boolean totaleEsatto = false;
+        boolean altreRighe = false;
+
+        try (Connection connection = apriConnessioneLettura();
+             PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            int indice = 1;
+            for (Object parametro : parametri) {
+                stmt.setObject(indice++, parametro);
+            }
+            if (!primaPagina) {
+                stmt.setString(indice++, dopo.titolo());
+                stmt.setLong(indice++, dopo.id());
+            }
+            stmt.setInt(indice, dimensionePagina + 1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (libri.size() == dimensionePagina) {
+                        altreRighe = true;
+                        break;
+                    }
+                    libri.add(mapResultSetToSintesi(rs));
+                }
+            }
+            if (primaPagina && !altreRighe) {
+                totale = libri.size();
+                totaleEsatto = true;
+            } else if (primaPagina) {
+                totale = contaFinoAlLimite(connection, condizione, parametri);
+                totaleEsatto = totale <= LIMITE_CONTEGGIO;
+                totale = Math.min(totale, LIMITE_CONTEGGIO);
+            }
+        } catch (SQLException e) {
+            metriche.errore(metodo);
+            throw new AccessoDatiException("Errore durante la ricerca paginata (" + condizione + ")", e);
+        } finally {
+            metriche.registra(metodo, inizio);
+        }
+
+        String cursoreSuccessivo = null;
+        if (altreRighe) {
+            LibroSintesi ultimo = libri.get(libri.size() - 1);
+            cursoreSuccessivo = new CursoreLibri(ultimo.getTitolo(), ultimo.getId()).codifica();
+        }
+        return new PaginaLibri(libri, cursoreSuccessivo, totale, totaleEsatto);
+    }
+
+    /**
+     * Conta i libri che soddisfano la condizione, fermandosi dopo {@link #LIMITE_CONTEGGIO} + 1:
+     * il LIMIT nella sottoquery interrompe la scansione invece di contare tutto l'indice
+     *
+     * @return il numero di libri, oppure {@code LIMITE_CONTEGGIO + 1} se sono di piu'
+     */
+    private static long contaFinoAlLimite(Connection connection, String condizione, Object... parametri) throws SQLException {
+        String sql = "SELECT count(*) FROM (SELECT 1 FROM Libri WHERE " + condizione + " LIMIT ?) AS trovati";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int indice = 1;
+            for (Object parametro : parametri) {
+                stmt.setObject(indice++, parametro);
+            }
+            stmt.setInt(indice, LIMITE_CONTEGGIO + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Legge l'intero catalogo in ordine di titolo e id, passando i libri uno alla volta al
+     * consumer. Usa un cursore lato server (fetch size) per non tenere in memoria tutto il
+     * ResultSet insieme agli oggetti gia' costruiti.
+     *
+     * @return numero di libri letti
+     * @throws SQLException in caso di errore di lettura
+     */
+    public int caricaCatalogo(Consumer<Libro> consumer) throws SQLException {
+        long inizio = System.nanoTime();
+        String sql = "SELECT " + COLONNE_LIBRO + " FROM Libri ORDER BY titolo, id";
+        int letti = 0;
+
+        try (Connection connection = apriConnessioneLettura()) {
+            // Con autocommit attivo il driver PostgreSQL ignora la fetch size
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setFetchSize(DIMENSIONE_FETCH_CATALOGO);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(mapResultSetToLibro(rs));
+                        letti++;
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            metriche.errore("caricaCatalogo");
+            throw e;
+        } finally {
+            metriche.registra("caricaCatalogo", inizio);
+        }
+        return letti;
+    }
+
+    /**
+     * Legge titolo e autori di ogni libro insieme alla sua popolarita', cioe' il numero di
+     * librerie personali in cui e' stato inserito.
+     *
+     * @return numero di libri letti
+     * @throws SQLException in caso di errore di lettura
+     */
+    public int caricaPopolarita(Consumer<PopolaritaLibro> consumer) throws SQLException {
+        long inizio = System.nanoTime();
+        String sql = "SELECT l.titolo, l.autori, COALESCE(p.conteggio, 0) AS popolarita " +
+                     "FROM Libri l LEFT JOIN (" +
+                     "  SELECT libro_id, COUNT(*) AS conteggio FROM Libreria_Libro GROUP BY libro_id" +
+                     ") p ON p.libro_id = l.id";
+        int letti = 0;
+
+        try (Connection connection = apriConnessioneLettura()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setFetchSize(DIMENSIONE_FETCH_CATALOGO);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(new PopolaritaLibro(rs.getString("titolo"), rs.getString("autori"), rs.getInt("popolarita")));
+                        letti++;
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            metriche.errore("caricaPopolarita");
+            throw e;
+        } finally {
+            metriche.registra("caricaPopolarita", inizio);
+        }
+        return letti;
+    }
+
+    /**
+     * Titolo e autori di un libro con il numero di librerie che lo contengono
+     */
+    public record PopolaritaLibro(String titolo, String autori, int popolarita) { }
+
+    /**
+     * Costruisce il pattern LIKE per una ricerca "contiene". Il testo viene portato in minuscolo
+     * lato Java, cosi' il confronto e' direttamente con LOWER(colonna) come negli indici, e i
+     * caratteri speciali di LIKE digitati dall'utente vengono trattati come testo.
+     */
+    static String patternContiene(String testo) {
+        String minuscolo = testo == null ? "" : testo.toLowerCase(Locale.ROOT);
+        StringBuilder pattern = new StringBuilder(minuscolo.length() + 2).append('%');
+        for (int i = 0; i < minuscolo.length(); i++) {
+            char c = minuscolo.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+
+    /**
+     * Prende in prestito dal pool una connessione in sola lettura per le ricerche.
+     * Il pool ripristina la modalita' di scrittura quando la connessione viene restituita.
+     */
+    private Connection apriConnessioneLettura() throws SQLException {
+        Connection connection = pool.getConnection();
+        try {
+            connection.setReadOnly(true);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Mappa un ResultSet con le sole {@link #COLONNE_SINTESI} a un oggetto LibroSintesi
+     */
+    private LibroSintesi mapResultSetToSintesi(ResultSet rs) throws SQLException {
+        return new LibroSintesi(rs.getLong("id"), rs.getString("titolo"), rs.getString("autori"), rs.getString("anno"));
+    }
+
     /**
      * Mappa un ResultSet a un oggetto Libro
      */
@@ -1,19 +1,84 @@
 package bookrecommender.server.libri;
 
+import bookrecommender.condivisi.libri.CampoRicerca;
+import bookrecommender.condivisi.libri.FiltriFacette;
 import bookrecommender.condivisi.libri.Libro;
+import bookrecommender.condivisi.libri.LibroQuery;
+import bookrecommender.condivisi.libri.LibroSintesi;
+import bookrecommender.condivisi.libri.PaginaLibri;
+import bookrecommender.condivisi.libri.RisultatoRicercaFacette;
+import bookrecommender.condivisi.libri.RisultatoRicercaFuzzy;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Accesso al catalogo dei libri. Le letture che non riescono a interrogare il database sollevano
+ * {@link AccessoDatiException}: un risultato vuoto o null significa sempre che non c'e' nessun libro.
+ */
 public interface LibroDAO {
     
     Libro creaLibro(String titolo, String autore, String descrizione, String categoria, String year, String price);
 
     Libro getLibroById(int id);
+
+    /**
+     * Carica piu' libri per id in una sola operazione
+     * @return una lista parallela a {@code ids}: in ogni posizione il libro con quell'id, o null se non esiste
+     */
+    List<Libro> getLibriByIds(int[] ids);
     
-    List<Libro> cercaLibriPerTitolo(String titolo);
-    
-    List<Libro> cercaLibriPerAutore(String autore);
-    
-    List<Libro> cercaLibriPerAutoreEAnno(String autore, String anno);
+    /**
+     * Ricerca composta da piu' criteri opzionali, tutti da soddisfare
+     * @return i libri trovati, nell'ordine e con il limite richiesti dalla query
+     */
+    List<LibroSintesi> cerca(LibroQuery query);
+
+    default List<LibroSintesi> cercaLibriPerTitolo(String titolo) {
+        return cerca(LibroQuery.builder().titoloContiene(titolo).build());
+    }
+
+    default List<LibroSintesi> cercaLibriPerAutore(String autore) {
+        return cerca(LibroQuery.builder().autoreContiene(autore).build());
+    }
+
+    default List<LibroSintesi> cercaLibriPerAutoreEAnno(String autore, String anno) {
+        String annoNumerico = IndiceFacette.annoDi(anno);
+        if (annoNumerico == null) {
+            return new ArrayList<>();
+        }
+        int a = Integer.parseInt(annoNumerico);
+        return cerca(LibroQuery.builder().autoreContiene(autore).anniTra(a, a).build());
+    }
+
+    /**
+     * Ricerca full-text su titolo, autori e descrizione
+     * @return al massimo {@code limite} libri, in ordine di rilevanza decrescente
+     */
+    List<LibroSintesi> cercaLibriPerParoleChiave(String testo, int limite);
+
+    /**
+     * Ricerca approssimata per titolo o autore: trova i libri le cui parole differiscono da
+     * quelle cercate al massimo di {@code distanzaMassima} modifiche.
+     * @return al massimo {@code limite} libri, dai piu' simili, ed eventuali correzioni del testo
+     */
+    RisultatoRicercaFuzzy cercaLibriFuzzy(String testo, CampoRicerca campo, int distanzaMassima, int limite);
+
+    /**
+     * Ricerca per titolo o autore (tutto il catalogo se il testo e' vuoto) ristretta ai valori di
+     * facetta scelti, con i conteggi per facetta di tutti i libri trovati.
+     * @param pagina numero di pagina, a partire da 0
+     */
+    RisultatoRicercaFacette cercaLibriConFacette(String testo, CampoRicerca campo, FiltriFacette filtri, int pagina, int dimensionePagina);
+
+    /**
+     * Ricerche paginate con keyset su (titolo, id): ogni pagina parte dalla posizione
+     * successiva a {@code dopo}, oppure dall'inizio se {@code dopo} e' null.
+     */
+    PaginaLibri cercaLibriPerTitolo(String titolo, CursoreLibri dopo, int dimensionePagina);
+
+    PaginaLibri cercaLibriPerAutore(String autore, CursoreLibri dopo, int dimensionePagina);
+
+    PaginaLibri cercaLibriPerAutoreEAnno(String autore, String anno, CursoreLibri dopo, int dimensionePagina);
    
 
     
@@ -0,0 +1,454 @@
+package bookrecommender.server.libri;
+
+import bookrecommender.condivisi.libri.CampoRicerca;
+import bookrecommender.condivisi.libri.FiltriFacette;
+import bookrecommender.condivisi.libri.Libro;
+import bookrecommender.condivisi.libri.LibroQuery;
+import bookrecommender.condivisi.libri.LibroSintesi;
+import bookrecommender.condivisi.libri.PaginaLibri;
+import bookrecommender.condivisi.libri.RisultatoRicercaFacette;
+import bookrecommender.condivisi.libri.RisultatoRicercaFuzzy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Cache dei risultati delle ricerche davanti a un altro {@link LibroDAO}.
+ * <p>
+ * Le voci sono indicizzate per tipo di ricerca e parametri normalizzati (il testo cercato per
+ * sottostringa e' in minuscolo, come nel confronto eseguito dal DAO), pagina compresa.
+ * La cache ha un numero massimo di voci e ogni voce scade dopo un tempo fisso.
+ * <p>
+ * Le letture non prendono lock: le voci stanno in una {@link ConcurrentHashMap} e ognuna ricorda
+ * l'istante dell'ultimo accesso. L'LRU e' quindi approssimato: quando le voci superano il massimo,
+ * un solo thread alla volta scarta le scadute e poi la frazione {@link #FRAZIONE_ESPULSA} usata
+ * meno di recente, mentre gli altri continuano a leggere e scrivere. Per poco tempo le voci
+ * possono superare il massimo, e la cache non sceglie sempre la voce meno recente in assoluto.
+ * <p>
+ * Ogni voce conserva il criterio della ricerca che l'ha prodotta: quando {@link #creaLibro}
+ * inserisce un libro vengono scartate solo le voci di cui il nuovo libro farebbe parte.
+ * Per le ricerche full-text e approssimate il criterio non e' verificabile fuori dal motore
+ * che le esegue, quindi le loro voci vengono scartate a ogni inserimento.
+ * <p>
+ * Le liste memorizzate sono condivise tra le chiamate e restituite non modificabili.
+ * I contatori sono visibili via JMX tramite {@link LibroDAOConCacheMXBean}.
+ */
+public class LibroDAOConCache implements LibroDAO, LibroDAOConCacheMXBean {
+
+    private static final Logger logger = LogManager.getLogger(LibroDAOConCache.class);
+    // Parte delle voci scartata a ogni pulizia: una pulizia ogni tanti inserimenti invece che a ognuno
+    private static final double FRAZIONE_ESPULSA = 0.1;
+
+    private enum Tipo { ID, QUERY, PAROLE_CHIAVE, FUZZY, FACETTE, PAGINA_TITOLO, PAGINA_AUTORE, PAGINA_AUTORE_ANNO }
+
+    private record Chiave(Tipo tipo, List<Object> parametri) { }
+
+    private static final class Voce {
+        final Object valore;
+        final long scadenza;
+        final Predicate<Libro> contiene;
+        // Scritto senza sincronizzazione a ogni lettura: basta un valore recente, non l'ultimo
+        volatile long ultimoAccesso;
+
+        Voce(Object valore, long adesso, long scadenza, Predicate<Libro> contiene) {
+            this.valore = valore;
+            this.scadenza = scadenza;
+            this.contiene = contiene;
+            this.ultimoAccesso = adesso;
+        }
+    }
+
+    /**
+     * Contatori della cache dall'avvio
+     *
+     * @param successi richieste servite dalla cache
+     * @param mancati richieste passate al DAO sottostante
+     * @param espulsioni voci scartate per fare posto a voci nuove
+     * @param scadute voci scartate perche' piu' vecchie del tempo di vita
+     * @param invalidate voci scartate perche' un nuovo libro ne avrebbe cambiato il risultato
+     * @param voci voci presenti
+     */
+    public record Statistiche(long successi, long mancati, long espulsioni, long scadute, long invalidate, int voci) { }
+
+    private final LibroDAO delegato;
+    private final int vociMassime;
+    private final long tempoDiVitaNanos;
+    private final ConcurrentHashMap<Chiave, Voce> voci;
+    // Preso con tryLock: chi trova la pulizia gia' in corso non la aspetta
+    private final ReentrantLock pulizia = new ReentrantLock();
+    // Incrementata a ogni inserimento: un risultato calcolato a cavallo di un inserimento non
+    // viene memorizzato, perche' potrebbe non contenere il nuovo libro
+    private final AtomicLong generazione = new AtomicLong();
+
+    private final LongAdder successi = new LongAdder();
+    private final LongAdder mancati = new LongAdder();
+    private final LongAdder espulsioni = new LongAdder();
+    private final LongAdder scadute = new LongAdder();
+    private final LongAdder invalidate = new LongAdder();
+
+    /**
+     * @param delegato DAO che esegue le ricerche non presenti in cache
+     * @param vociMassime numero massimo di risultati memorizzati
+     * @param tempoDiVita durata di una voce
+     * @param unita unita' di misura di {@code tempoDiVita}
+     */
+    public LibroDAOConCache(LibroDAO delegato, int vociMassime, long tempoDiVita, TimeUnit unita) {
+        if (vociMassime <= 0 || tempoDiVita <= 0) {
+            throw new IllegalArgumentException("Dimensione e durata della cache devono essere positive");
+        }
+        this.delegato = delegato;
+        this.vociMassime = vociMassime;
+        this.tempoDiVitaNanos = unita.toNanos(tempoDiVita);
+        this.voci = new ConcurrentHashMap<>(Math.min(vociMassime, 1 << 16));
+    }
+
+    public Statistiche getStatistiche() {
+        return new Statistiche(successi.sum(), mancati.sum(), espulsioni.sum(), scadute.sum(), invalidate.sum(), voci.size());
+    }
+
+    @Override
+    public long getSuccessi() {
+        return successi.sum();
+    }
+
+    @Override
+    public long getMancati() {
+        return mancati.sum();
+    }
+
+    @Override
+    public double getPercentualeSuccessi() {
+        long s = successi.sum();
+        long totale = s + mancati.sum();
+        return totale == 0 ? 0 : 100.0 * s / totale;
+    }
+
+    @Override
+    public long getEspulsioni() {
+        return espulsioni.sum();
+    }
+
+    @Override
+    public long getScadute() {
+        return scadute.sum();
+    }
+
+    @Override
+    public long getInvalidate() {
+        return invalidate.sum();
+    }
+
+    @Override
+    public int getVoci() {
+        return voci.size();
+    }
+
+    @Override
+    public int getVociMassime() {
+        return vociMassime;
+    }
+
+    /**
+     * Scarta tutte le voci, ad esempio dopo che il catalogo e' stato ricaricato. Come per
+     * {@link #creaLibro}, le ricerche gia' in corso non memorizzano il proprio risultato.
+     *
+     * @return numero di voci scartate
+     */
+    public int svuota() {
+        generazione.incrementAndGet();
+        int scartate = voci.size();
+        voci.clear();
+        invalidate.add(scartate);
+        logger.info("Cache dei risultati svuotata: scartate {} voci", scartate);
+        return scartate;
+    }
+
+    @Override
+    public Libro creaLibro(String titolo, String autore, String descrizione, String categoria, String year, String price) {
+        Libro libro = delegato.creaLibro(titolo, autore, descrizione, categoria, year, price);
+        if (libro != null) {
+            // Prima la generazione, poi le voci: una lettura che memorizza il risultato dopo il
+            // passaggio del ciclo vede la nuova generazione e lo scarta (vedi memorizza)
+            generazione.incrementAndGet();
+            int scartate = 0;
+            var it = voci.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().contiene.test(libro)) {
+                    it.remove();
+                    scartate++;
+                }
+            }
+            invalidate.add(scartate);
+            logger.info("Nuovo libro {}: scartati {} risultati in cache ({})", libro.getId(), scartate, getStatistiche());
+        }
+        return libro;
+    }
+
+    @Override
+    public Libro getLibroById(int id) {
+        return leggi(new Chiave(Tipo.ID, List.of(id)), libro -> libro.getId() == id, () -> delegato.getLibroById(id));
+    }
+
+    /**
+     * Gli id gia' in cache (anche come libri inesistenti) non vengono richiesti; gli altri sono
+     * chiesti al DAO sottostante con una sola chiamata e memorizzati uno per uno.
+     */
+    @Override
+    public List<Libro> getLibriByIds(int[] ids) {
+        List<Libro> libri = new ArrayList<>(ids.length);
+        boolean[] trovato = new boolean[ids.length];
+        int mancanti = 0;
+        long generazioneLettura = generazione.get();
+        long adesso = System.nanoTime();
+        for (int i = 0; i < ids.length; i++) {
+            Voce voce = valida(new Chiave(Tipo.ID, List.of(ids[i])), adesso);
+            trovato[i] = voce != null;
+            libri.add(voce == null ? null : (Libro) voce.valore);
+            if (voce == null) {
+                mancanti++;
+            }
+        }
+        successi.add(ids.length - mancanti);
+        if (mancanti == 0) {
+            return libri;
+        }
+        mancati.add(mancanti);
+
+        int[] idMancanti = new int[mancanti];
+        for (int i = 0, j = 0; i < ids.length; i++) {
+            if (!trovato[i]) {
+                idMancanti[j++] = ids[i];
+            }
+        }
+        List<Libro> caricati = delegato.getLibriByIds(idMancanti);
+        for (int i = 0, j = 0; i < ids.length; i++) {
+            if (trovato[i]) {
+                continue;
+            }
+            Libro libro = caricati.get(j++);
+            libri.set(i, libro);
+            long id = ids[i];
+            memorizza(new Chiave(Tipo.ID, List.of(ids[i])), libro, l -> l.getId() == id, generazioneLettura);
+        }
+        return libri;
+    }
+
+    @Override
+    public List<LibroSintesi> cerca(LibroQuery query) {
+        Chiave chiave = new Chiave(Tipo.QUERY, Arrays.asList(minuscolo(query.getTitoloContiene()),
+                minuscolo(query.getAutoreContiene()), query.getParoleChiave(), query.getCategoria(), query.getEditore(),
+                query.getAnnoMinimo(), query.getAnnoMassimo(), query.getPrezzoMinimo(), query.getPrezzoMassimo(),
+                query.getOrdinamento(), query.getLimite()));
+        return leggi(chiave, libro -> soddisfa(query, libro), () -> Collections.unmodifiableList(delegato.cerca(query)));
+    }
+
+    @Override
+    public List<LibroSintesi> cercaLibriPerParoleChiave(String testo, int limite) {
+        return leggi(new Chiave(Tipo.PAROLE_CHIAVE, Arrays.asList(testo, limite)), libro -> true,
+                () -> Collections.unmodifiableList(delegato.cercaLibriPerParoleChiave(testo, limite)));
+    }
+
+    @Override
+    public RisultatoRicercaFuzzy cercaLibriFuzzy(String testo, CampoRicerca campo, int distanzaMassima, int limite) {
+        return leggi(new Chiave(Tipo.FUZZY, Arrays.asList(minuscolo(testo), campo, distanzaMassima, limite)), libro -> true,
+                () -> delegato.cercaLibriFuzzy(testo, campo, distanzaMassima, limite));
+    }
+
+    @Override
+    public RisultatoRicercaFacette cercaLibriConFacette(String testo, CampoRicerca campo, FiltriFacette filtri, int pagina, int dimensionePagina) {
+        boolean tutti = testo == null || testo.isBlank();
+        String cercato = tutti ? null : minuscolo(testo);
+        Chiave chiave = new Chiave(Tipo.FACETTE, Arrays.asList(cercato, tutti ? null : campo, filtri, pagina, dimensionePagina));
+        // Anche i libri fuori dalla pagina cambiano totale e conteggi
+        Predicate<Libro> contiene = libro -> (tutti || contiene(campo == CampoRicerca.AUTORE ? libro.getAutori() : libro.getTitolo(), cercato))
+                && IndiceFacette.soddisfa(filtri, IndiceFacette.categorieDi(libro.getCategorie()),
+                        IndiceFacette.annoDi(libro.getAnno()), IndiceFacette.editoreDi(libro.getEditore()));
+        return leggi(chiave, contiene, () -> delegato.cercaLibriConFacette(testo, campo, filtri, pagina, dimensionePagina));
+    }
+
+    @Override
+    public PaginaLibri cercaLibriPerTitolo(String titolo, CursoreLibri dopo, int dimensionePagina) {
+        String cercato = minuscolo(titolo);
+        return leggi(new Chiave(Tipo.PAGINA_TITOLO, Arrays.asList(cercato, dopo, dimensionePagina)),
+                libro -> contiene(libro.getTitolo(), cercato),
+                () -> delegato.cercaLibriPerTitolo(titolo, dopo, dimensionePagina));
+    }
+
+    @Override
+    public PaginaLibri cercaLibriPerAutore(String autore, CursoreLibri dopo, int dimensionePagina) {
+        String cercato = minuscolo(autore);
+        return leggi(new Chiave(Tipo.PAGINA_AUTORE, Arrays.asList(cercato, dopo, dimensionePagina)),
+                libro -> contiene(libro.getAutori(), cercato),
+                () -> delegato.cercaLibriPerAutore(autore, dopo, dimensionePagina));
+    }
+
+    @Override
+    public PaginaLibri cercaLibriPerAutoreEAnno(String autore, String anno, CursoreLibri dopo, int dimensionePagina) {
+        String cercato = minuscolo(autore);
+        String annoNumerico = IndiceFacette.annoDi(anno);
+        return leggi(new Chiave(Tipo.PAGINA_AUTORE_ANNO, Arrays.asList(cercato, annoNumerico, dopo, dimensionePagina)),
+                libro -> contiene(libro.getAutori(), cercato) && annoNumerico != null
+                        && annoNumerico.equals(IndiceFacette.annoDi(libro.getAnno())),
+                () -> delegato.cercaLibriPerAutoreEAnno(autore, anno, dopo, dimensionePagina));
+    }
+
+    /**
+     * Restituisce il valore in cache, oppure lo calcola con il DAO sottostante e lo memorizza.
+     * Se il DAO solleva un'eccezione (ad esempio {@link AccessoDatiException}) non si memorizza nulla.
+     *
+     * @param contiene vero per i libri che, se inseriti, cambierebbero il risultato
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T leggi(Chiave chiave, Predicate<Libro> contiene, Supplier<T> calcolo) {
+        long generazioneLettura = generazione.get();
+        Voce voce = valida(chiave, System.nanoTime());
+        if (voce != null) {
+            successi.increment();
+            return (T) voce.valore;
+        }
+        mancati.increment();
+        T valore = calcolo.get();
+        memorizza(chiave, valore, contiene, generazioneLettura);
+        return valore;
+    }
+
+    /**
+     * Memorizza un risultato, a meno che un libro sia stato inserito dopo l'inizio della ricerca
+     */
+    private void memorizza(Chiave chiave, Object valore, Predicate<Libro> contiene, long generazioneLettura) {
+        if (generazione.get() != generazioneLettura) {
+            return;
+        }
+        long adesso = System.nanoTime();
+        Voce voce = new Voce(valore, adesso, adesso + tempoDiVitaNanos, contiene);
+        voci.put(chiave, voce);
+        // Un inserimento arrivato tra il controllo e put potrebbe non aver visto la voce
+        if (generazione.get() != generazioneLettura) {
+            voci.remove(chiave, voce);
+            return;
+        }
+        if (voci.size() > vociMassime) {
+            pulisci(adesso);
+        }
+    }
+
+    /**
+     * Restituisce la voce se non e' scaduta, aggiornandone l'ultimo accesso, altrimenti la scarta
+     */
+    private Voce valida(Chiave chiave, long adesso) {
+        Voce voce = voci.get(chiave);
+        if (voce == null) {
+            return null;
+        }
+        if (adesso - voce.scadenza >= 0) {
+            if (voci.remove(chiave, voce)) {
+                scadute.increment();
+            }
+            return null;
+        }
+        voce.ultimoAccesso = adesso;
+        return voce;
+    }
+
+    /**
+     * Scarta le voci scadute e, se non basta, quelle con l'ultimo accesso piu' vecchio fino a
+     * tornare sotto il massimo di {@link #FRAZIONE_ESPULSA}. Se un altro thread sta gia' pulendo
+     * non fa niente.
+     */
+    private void pulisci(long adesso) {
+        if (!pulizia.tryLock()) {
+            return;
+        }
+        try {
+            int obiettivo = (int) (vociMassime * (1 - FRAZIONE_ESPULSA));
+            voci.entrySet().removeIf(e -> {
+                if (adesso - e.getValue().scadenza >= 0) {
+                    scadute.increment();
+                    return true;
+                }
+                return false;
+            });
+            int daEspellere = voci.size() - obiettivo;
+            if (daEspellere <= 0) {
+                return;
+            }
+            // Soglia di accesso sotto cui cadono le daEspellere voci meno recenti
+            long[] accessi = voci.values().stream().mapToLong(v -> v.ultimoAccesso).sorted().toArray();
+            if (accessi.length == 0) {
+                return;
+            }
+            long soglia = accessi[Math.min(daEspellere, accessi.length) - 1];
+            int espulse = 0;
+            var it = voci.values().iterator();
+            while (it.hasNext() && espulse < daEspellere) {
+                if (it.next().ultimoAccesso - soglia <= 0) {
+                    it.remove();
+                    espulse++;
+                }
+            }
+            espulsioni.add(espulse);
+        } finally {
+            pulizia.unlock();
+        }
+    }
+
+    /**
+     * Stessi criteri della query, valutati su un singolo libro. Le parole chiave sono valutate
+     * dalla ricerca full-text del database: una query che le contiene e' considerata sempre
+     * influenzata da un nuovo libro.
+     */
+    static boolean soddisfa(LibroQuery query, Libro libro) {
+        if (query.haParoleChiave()) {
+            return true;
+        }
+        if (query.getTitoloContiene() != null && !contiene(libro.getTitolo(), minuscolo(query.getTitoloContiene()))) {
+            return false;
+        }
+        if (query.getAutoreContiene() != null && !contiene(libro.getAutori(), minuscolo(query.getAutoreContiene()))) {
+            return false;
+        }
+        if (query.getCategoria() != null && !IndiceFacette.categorieDi(libro.getCategorie()).contains(query.getCategoria())) {
+            return false;
+        }
+        if (query.getEditore() != null && !query.getEditore().equals(IndiceFacette.editoreDi(libro.getEditore()))) {
+            return false;
+        }
+        if (query.getAnnoMinimo() != null || query.getAnnoMassimo() != null) {
+            String anno = IndiceFacette.annoDi(libro.getAnno());
+            if (anno == null || !nellIntervallo(Integer.parseInt(anno), query.getAnnoMinimo(), query.getAnnoMassimo())) {
+                return false;
+            }
+        }
+        if (query.getPrezzoMinimo() != null || query.getPrezzoMassimo() != null) {
+            double prezzo = IndiceIntervalli.prezzoDi(libro.getPrezzo());
+            if (Double.isNaN(prezzo) || !nellIntervallo(prezzo, query.getPrezzoMinimo(), query.getPrezzoMassimo())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean nellIntervallo(double valore, Number minimo, Number massimo) {
+        return (minimo == null || valore >= minimo.doubleValue()) && (massimo == null || valore <= massimo.doubleValue());
+    }
+
+    private static boolean contiene(String campo, String cercatoMinuscolo) {
+        return campo != null && campo.toLowerCase(Locale.ROOT).contains(cercatoMinuscolo == null ? "" : cercatoMinuscolo);
+    }
+
+    private static String minuscolo(String testo) {
+        return testo == null ? null : testo.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,23 @@
+package bookrecommender.server.libri;
+
+/**
+ * Vista JMX della cache dei risultati delle ricerche. I contatori partono dall'avvio.
+ */
+public interface LibroDAOConCacheMXBean {
+
+    long getSuccessi();
+
+    long getMancati();
+
+    double getPercentualeSuccessi();
+
+    long getEspulsioni();
+
+    long getScadute();
+
+    long getInvalidate();
+
+    int getVoci();
+
+    int getVociMassime();
+}
@@ -0,0 +1,206 @@
+package bookrecommender.server.libri;
+
+import bookrecommender.condivisi.libri.FiltriFacette;
+import bookrecommender.condivisi.libri.LibroQuery;
+import bookrecommender.condivisi.libri.LibroSintesi;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Esegue una {@link LibroQuery} su un'istantanea del catalogo in memoria.
+ * <p>
+ * Ogni criterio diventa un predicato con una stima del numero di libri che lo soddisfano:
+ * esatta per i criteri con un indice (categoria ed editore dalle bitmap di {@link IndiceFacette},
+ * anno e prezzo da {@link IndiceIntervalli}), pari all'intero catalogo per le ricerche di testo,
+ * che non hanno indice e vanno verificate libro per libro. I predicati vengono applicati dal
+ * piu' selettivo al meno selettivo su una bitmap di candidati, quindi le verifiche di testo
+ * scorrono solo i libri sopravvissuti ai filtri indicizzati e l'esecuzione si ferma appena
+ * i candidati finiscono.
+ */
+final class PianificatoreQuery {
+
+    private static final Logger logger = LogManager.getLogger(PianificatoreQuery.class);
+
+    private final LibroSintesi[] libri;
+    private final String[] titoliMinuscoli;
+    private final String[] autoriMinuscoli;
+    private final IndiceFacette facette;
+    private final IndiceIntervalli intervalli;
+
+    PianificatoreQuery(LibroSintesi[] libri, String[] titoliMinuscoli, String[] autoriMinuscoli,
+                       IndiceFacette facette, IndiceIntervalli intervalli) {
+        this.libri = libri;
+        this.titoliMinuscoli = titoliMinuscoli;
+        this.autoriMinuscoli = autoriMinuscoli;
+        this.facette = facette;
+        this.intervalli = intervalli;
+    }
+
+    /**
+     * Esegue la query (senza parole chiave: la ricerca full-text non e' servita dalla memoria)
+     */
+    List<LibroSintesi> esegui(LibroQuery query) {
+        List<Predicato> predicati = pianifica(query);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Piano per {}: {}", query, predicati);
+        }
+
+        long[] candidati = facette.bitmapCompleta();
+        for (Predicato predicato : predicati) {
+            predicato.restringi(candidati);
+            if (vuota(candidati)) {
+                return new ArrayList<>();
+            }
+        }
+        return ordinaELimita(candidati, query);
+    }
+
+    /**
+     * Crea i predicati della query ordinati per selettivita' stimata
+     */
+    List<Predicato> pianifica(LibroQuery query) {
+        List<Predicato> predicati = new ArrayList<>();
+
+        if (query.getCategoria() != null) {
+            String categoria = query.getCategoria();
+            predicati.add(new Predicato("categoria", facette.cardinalitaCategoria(categoria),
+                    c -> facette.applicaFiltri(c, new FiltriFacette(categoria, null, null, null))));
+        }
+        if (query.getEditore() != null) {
+            String editore = query.getEditore();
+            predicati.add(new Predicato("editore", facette.cardinalitaEditore(editore),
+                    c -> facette.applicaFiltri(c, new FiltriFacette(null, null, null, editore))));
+        }
+        if (query.getAnnoMinimo() != null || query.getAnnoMassimo() != null) {
+            Double minimo = query.getAnnoMinimo() == null ? null : query.getAnnoMinimo().doubleValue();
+            Double massimo = query.getAnnoMassimo() == null ? null : query.getAnnoMassimo().doubleValue();
+            predicati.add(new Predicato("anno", intervalli.anni().conta(minimo, massimo),
+                    c -> intervalli.anni().restringi(c, minimo, massimo)));
+        }
+        if (query.getPrezzoMinimo() != null || query.getPrezzoMassimo() != null) {
+            Double minimo = query.getPrezzoMinimo();
+            Double massimo = query.getPrezzoMassimo();
+            predicati.add(new Predicato("prezzo", intervalli.prezzi().conta(minimo, massimo),
+                    c -> intervalli.prezzi().restringi(c, minimo, massimo)));
+        }
+        // Testo: nessuna stima migliore dell'intero catalogo; tra due testi si verifica prima il
+        // piu' lungo, che di solito esclude piu' libri
+        if (query.getTitoloContiene() != null) {
+            predicati.add(predicatoTesto("titolo", titoliMinuscoli, query.getTitoloContiene()));
+        }
+        if (query.getAutoreContiene() != null) {
+            predicati.add(predicatoTesto("autore", autoriMinuscoli, query.getAutoreContiene()));
+        }
+
+        predicati.sort(Comparator.comparingLong((Predicato p) -> p.stima).thenComparingInt(p -> -p.lunghezzaTesto));
+        return predicati;
+    }
+
+    private Predicato predicatoTesto(String nome, String[] chiavi, String testo) {
+        String cercato = testo.toLowerCase(Locale.ROOT);
+        Predicato predicato = new Predicato(nome, libri.length, candidati -> {
+            for (int i = prossimo(candidati, 0); i >= 0; i = prossimo(candidati, i + 1)) {
+                if (!chiavi[i].contains(cercato)) {
+                    candidati[i >>> 6] &= ~(1L << i);
+                }
+            }
+        });
+        predicato.lunghezzaTesto = cercato.length();
+        return predicato;
+    }
+
+    private List<LibroSintesi> ordinaELimita(long[] candidati, LibroQuery query) {
+        int limite = query.getLimite() > 0 ? query.getLimite() : Integer.MAX_VALUE;
+        IndiceIntervalli.Colonna chiave = switch (query.getOrdinamento()) {
+            case ANNO_CRESCENTE, ANNO_DECRESCENTE -> intervalli.anni();
+            case PREZZO_CRESCENTE, PREZZO_DECRESCENTE -> intervalli.prezzi();
+            default -> null;
+        };
+
+        // Le posizioni sono gia' in ordine di titolo: basta fermarsi al limite
+        if (chiave == null) {
+            List<LibroSintesi> risultati = new ArrayList<>();
+            for (int i = prossimo(candidati, 0); i >= 0 && risultati.size() < limite; i = prossimo(candidati, i + 1)) {
+                risultati.add(libri[i]);
+            }
+            return risultati;
+        }
+
+        List<Integer> posizioni = new ArrayList<>();
+        for (int i = prossimo(candidati, 0); i >= 0; i = prossimo(candidati, i + 1)) {
+            posizioni.add(i);
+        }
+        boolean decrescente = query.getOrdinamento() == LibroQuery.Ordinamento.ANNO_DECRESCENTE
+                || query.getOrdinamento() == LibroQuery.Ordinamento.PREZZO_DECRESCENTE;
+        // I libri senza valore vanno in fondo in entrambi i versi; a parita' resta l'ordine per titolo
+        posizioni.sort((a, b) -> {
+            double va = chiave.valore(a);
+            double vb = chiave.valore(b);
+            if (Double.isNaN(va) || Double.isNaN(vb)) {
+                return Boolean.compare(Double.isNaN(va), Double.isNaN(vb));
+            }
+            return decrescente ? Double.compare(vb, va) : Double.compare(va, vb);
+        });
+
+        List<LibroSintesi> risultati = new ArrayList<>(Math.min(limite, posizioni.size()));
+        for (int i = 0; i < posizioni.size() && risultati.size() < limite; i++) {
+            risultati.add(libri[posizioni.get(i)]);
+        }
+        return risultati;
+    }
+
+    private static boolean vuota(long[] bitmap) {
+        for (long parola : bitmap) {
+            if (parola != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int prossimo(long[] bitmap, int da) {
+        int parola = da >>> 6;
+        if (parola >= bitmap.length) {
+            return -1;
+        }
+        long bits = bitmap[parola] & (-1L << da);
+        while (bits == 0) {
+            if (++parola == bitmap.length) {
+                return -1;
+            }
+            bits = bitmap[parola];
+        }
+        return (parola << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Criterio della query con la stima del numero di libri che lo soddisfano
+     */
+    static final class Predicato {
+        private final String nome;
+        private final long stima;
+        private final Consumer<long[]> restrizione;
+        private int lunghezzaTesto;
+
+        Predicato(String nome, long stima, Consumer<long[]> restrizione) {
+            this.nome = nome;
+            this.stima = stima;
+            this.restrizione = restrizione;
+        }
+
+        void restringi(long[] candidati) {
+            restrizione.accept(candidati);
+        }
+
+        @Override
+        public String toString() {
+            return nome + "(~" + stima + ")";
+        }
+    }
+}
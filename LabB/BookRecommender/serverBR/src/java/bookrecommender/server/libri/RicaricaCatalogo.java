@@ -0,0 +1,76 @@
+package bookrecommender.server.libri;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Ricarica dal database tutto cio' che il server tiene in memoria sui libri: il catalogo
+ * ({@link CatalogoLibriInMemoria}, con i suoi indici), l'indice dell'autocompletamento e la
+ * cache dei risultati.
+ * <p>
+ * Le parti assenti (catalogo non caricato, cache o autocompletamento disattivati) vengono
+ * saltate. La cache si svuota per ultima, cosi' non restano risultati calcolati sui dati vecchi.
+ */
+public final class RicaricaCatalogo implements RicaricaCatalogoMXBean {
+
+    private static final Logger logger = LogManager.getLogger(RicaricaCatalogo.class);
+
+    private final JdbcCercaLibriDAO dao;
+    private final CatalogoLibriInMemoria catalogo;
+    private final LibroDAOConCache cache;
+    private final CercaLibriServiceImpl servizio;
+    private final long budgetAutocompletamentoByte;
+    private volatile String ultimaRicarica = "mai";
+
+    /**
+     * @param catalogo catalogo in memoria, null se le ricerche usano direttamente il database
+     * @param cache cache dei risultati, null se disattivata
+     * @param budgetAutocompletamentoByte memoria per l'indice dell'autocompletamento, 0 se disattivato
+     */
+    public RicaricaCatalogo(JdbcCercaLibriDAO dao, CatalogoLibriInMemoria catalogo, LibroDAOConCache cache,
+                            CercaLibriServiceImpl servizio, long budgetAutocompletamentoByte) {
+        this.dao = dao;
+        this.catalogo = catalogo;
+        this.cache = cache;
+        this.servizio = servizio;
+        this.budgetAutocompletamentoByte = budgetAutocompletamentoByte;
+    }
+
+    @Override
+    public synchronized String ricarica() {
+        long inizio = System.nanoTime();
+        StringBuilder riepilogo = new StringBuilder(LocalDateTime.now().withNano(0).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        try {
+            if (catalogo != null) {
+                riepilogo.append(": ").append(catalogo.ricarica()).append(" libri in memoria");
+            }
+            if (budgetAutocompletamentoByte > 0) {
+                IndicePrefissi indice = IndicePrefissi.costruisci(dao, budgetAutocompletamentoByte);
+                servizio.sostituisciIndicePrefissi(indice);
+                riepilogo.append(", ").append(indice.getNumeroVoci()).append(" voci di autocompletamento");
+            }
+        } catch (SQLException | RuntimeException e) {
+            logger.error("Ricarica del catalogo fallita, il server continua con i dati precedenti", e);
+            // Solo il messaggio: il client JMX non ha le classi del driver
+            throw new IllegalStateException("Ricarica del catalogo fallita: " + e.getMessage());
+        } finally {
+            // Anche dopo una ricarica parziale i risultati in cache possono essere vecchi
+            if (cache != null) {
+                cache.svuota();
+            }
+        }
+        riepilogo.append(" (").append((System.nanoTime() - inizio) / 1_000_000).append(" ms)");
+        ultimaRicarica = riepilogo.toString();
+        logger.info("Catalogo ricaricato: {}", ultimaRicarica);
+        return ultimaRicarica;
+    }
+
+    @Override
+    public String getUltimaRicarica() {
+        return ultimaRicarica;
+    }
+}
@@ -0,0 +1,20 @@
+package bookrecommender.server.libri;
+
+/**
+ * Operazione JMX per rendere visibili al server le modifiche fatte alla tabella Libri da fuori,
+ * ad esempio dall'aggiornamento incrementale di creazioneDB, senza riavviarlo.
+ */
+public interface RicaricaCatalogoMXBean {
+
+    /**
+     * Rilegge il catalogo, ricostruisce gli indici in memoria e svuota la cache dei risultati
+     *
+     * @return riepilogo della ricarica
+     */
+    String ricarica();
+
+    /**
+     * @return riepilogo dell'ultima ricarica, o "mai" se non ne sono state fatte
+     */
+    String getUltimaRicarica();
+}
@@ -0,0 +1,116 @@
+package bookrecommender.server.metriche;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Istogramma delle latenze, in nanosecondi, aggiornabile da piu' thread senza lock.
+ * <p>
+ * Le classi sono logaritmico-lineari: ogni potenza di due e' divisa in {@value #SOTTOCLASSI}
+ * classi di uguale ampiezza, quindi un percentile e' stimato con un errore relativo massimo
+ * di circa il 3% qualunque sia l'ordine di grandezza (da pochi nanosecondi a minuti) e la
+ * memoria occupata e' fissa. Registrare un valore costa un incremento atomico sulla sua classe
+ * e due {@link LongAdder}; il massimo e' esatto.
+ */
+public final class IstogrammaLatenze {
+
+    private static final int BIT_SOTTOCLASSI = 4;
+    private static final int SOTTOCLASSI = 1 << BIT_SOTTOCLASSI;
+    // Valori sotto SOTTOCLASSI hanno una classe ciascuno, poi SOTTOCLASSI classi per ogni esponente fino a 62
+    private static final int CLASSI = (63 - BIT_SOTTOCLASSI + 1) * SOTTOCLASSI;
+
+    private final AtomicLongArray conteggi = new AtomicLongArray(CLASSI);
+    private final LongAdder totale = new LongAdder();
+    private final LongAdder somma = new LongAdder();
+    private final AtomicLong massimo = new AtomicLong();
+
+    public void registra(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        conteggi.incrementAndGet(classeDi(nanos));
+        totale.increment();
+        somma.add(nanos);
+        // Si tenta l'aggiornamento solo se il valore supera il massimo letto
+        long attuale = massimo.get();
+        while (nanos > attuale && !massimo.compareAndSet(attuale, nanos)) {
+            attuale = massimo.get();
+        }
+    }
+
+    public long getTotale() {
+        return totale.sum();
+    }
+
+    public long getMassimo() {
+        return massimo.get();
+    }
+
+    public double getMedia() {
+        long n = totale.sum();
+        return n == 0 ? 0 : (double) somma.sum() / n;
+    }
+
+    /**
+     * Stima il percentile dai conteggi correnti. Le registrazioni concorrenti possono essere
+     * contate o no: il risultato e' quello di un istante qualsiasi durante la lettura.
+     *
+     * @param percentile tra 0 e 100
+     * @return la latenza in nanosecondi, 0 se non ci sono registrazioni
+     */
+    public long getPercentile(double percentile) {
+        long[] copia = new long[CLASSI];
+        long n = 0;
+        for (int i = 0; i < CLASSI; i++) {
+            copia[i] = conteggi.get(i);
+            n += copia[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long posizione = Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100.0));
+        long cumulati = 0;
+        for (int i = 0; i < CLASSI; i++) {
+            cumulati += copia[i];
+            if (cumulati >= posizione) {
+                return Math.min(valoreDi(i), massimo.get());
+            }
+        }
+        return massimo.get();
+    }
+
+    /**
+     * Azzera i conteggi. Le registrazioni concorrenti all'azzeramento possono andare perse.
+     */
+    public void azzera() {
+        for (int i = 0; i < CLASSI; i++) {
+            conteggi.set(i, 0);
+        }
+        totale.reset();
+        somma.reset();
+        massimo.set(0);
+    }
+
+    static int classeDi(long nanos) {
+        if (nanos < SOTTOCLASSI) {
+            return (int) nanos;
+        }
+        int esponente = 63 - Long.numberOfLeadingZeros(nanos);
+        int sottoclasse = (int) (nanos >>> (esponente - BIT_SOTTOCLASSI)) & (SOTTOCLASSI - 1);
+        return (esponente - BIT_SOTTOCLASSI + 1) * SOTTOCLASSI + sottoclasse;
+    }
+
+    /**
+     * @return il valore centrale della classe
+     */
+    static long valoreDi(int classe) {
+        if (classe < SOTTOCLASSI) {
+            return classe;
+        }
+        int esponente = classe / SOTTOCLASSI + BIT_SOTTOCLASSI - 1;
+        long ampiezza = 1L << (esponente - BIT_SOTTOCLASSI);
+        long inizio = (long) (SOTTOCLASSI + classe % SOTTOCLASSI) << (esponente - BIT_SOTTOCLASSI);
+        return inizio + ampiezza / 2;
+    }
+}
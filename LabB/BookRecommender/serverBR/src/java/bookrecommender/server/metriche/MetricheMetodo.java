@@ -0,0 +1,78 @@
+package bookrecommender.server.metriche;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latenze, errori e frequenza delle chiamate a un metodo
+ */
+public final class MetricheMetodo implements MetricheMetodoMXBean {
+
+    private final IstogrammaLatenze latenze = new IstogrammaLatenze();
+    private final LongAdder errori = new LongAdder();
+    private volatile long inizioNanos = System.nanoTime();
+
+    void registra(long nanos) {
+        latenze.registra(nanos);
+    }
+
+    void errore() {
+        errori.increment();
+    }
+
+    @Override
+    public long getChiamate() {
+        return latenze.getTotale();
+    }
+
+    @Override
+    public long getErrori() {
+        return errori.sum();
+    }
+
+    /**
+     * @return chiamate al secondo in media dall'avvio o dall'ultimo azzeramento
+     */
+    @Override
+    public double getChiamateAlSecondo() {
+        double secondi = (System.nanoTime() - inizioNanos) / 1e9;
+        return secondi <= 0 ? 0 : latenze.getTotale() / secondi;
+    }
+
+    @Override
+    public double getMediaMs() {
+        return latenze.getMedia() / 1e6;
+    }
+
+    @Override
+    public double getP50Ms() {
+        return latenze.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getP95Ms() {
+        return latenze.getPercentile(95) / 1e6;
+    }
+
+    @Override
+    public double getP99Ms() {
+        return latenze.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getMassimoMs() {
+        return latenze.getMassimo() / 1e6;
+    }
+
+    @Override
+    public void azzera() {
+        latenze.azzera();
+        errori.reset();
+        inizioNanos = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("chiamate=%d errori=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+                getChiamate(), getErrori(), getP50Ms(), getP95Ms(), getP99Ms(), getMassimoMs());
+    }
+}
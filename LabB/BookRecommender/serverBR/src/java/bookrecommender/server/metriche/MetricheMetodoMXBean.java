@@ -0,0 +1,26 @@
+package bookrecommender.server.metriche;
+
+/**
+ * Vista JMX delle metriche di un metodo. I tempi sono in millisecondi, i contatori partono
+ * dall'avvio o dall'ultimo {@link #azzera()}.
+ */
+public interface MetricheMetodoMXBean {
+
+    long getChiamate();
+
+    long getErrori();
+
+    double getChiamateAlSecondo();
+
+    double getMediaMs();
+
+    double getP50Ms();
+
+    double getP95Ms();
+
+    double getP99Ms();
+
+    double getMassimoMs();
+
+    void azzera();
+}
@@ -0,0 +1,148 @@
+package bookrecommender.server.metriche;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metriche per metodo di un componente del server (un servizio RMI o un DAO).
+ * <p>
+ * Si ottiene come i logger, con {@link #di(String)}, e si usa misurando il tempo dall'inizio
+ * del metodo:
+ * <pre>{@code
+ * long inizio = System.nanoTime();
+ * try {
+ *     ...
+ * } catch (SQLException e) {
+ *     metriche.errore("metodo");
+ *     ...
+ * } finally {
+ *     metriche.registra("metodo", inizio);
+ * }
+ * }</pre>
+ * Dopo {@link #pubblicaSu(MBeanServer)} ogni metodo, anche quelli chiamati per la prima volta
+ * in seguito, e' visibile via JMX come {@code bookrecommender:type=Metriche,componente=...,metodo=...}.
+ * Gli MXBean di altri componenti (esecutori, cache) si aggiungono con {@link #pubblica(String, String, Object)}
+ * e compaiono come {@code bookrecommender:type=...,nome=...}.
+ */
+public final class RegistroMetriche {
+
+    private static final Logger logger = LogManager.getLogger(RegistroMetriche.class);
+    private static final ConcurrentHashMap<String, RegistroMetriche> registri = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Object> componenti = new ConcurrentHashMap<>();
+    private static volatile MBeanServer server;
+
+    private final String componente;
+    private final ConcurrentHashMap<String, MetricheMetodo> metodi = new ConcurrentHashMap<>();
+
+    private RegistroMetriche(String componente) {
+        this.componente = componente;
+    }
+
+    /**
+     * @return il registro del componente, creato alla prima richiesta
+     */
+    public static RegistroMetriche di(String componente) {
+        return registri.computeIfAbsent(componente, RegistroMetriche::new);
+    }
+
+    /**
+     * Pubblica come MXBean le metriche di tutti i registri, presenti e futuri
+     */
+    public static synchronized void pubblicaSu(MBeanServer mBeanServer) {
+        server = mBeanServer;
+        for (RegistroMetriche registro : registri.values()) {
+            registro.metodi.forEach(registro::pubblica);
+        }
+        componenti.forEach(RegistroMetriche::registraComponente);
+        logger.info("Metriche dei metodi pubblicate via JMX nel dominio bookrecommender");
+    }
+
+    /**
+     * Pubblica l'MXBean di un componente, subito se {@link #pubblicaSu} e' gia' stato chiamato,
+     * altrimenti quando lo sara'
+     *
+     * @param tipo tipo del componente, ad esempio {@code Esecutore}
+     * @param nome nome del componente, unico tra quelli dello stesso tipo
+     * @param mxBean oggetto che implementa un'interfaccia {@code ...MXBean}
+     */
+    public static synchronized void pubblica(String tipo, String nome, Object mxBean) {
+        String oggetto = "bookrecommender:type=" + tipo + ",nome=" + ObjectName.quote(nome);
+        componenti.put(oggetto, mxBean);
+        registraComponente(oggetto, mxBean);
+    }
+
+    /**
+     * Registra una chiamata terminata, riuscita o no
+     *
+     * @param inizioNanos {@link System#nanoTime()} all'inizio della chiamata
+     */
+    public void registra(String metodo, long inizioNanos) {
+        metodo(metodo).registra(System.nanoTime() - inizioNanos);
+    }
+
+    /**
+     * Conta una chiamata terminata con errore; la latenza va registrata comunque con {@link #registra}
+     */
+    public void errore(String metodo) {
+        metodo(metodo).errore();
+    }
+
+    /**
+     * @return le metriche dei metodi chiamati almeno una volta, in ordine di nome
+     */
+    public Map<String, MetricheMetodo> getMetodi() {
+        return Collections.unmodifiableMap(new TreeMap<>(metodi));
+    }
+
+    private MetricheMetodo metodo(String nome) {
+        // get senza lock nel caso comune; computeIfAbsent solo alla prima chiamata del metodo
+        MetricheMetodo m = metodi.get(nome);
+        if (m == null) {
+            m = metodi.computeIfAbsent(nome, n -> {
+                MetricheMetodo nuovo = new MetricheMetodo();
+                pubblica(n, nuovo);
+                return nuovo;
+            });
+        }
+        return m;
+    }
+
+    private static void registraComponente(String oggetto, Object mxBean) {
+        MBeanServer s = server;
+        if (s == null) {
+            return;
+        }
+        try {
+            s.registerMBean(mxBean, new ObjectName(oggetto));
+        } catch (InstanceAlreadyExistsException e) {
+            // Gia' pubblicato
+        } catch (JMException e) {
+            logger.warn("Impossibile pubblicare via JMX {}", oggetto, e);
+        }
+    }
+
+    private void pubblica(String metodo, MetricheMetodo metriche) {
+        MBeanServer s = server;
+        if (s == null) {
+            return;
+        }
+        try {
+            ObjectName nome = new ObjectName("bookrecommender:type=Metriche,componente="
+                    + ObjectName.quote(componente) + ",metodo=" + ObjectName.quote(metodo));
+            s.registerMBean(metriche, nome);
+        } catch (InstanceAlreadyExistsException e) {
+            // Gia' pubblicato da pubblicaSu in concorrenza con la prima chiamata del metodo
+        } catch (JMException e) {
+            logger.warn("Impossibile pubblicare via JMX le metriche di {}.{}", componente, metodo, e);
+        }
+    }
+}
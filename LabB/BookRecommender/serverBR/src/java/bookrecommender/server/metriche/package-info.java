@@ -0,0 +1 @@
+package bookrecommender.server.metriche;
\ No newline at end of file
@@ -1,9 +1,11 @@
 module serverBR {
     requires inComune;
+    requires java.management;
     requires java.rmi;
     requires java.sql;
     requires org.apache.logging.log4j;
 
+    exports bookrecommender.server.metriche;
     exports bookrecommender.server.utenti;
     exports bookrecommender.server.utili;
 }
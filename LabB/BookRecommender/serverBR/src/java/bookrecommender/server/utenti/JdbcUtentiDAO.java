@@ -1,6 +1,7 @@
 package bookrecommender.server.utenti;
 
 import bookrecommender.condivisi.utenti.Utenti;
+import bookrecommender.server.metriche.RegistroMetriche;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -11,6 +12,7 @@ import java.util.List;
 public class JdbcUtentiDAO implements UtentiDAO {
     
     private static final Logger logger = LogManager.getLogger(JdbcUtentiDAO.class);
+    private static final RegistroMetriche metriche = RegistroMetriche.di("JdbcUtentiDAO");
     
     // Aggiornate per utilizzare userID come chiave primaria (compatibili con Java 11)
     private static final String QUERY_SAVE = 
@@ -42,7 +44,8 @@ public class JdbcUtentiDAO implements UtentiDAO {
 
     @Override
     public boolean save(Utenti utente) {
-        try (Connection conn = bookrecommender.server.utili.DBConnectionSingleton.openNewConnection();
+        long inizio = System.nanoTime();
+        try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(QUERY_SAVE)) {
             
             stmt.setString(1, utente.userID());
@@ -64,17 +67,22 @@ public class JdbcUtentiDAO implements UtentiDAO {
             return success;
             
         } catch (SQLException e) {
+            metriche.errore("save");
             logger.error("Errore SQL durante il salvataggio dell'utente: " + utente.userID(), e);
             return false;
         } catch (Exception e) {
+            metriche.errore("save");
             logger.error("Errore imprevisto durante il salvataggio dell'utente: " + utente.userID(), e);
             return false;
+        } finally {
+            metriche.registra("save", inizio);
         }
     }
 
     @Override
     public Utenti findByUsername(String username) {
-        try (Connection conn = bookrecommender.server.utili.DBConnectionSingleton.openNewConnection();
+        long inizio = System.nanoTime();
+        try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(QUERY_FIND_BY_USERNAME)) {
             
             // Cerca per username, email o codice fiscale
@@ -102,17 +110,22 @@ public class JdbcUtentiDAO implements UtentiDAO {
             }
             
         } catch (SQLException e) {
+            metriche.errore("findByUsername");
             logger.error("Errore SQL durante la ricerca dell'utente: " + username, e);
             return null;
         } catch (Exception e) {
+            metriche.errore("findByUsername");
             logger.error("Errore imprevisto durante la ricerca dell'utente: " + username, e);
             return null;
+        } finally {
+            metriche.registra("findByUsername", inizio);
         }
     }
 
     @Override
     public boolean update(Utenti utente) {
-        try (Connection conn = bookrecommender.server.utili.DBConnectionSingleton.openNewConnection();
+        long inizio = System.nanoTime();
+        try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(QUERY_UPDATE)) {
             
             stmt.setString(1, utente.password());
@@ -134,17 +147,22 @@ public class JdbcUtentiDAO implements UtentiDAO {
             return success;
             
         } catch (SQLException e) {
+            metriche.errore("update");
             logger.error("Errore SQL durante l'aggiornamento dell'utente: " + utente.userID(), e);
             return false;
         } catch (Exception e) {
+            metriche.errore("update");
             logger.error("Errore imprevisto durante l'aggiornamento dell'utente: " + utente.userID(), e);
             return false;
+        } finally {
+            metriche.registra("update", inizio);
         }
     }
 
     @Override
     public boolean delete(String username) {
-        try (Connection conn = bookrecommender.server.utili.DBConnectionSingleton.openNewConnection();
+        long inizio = System.nanoTime();
+        try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(QUERY_DELETE)) {
             
             stmt.setString(1, username);
@@ -161,11 +179,15 @@ public class JdbcUtentiDAO implements UtentiDAO {
             return success;
             
         } catch (SQLException e) {
+            metriche.errore("delete");
             logger.error("Errore SQL durante l'eliminazione dell'utente: " + username, e);
             return false;
         } catch (Exception e) {
+            metriche.errore("delete");
             logger.error("Errore imprevisto durante l'eliminazione dell'utente: " + username, e);
             return false;
+        } finally {
+            metriche.registra("delete", inizio);
         }
     }
     
@@ -174,9 +196,10 @@ public class JdbcUtentiDAO implements UtentiDAO {
      * @return lista di tutti gli utenti
      */
     public List<Utenti> findAll() {
+        long inizio = System.nanoTime();
         List<Utenti> utenti = new ArrayList<>();
         
-        try (Connection conn = bookrecommender.server.utili.DBConnectionSingleton.openNewConnection();
+        try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(QUERY_FIND_ALL);
              ResultSet rs = stmt.executeQuery()) {
             
@@ -195,23 +218,29 @@ public class JdbcUtentiDAO implements UtentiDAO {
             logger.debug("Trovati " + utenti.size() + " utenti nel database");
             
         } catch (SQLException e) {
+            metriche.errore("findAll");
             logger.error("Errore SQL durante il recupero di tutti gli utenti", e);
         } catch (Exception e) {
+            metriche.errore("findAll");
             logger.error("Errore imprevisto durante il recupero di tutti gli utenti", e);
+        } finally {
+            metriche.registra("findAll", inizio);
         }
         
         return utenti;
     }
     
     /**
-     * Ottiene una connessione al database
+     * Prende in prestito una connessione dal pool riservato agli utenti; va chiusa per restituirla
      * @return connessione al database
      * @throws SQLException in caso di errore di connessione
      */
     private Connection getConnection() throws SQLException {
-        // Utilizza la classe di connessione esistente nel progetto
         try {
-            return bookrecommender.server.utili.DBConnectionSingleton.getConnection();
+            return bookrecommender.server.utili.DBConnectionSingleton.getPoolUtenti().getConnection();
+        } catch (SQLException e) {
+            logger.error("Connessione DB non disponibile", e);
+            throw e;
         } catch (Exception e) {
             logger.error("Connessione DB non disponibile", e);
             throw new SQLException("Connessione al database non disponibile", e);
@@ -2,26 +2,58 @@ package bookrecommender.server.utenti;
 
 import bookrecommender.condivisi.utenti.Utenti;
 import bookrecommender.condivisi.utenti.UtentiService;
+import bookrecommender.condivisi.rmi.ServizioOccupatoException;
+import bookrecommender.server.metriche.RegistroMetriche;
+import bookrecommender.server.utili.EsecutoreLimitato;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.function.Supplier;
 
 public class UtentiServiceImpl extends UnicastRemoteObject implements UtentiService {
     
     private static final Logger logger = LogManager.getLogger(UtentiServiceImpl.class);
+    private static final RegistroMetriche metriche = RegistroMetriche.di("UtentiService");
+    // Limiti dell'esecutore quando non ne viene fornito uno
+    private static final int CONCORRENZA_PREDEFINITA = 4;
+    private static final int CODA_PREDEFINITA = 50;
     private final UtentiDAO utentiDAO;
+    // Limita gli accessi contemporanei al DAO; oltre la coda le richieste sono rifiutate
+    private final EsecutoreLimitato esecutore;
     
     public UtentiServiceImpl() throws RemoteException {
-        super();
+        this(null, null);
+    }
+
+    /**
+     * @param fabbricaClient fabbrica dei socket usata dagli stub, null per i socket predefiniti
+     * @param fabbricaServer fabbrica dei socket di ascolto, null per i socket predefiniti
+     */
+    public UtentiServiceImpl(RMIClientSocketFactory fabbricaClient, RMIServerSocketFactory fabbricaServer) throws RemoteException {
+        this(new EsecutoreLimitato("utenti", CONCORRENZA_PREDEFINITA, CODA_PREDEFINITA), fabbricaClient, fabbricaServer);
+    }
+
+    /**
+     * @param esecutore esecutore su cui girano gli accessi al DAO
+     * @param fabbricaClient fabbrica dei socket usata dagli stub, null per i socket predefiniti
+     * @param fabbricaServer fabbrica dei socket di ascolto, null per i socket predefiniti
+     */
+    public UtentiServiceImpl(EsecutoreLimitato esecutore, RMIClientSocketFactory fabbricaClient,
+                             RMIServerSocketFactory fabbricaServer) throws RemoteException {
+        super(0, fabbricaClient, fabbricaServer);
         this.utentiDAO = new JdbcUtentiDAO();
+        this.esecutore = esecutore;
         logger.info("UtentiServiceImpl inizializzato");
     }
 
     @Override
     public boolean authenticateUser(String username, String password) throws RemoteException {
+        long inizio = System.nanoTime();
         try {
             logger.debug("Tentativo di autenticazione per utente: " + username);
             
@@ -30,7 +62,7 @@ public class UtentiServiceImpl extends UnicastRemoteObject implements UtentiServ
                 return false;
             }
             
-            Utenti utente = utentiDAO.findByUsername(username.trim());
+            Utenti utente = esegui(() -> utentiDAO.findByUsername(username.trim()));
             if (utente == null) {
                 logger.warn("Utente non trovato: " + username);
                 return false;
@@ -45,14 +77,21 @@ public class UtentiServiceImpl extends UnicastRemoteObject implements UtentiServ
             
             return authenticated;
             
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("authenticateUser");
+            throw e;
         } catch (Exception e) {
+            metriche.errore("authenticateUser");
             logger.error("Errore durante l'autenticazione dell'utente: " + username, e);
             throw new RemoteException("Errore durante l'autenticazione", e);
+        } finally {
+            metriche.registra("authenticateUser", inizio);
         }
     }
 
     @Override
     public boolean registerUser(Utenti utente) throws RemoteException {
+        long inizio = System.nanoTime();
         try {
             logger.debug("Tentativo di registrazione per utente: " + utente.userID());
             
@@ -68,13 +107,13 @@ public class UtentiServiceImpl extends UnicastRemoteObject implements UtentiServ
             }
             
             // Verifica se l'username esiste già
-            if (utentiDAO.findByUsername(utente.userID()) != null) {
+            if (esegui(() -> utentiDAO.findByUsername(utente.userID())) != null) {
                 logger.warn("Username già esistente: " + utente.userID());
                 return false;
             }
             
             // Salvataggio utente
-            boolean saved = utentiDAO.save(utente);
+            boolean saved = esegui(() -> utentiDAO.save(utente));
             if (saved) {
                 logger.info("Utente registrato con successo: " + utente.userID());
             } else {
@@ -83,14 +122,21 @@ public class UtentiServiceImpl extends UnicastRemoteObject implements UtentiServ
             
             return saved;
             
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("registerUser");
+            throw e;
         } catch (Exception e) {
+            metriche.errore("registerUser");
             logger.error("Errore durante la registrazione dell'utente: " + utente.userID(), e);
             throw new RemoteException("Errore durante la registrazione", e);
+        } finally {
+            metriche.registra("registerUser", inizio);
         }
     }
 
     @Override
     public boolean isUsernameExists(String username) throws RemoteException {
+        long inizio = System.nanoTime();
         try {
             logger.debug("Verifica esistenza username: " + username);
             
@@ -98,20 +144,27 @@ public class UtentiServiceImpl extends UnicastRemoteObject implements UtentiServ
                 return false;
             }
             
-            Utenti utente = utentiDAO.findByUsername(username.trim());
+            Utenti utente = esegui(() -> utentiDAO.findByUsername(username.trim()));
             boolean exists = utente != null;
             
             logger.debug("Username " + username + " esiste: " + exists);
             return exists;
             
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("isUsernameExists");
+            throw e;
         } catch (Exception e) {
+            metriche.errore("isUsernameExists");
             logger.error("Errore durante la verifica dell'username: " + username, e);
             throw new RemoteException("Errore durante la verifica username", e);
+        } finally {
+            metriche.registra("isUsernameExists", inizio);
         }
     }
 
     @Override
     public Utenti getUserByUsername(String username) throws RemoteException {
+        long inizio = System.nanoTime();
         try {
             logger.debug("Richiesta utente per username: " + username);
             
@@ -119,7 +172,7 @@ public class UtentiServiceImpl extends UnicastRemoteObject implements UtentiServ
                 return null;
             }
             
-            Utenti utente = utentiDAO.findByUsername(username.trim());
+            Utenti utente = esegui(() -> utentiDAO.findByUsername(username.trim()));
             
             if (utente != null) {
                 logger.debug("Utente trovato: " + username);
@@ -129,12 +182,31 @@ public class UtentiServiceImpl extends UnicastRemoteObject implements UtentiServ
             
             return utente;
             
+        } catch (ServizioOccupatoException e) {
+            metriche.errore("getUserByUsername");
+            throw e;
         } catch (Exception e) {
+            metriche.errore("getUserByUsername");
             logger.error("Errore durante il recupero dell'utente: " + username, e);
             throw new RemoteException("Errore durante il recupero utente", e);
+        } finally {
+            metriche.registra("getUserByUsername", inizio);
         }
     }
     
+    /**
+     * Esegue l'accesso al DAO tramite l'esecutore
+     *
+     * @throws ServizioOccupatoException se l'esecutore e' saturo
+     */
+    private <T> T esegui(Supplier<T> lavoro) throws ServizioOccupatoException {
+        try {
+            return esecutore.esegui(lavoro);
+        } catch (EsecutoreLimitato.RichiestaRifiutataException e) {
+            throw e.perIlClient();
+        }
+    }
+
     /**
      * Valida i dati di un utente
      */
@@ -0,0 +1,317 @@
+package bookrecommender.server.utili;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool limitato di connessioni JDBC verso PostgreSQL.
+ * <p>
+ * Mantiene almeno {@code dimensioneMinima} connessioni aperte e non ne apre mai piu' di
+ * {@code dimensioneMassima}. Le connessioni inattive oltre la soglia vengono chiuse, quelle
+ * prese in prestito vengono validate prima della consegna e quelle trattenute troppo a lungo
+ * vengono segnalate nel log insieme allo stack del chiamante (con soglia {@code <= 0} la
+ * rilevazione dei leak e' disattivata).
+ * <p>
+ * Le connessioni restituite da {@link #getConnection()} vanno chiuse con {@code close()}
+ * (tipicamente con try-with-resources): la chiusura le riconsegna al pool.
+ */
+public class DBConnectionPool implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(DBConnectionPool.class);
+
+    private final String jdbcUrl;
+    private final String username;
+    private final String password;
+    private final int dimensioneMinima;
+    private final int dimensioneMassima;
+    private final long inattivitaMassimaMillis;
+    private final long timeoutAcquisizioneMillis;
+    private final long sogliaLeakMillis;
+    private final int timeoutValidazioneSecondi;
+
+    private final Semaphore permessi;
+    private final LinkedBlockingDeque<ConnessioneInattiva> inattive = new LinkedBlockingDeque<>();
+    private final Set<ConnessioneInPrestito> inPrestito = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService manutenzione;
+    // Misura gli statement delle connessioni in prestito; null se il registro e' disattivato
+    private volatile QueryLente queryLente;
+    private volatile boolean chiuso;
+
+    public DBConnectionPool(String jdbcUrl, String username, String password,
+                            int dimensioneMinima, int dimensioneMassima,
+                            long inattivitaMassimaMillis, long timeoutAcquisizioneMillis,
+                            long sogliaLeakMillis, int timeoutValidazioneSecondi) throws SQLException {
+        if (dimensioneMassima < 1 || dimensioneMinima < 0 || dimensioneMinima > dimensioneMassima) {
+            throw new IllegalArgumentException("Dimensioni del pool non valide: min=" + dimensioneMinima + ", max=" + dimensioneMassima);
+        }
+        this.jdbcUrl = jdbcUrl;
+        this.username = username;
+        this.password = password;
+        this.dimensioneMinima = dimensioneMinima;
+        this.dimensioneMassima = dimensioneMassima;
+        this.inattivitaMassimaMillis = inattivitaMassimaMillis;
+        this.timeoutAcquisizioneMillis = timeoutAcquisizioneMillis;
+        this.sogliaLeakMillis = sogliaLeakMillis;
+        this.timeoutValidazioneSecondi = timeoutValidazioneSecondi;
+        this.permessi = new Semaphore(dimensioneMassima, true);
+
+        // Apertura delle connessioni minime: se le credenziali sono errate fallisce subito
+        for (int i = 0; i < dimensioneMinima; i++) {
+            inattive.offerLast(new ConnessioneInattiva(apriConnessioneFisica(), System.currentTimeMillis()));
+        }
+
+        this.manutenzione = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-manutenzione");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodo = Math.max(1000L, Math.min(inattivitaMassimaMillis,
+                sogliaLeakMillis > 0 ? sogliaLeakMillis : inattivitaMassimaMillis) / 2);
+        manutenzione.scheduleWithFixedDelay(this::eseguiManutenzione, periodo, periodo, TimeUnit.MILLISECONDS);
+
+        logger.info("Pool di connessioni inizializzato (min={}, max={}) verso {}", dimensioneMinima, dimensioneMassima, jdbcUrl);
+    }
+
+    /**
+     * Prende in prestito una connessione dal pool, attendendo al massimo il timeout di acquisizione.
+     *
+     * @return connessione valida; la sua {@code close()} la restituisce al pool
+     * @throws SQLTimeoutException se nessuna connessione si libera entro il timeout
+     * @throws SQLException in caso di errore di apertura della connessione
+     */
+    public Connection getConnection() throws SQLException {
+        if (chiuso) {
+            throw new SQLException("Pool di connessioni chiuso");
+        }
+        try {
+            if (!permessi.tryAcquire(timeoutAcquisizioneMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Nessuna connessione disponibile entro " + timeoutAcquisizioneMillis
+                        + " ms (in uso: " + inPrestito.size() + "/" + dimensioneMassima + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Attesa di una connessione interrotta", e);
+        }
+
+        try {
+            Connection fisica = prendiConnessioneValida();
+            ConnessioneInPrestito prestito = new ConnessioneInPrestito(fisica);
+            inPrestito.add(prestito);
+            return prestito.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permessi.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return numero di connessioni attualmente in prestito
+     */
+    public int getConnessioniInUso() {
+        return inPrestito.size();
+    }
+
+    /**
+     * @return numero di connessioni aperte e disponibili nel pool
+     */
+    public int getConnessioniInattive() {
+        return inattive.size();
+    }
+
+    public int getDimensioneMassima() {
+        return dimensioneMassima;
+    }
+
+    /**
+     * Attiva il registro delle query lente per gli statement creati da ora in poi
+     *
+     * @param queryLente registro da usare, null per disattivarlo
+     */
+    public void setQueryLente(QueryLente queryLente) {
+        this.queryLente = queryLente;
+    }
+
+    /**
+     * Chiude il pool e tutte le connessioni inattive. Le connessioni ancora in prestito
+     * vengono chiuse fisicamente quando il chiamante le restituisce.
+     */
+    @Override
+    public void close() {
+        chiuso = true;
+        manutenzione.shutdownNow();
+        ConnessioneInattiva c;
+        while ((c = inattive.pollFirst()) != null) {
+            chiudiSilenziosamente(c.connessione);
+        }
+        logger.info("Pool di connessioni chiuso");
+    }
+
+    private Connection prendiConnessioneValida() throws SQLException {
+        ConnessioneInattiva candidata;
+        // LIFO: si riusa la connessione usata piu' di recente, le altre invecchiano e vengono evitate
+        while ((candidata = inattive.pollFirst()) != null) {
+            if (isValida(candidata.connessione)) {
+                return candidata.connessione;
+            }
+            logger.warn("Connessione non valida scartata dal pool");
+            chiudiSilenziosamente(candidata.connessione);
+        }
+        return apriConnessioneFisica();
+    }
+
+    private boolean isValida(Connection connessione) {
+        try {
+            return !connessione.isClosed() && connessione.isValid(timeoutValidazioneSecondi);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection apriConnessioneFisica() throws SQLException {
+        Connection connessione = DriverManager.getConnection(jdbcUrl, username, password);
+        logger.debug("Aperta nuova connessione fisica verso {}", jdbcUrl);
+        return connessione;
+    }
+
+    private void restituisci(ConnessioneInPrestito prestito) {
+        if (!inPrestito.remove(prestito)) {
+            return;
+        }
+        Connection fisica = prestito.fisica;
+        try {
+            if (chiuso || fisica.isClosed()) {
+                chiudiSilenziosamente(fisica);
+                return;
+            }
+            // Ripristina lo stato prima di rimettere la connessione a disposizione
+            if (!fisica.getAutoCommit()) {
+                fisica.rollback();
+                fisica.setAutoCommit(true);
+            }
+            if (fisica.isReadOnly()) {
+                fisica.setReadOnly(false);
+            }
+            fisica.clearWarnings();
+            inattive.offerFirst(new ConnessioneInattiva(fisica, System.currentTimeMillis()));
+        } catch (SQLException e) {
+            logger.warn("Connessione scartata durante la restituzione al pool: {}", e.getMessage());
+            chiudiSilenziosamente(fisica);
+        } finally {
+            permessi.release();
+        }
+    }
+
+    /**
+     * Chiude le connessioni inattive da troppo tempo (mantenendo il minimo) e segnala
+     * le connessioni trattenute oltre la soglia di leak.
+     */
+    private void eseguiManutenzione() {
+        try {
+            long adesso = System.currentTimeMillis();
+
+            Iterator<ConnessioneInattiva> it = inattive.descendingIterator();
+            while (it.hasNext() && inattive.size() > dimensioneMinima) {
+                ConnessioneInattiva c = it.next();
+                if (adesso - c.inattivaDal > inattivitaMassimaMillis && inattive.removeFirstOccurrence(c)) {
+                    chiudiSilenziosamente(c.connessione);
+                    logger.debug("Connessione inattiva chiusa dopo {} ms", adesso - c.inattivaDal);
+                }
+            }
+
+            if (sogliaLeakMillis > 0) {
+                for (ConnessioneInPrestito prestito : inPrestito) {
+                    long durata = adesso - prestito.presaAlle;
+                    if (durata > sogliaLeakMillis && !prestito.segnalata) {
+                        prestito.segnalata = true;
+                        logger.warn("Possibile leak: connessione in prestito da " + durata + " ms non ancora restituita",
+                                prestito.origine);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Errore durante la manutenzione del pool di connessioni", e);
+        }
+    }
+
+    private static void chiudiSilenziosamente(Connection connessione) {
+        try {
+            connessione.close();
+        } catch (SQLException ignored) { }
+    }
+
+    private record ConnessioneInattiva(Connection connessione, long inattivaDal) { }
+
+    /**
+     * Connessione presa in prestito: il proxy intercetta {@code close()} per restituirla al pool
+     * e impedisce l'uso dopo la restituzione.
+     */
+    private final class ConnessioneInPrestito implements InvocationHandler {
+        private final Connection fisica;
+        private final Connection proxy;
+        private final long presaAlle = System.currentTimeMillis();
+        private final Throwable origine = sogliaLeakMillis > 0 ? new Throwable("Connessione presa in prestito qui") : null;
+        private volatile boolean restituita;
+        private volatile boolean segnalata;
+
+        ConnessioneInPrestito(Connection fisica) {
+            this.fisica = fisica;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!restituita) {
+                        restituita = true;
+                        restituisci(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return restituita || fisica.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "ConnessioneInPrestito[" + fisica + "]";
+                default:
+                    if (restituita) {
+                        throw new SQLException("Connessione gia' restituita al pool");
+                    }
+                    Object risultato;
+                    try {
+                        risultato = method.invoke(fisica, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    QueryLente registro = queryLente;
+                    if (registro != null && risultato instanceof Statement statement) {
+                        // prepareStatement e prepareCall ricevono il testo SQL come primo argomento
+                        String sql = method.getName().startsWith("prepare") ? (String) args[0] : null;
+                        return registro.cronometra(statement, method.getReturnType(), sql, DBConnectionPool.this);
+                    }
+                    return risultato;
+            }
+        }
+    }
+}
@@ -5,7 +5,33 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class DBConnectionSingleton {
-    private static Connection connection;
+    // Parametri del pool configurabili da riga di comando (es. -Dbookrecommender.db.pool.max=20)
+    private static final int POOL_MIN = Integer.getInteger("bookrecommender.db.pool.min", 2);
+    // Di default il pool scala con i core, cosi' le ricerche concorrenti non restano in coda
+    private static final int POOL_MAX = Integer.getInteger("bookrecommender.db.pool.max",
+            Math.max(10, 2 * Runtime.getRuntime().availableProcessors()));
+    private static final long POOL_INATTIVITA_MS = Long.getLong("bookrecommender.db.pool.inattivitaMs", 300_000L);
+    private static final long POOL_TIMEOUT_MS = Long.getLong("bookrecommender.db.pool.timeoutMs", 5_000L);
+    private static final long POOL_LEAK_MS = Long.getLong("bookrecommender.db.pool.leakMs", 30_000L);
+    private static final int POOL_VALIDAZIONE_S = Integer.getInteger("bookrecommender.db.pool.validazioneS", 2);
+    // Pool separato per autenticazione e registrazione, cosi' un picco di ricerche non ne esaurisce
+    // le connessioni (es. -Dbookrecommender.db.poolUtenti.max=8)
+    private static final int POOL_UTENTI_MIN = Integer.getInteger("bookrecommender.db.poolUtenti.min", 1);
+    private static final int POOL_UTENTI_MAX = Integer.getInteger("bookrecommender.db.poolUtenti.max", 4);
+
+    // Statement oltre questa durata finiscono nel log con i parametri oscurati, e per un campione
+    // delle SELECT si cattura il piano con EXPLAIN (es. -Dbookrecommender.db.lente.sogliaMs=0
+    // per disattivare il registro, -Dbookrecommender.db.lente.campioneExplain=0 per non catturare piani)
+    private static final long LENTE_SOGLIA_MS = Long.getLong("bookrecommender.db.lente.sogliaMs", 500L);
+    private static final double LENTE_CAMPIONE_EXPLAIN = Double.parseDouble(
+            System.getProperty("bookrecommender.db.lente.campioneExplain", "0.1"));
+    private static final long LENTE_INTERVALLO_EXPLAIN_MS = Long.getLong("bookrecommender.db.lente.intervalloExplainMs", 60_000L);
+    // EXPLAIN (ANALYZE, BUFFERS) riesegue la query lenta su una connessione del pool: solo per diagnosi mirate
+    private static final boolean LENTE_EXPLAIN_ANALYZE = Boolean.getBoolean("bookrecommender.db.lente.explainAnalyze");
+
+    private static DBConnectionPool pool;
+    private static DBConnectionPool poolUtenti;
+    private static QueryLente queryLente;
     private static String jdbcUrl;
     private static String username;
     private static String password;
@@ -15,11 +41,43 @@ public class DBConnectionSingleton {
         DBConnectionSingleton.username = user;
         DBConnectionSingleton.password = password;
         closeConnectionQuietly();
-        connection = DriverManager.getConnection(jdbcUrl, user, password);
+        pool = new DBConnectionPool(jdbcUrl, user, password, POOL_MIN, POOL_MAX,
+                POOL_INATTIVITA_MS, POOL_TIMEOUT_MS, POOL_LEAK_MS, POOL_VALIDAZIONE_S);
+        try {
+            poolUtenti = new DBConnectionPool(jdbcUrl, user, password, POOL_UTENTI_MIN, POOL_UTENTI_MAX,
+                    POOL_INATTIVITA_MS, POOL_TIMEOUT_MS, POOL_LEAK_MS, POOL_VALIDAZIONE_S);
+        } catch (SQLException | RuntimeException e) {
+            closeConnectionQuietly();
+            throw e;
+        }
+        if (LENTE_SOGLIA_MS > 0) {
+            queryLente = new QueryLente(LENTE_SOGLIA_MS, LENTE_CAMPIONE_EXPLAIN, LENTE_INTERVALLO_EXPLAIN_MS,
+                    LENTE_EXPLAIN_ANALYZE);
+            pool.setQueryLente(queryLente);
+            poolUtenti.setQueryLente(queryLente);
+        }
+    }
+
+    /**
+     * @return il pool di connessioni dei DAO dei libri (ricerche e caricamento del catalogo)
+     * @throws SQLException se il database non e' ancora stato inizializzato
+     */
+    public static synchronized DBConnectionPool getPool() throws SQLException {
+        if (pool == null) {
+            throw new SQLException("Database non inizializzato");
+        }
+        return pool;
     }
 
-    public static synchronized Connection getConnection() {
-        return connection;
+    /**
+     * @return il pool di connessioni riservato al DAO degli utenti
+     * @throws SQLException se il database non e' ancora stato inizializzato
+     */
+    public static synchronized DBConnectionPool getPoolUtenti() throws SQLException {
+        if (poolUtenti == null) {
+            throw new SQLException("Database non inizializzato");
+        }
+        return poolUtenti;
     }
 
     public static synchronized Connection openNewConnection() throws SQLException {
@@ -30,11 +88,17 @@ public class DBConnectionSingleton {
     }
 
     public static synchronized void closeConnectionQuietly() {
-        if (connection != null) {
-            try {
-                connection.close();
-            } catch (SQLException ignored) { }
-            connection = null;
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+        if (poolUtenti != null) {
+            poolUtenti.close();
+            poolUtenti = null;
+        }
+        if (queryLente != null) {
+            queryLente.close();
+            queryLente = null;
         }
     }
 }
@@ -0,0 +1,235 @@
+package bookrecommender.server.utili;
+
+import bookrecommender.condivisi.rmi.ServizioOccupatoException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Serial;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Esecutore limitato per il lavoro di un servizio RMI.
+ * <p>
+ * RMI esegue ogni chiamata su un proprio thread, senza limiti: i servizi passano invece il
+ * lavoro (tipicamente le chiamate ai DAO) a questo esecutore, che ne esegue al massimo
+ * {@code concorrenza} alla volta e tiene in coda al massimo {@code codaMassima} richieste.
+ * A coda piena la richiesta viene rifiutata subito con {@link RichiestaRifiutataException},
+ * che il servizio restituisce al client come {@link ServizioOccupatoException}. Lo stesso avviene
+ * se il lavoro non termina entro {@code attesaRispostaMassimaMs}: il lavoro viene interrotto e il
+ * thread RMI liberato, invece di restare bloccato su una chiamata al database che non risponde.
+ * <p>
+ * Ogni servizio ha il proprio esecutore: un servizio saturo riempie la propria coda e non rallenta
+ * gli altri. Non si usano priorita' dei thread, che su Linux la JVM ignora.
+ * <p>
+ * Vengono misurati profondita' della coda e tempo di attesa in coda; le misure sono visibili via
+ * JMX dopo {@link bookrecommender.server.metriche.RegistroMetriche#pubblica}.
+ */
+public final class EsecutoreLimitato implements EsecutoreLimitatoMXBean, AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(EsecutoreLimitato.class);
+    // Attesa minima suggerita al client prima di riprovare
+    private static final long RITENTA_MINIMO_MS = 100;
+    // Attesa massima del risultato di un lavoro, se non indicata
+    private static final long ATTESA_RISPOSTA_MASSIMA_MS = 30_000;
+
+    /**
+     * @param inEsecuzione lavori in esecuzione in questo momento
+     * @param inCoda lavori in attesa in questo momento
+     * @param completati lavori eseguiti dall'avvio
+     * @param rifiutati richieste rifiutate a coda piena dall'avvio
+     * @param scaduti lavori interrotti perche' non terminati in tempo dall'avvio
+     * @param attesaMediaMs attesa media in coda dei lavori eseguiti
+     * @param attesaMassimaMs attesa massima in coda dei lavori eseguiti
+     */
+    public record Statistiche(String nome, int inEsecuzione, int inCoda, long completati, long rifiutati,
+                              long scaduti, double attesaMediaMs, double attesaMassimaMs) { }
+
+    /**
+     * Richiesta rifiutata perche' la coda dell'esecutore e' piena, o abbandonata perche' il lavoro
+     * non e' terminato in tempo
+     */
+    public static final class RichiestaRifiutataException extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final long ritentaTraMs;
+
+        RichiestaRifiutataException(String messaggio, long ritentaTraMs) {
+            super(messaggio);
+            this.ritentaTraMs = ritentaTraMs;
+        }
+
+        /**
+         * @return l'eccezione da restituire al client
+         */
+        public ServizioOccupatoException perIlClient() {
+            return new ServizioOccupatoException(getMessage(), ritentaTraMs);
+        }
+    }
+
+    private final String nome;
+    private final long attesaRispostaMassimaMs;
+    private final ThreadPoolExecutor esecutore;
+    private final AtomicInteger inEsecuzione = new AtomicInteger();
+    private final LongAdder completati = new LongAdder();
+    private final LongAdder rifiutati = new LongAdder();
+    private final LongAdder scaduti = new LongAdder();
+    private final LongAdder attesaTotaleNanos = new LongAdder();
+    private final AtomicLong attesaMassimaNanos = new AtomicLong();
+
+    /**
+     * @param nome nome del servizio, usato per i thread e nel log
+     * @param concorrenza numero massimo di lavori eseguiti contemporaneamente
+     * @param codaMassima numero massimo di lavori in attesa
+     */
+    public EsecutoreLimitato(String nome, int concorrenza, int codaMassima) {
+        this(nome, concorrenza, codaMassima, ATTESA_RISPOSTA_MASSIMA_MS);
+    }
+
+    /**
+     * @param nome nome del servizio, usato per i thread e nel log
+     * @param concorrenza numero massimo di lavori eseguiti contemporaneamente
+     * @param codaMassima numero massimo di lavori in attesa
+     * @param attesaRispostaMassimaMs tempo massimo, dall'accodamento, entro cui un lavoro deve terminare
+     */
+    public EsecutoreLimitato(String nome, int concorrenza, int codaMassima, long attesaRispostaMassimaMs) {
+        if (concorrenza <= 0 || codaMassima <= 0 || attesaRispostaMassimaMs <= 0) {
+            throw new IllegalArgumentException("Concorrenza, coda e attesa massima devono essere positive");
+        }
+        this.nome = nome;
+        this.attesaRispostaMassimaMs = attesaRispostaMassimaMs;
+        AtomicInteger numeroThread = new AtomicInteger();
+        this.esecutore = new ThreadPoolExecutor(concorrenza, concorrenza, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(codaMassima), lavoro -> {
+                    Thread t = new Thread(lavoro, nome + "-" + numeroThread.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.esecutore.allowCoreThreadTimeOut(true);
+        logger.info("Esecutore {}: {} lavori contemporanei, coda di {}, risposta entro {} ms",
+                nome, concorrenza, codaMassima, attesaRispostaMassimaMs);
+    }
+
+    /**
+     * Esegue il lavoro su un thread dell'esecutore e ne attende il risultato.
+     *
+     * @return il risultato del lavoro
+     * @throws RichiestaRifiutataException se la coda e' piena, e il lavoro non viene eseguito, oppure se
+     *         il lavoro non termina entro l'attesa massima, e viene interrotto
+     */
+    public <T> T esegui(Supplier<T> lavoro) {
+        long accodato = System.nanoTime();
+        Future<T> futuro;
+        try {
+            futuro = esecutore.submit(() -> {
+                registraAttesa(System.nanoTime() - accodato);
+                inEsecuzione.incrementAndGet();
+                try {
+                    return lavoro.get();
+                } finally {
+                    inEsecuzione.decrementAndGet();
+                    completati.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rifiutati.increment();
+            Statistiche s = getStatistiche();
+            logger.warn("Richiesta rifiutata, servizio {} occupato ({})", nome, s);
+            throw new RichiestaRifiutataException("Servizio " + nome + " occupato, riprovare piu' tardi",
+                    Math.max(RITENTA_MINIMO_MS, Math.round(s.attesaMediaMs())));
+        }
+
+        try {
+            long restanteNanos = TimeUnit.MILLISECONDS.toNanos(attesaRispostaMassimaMs) - (System.nanoTime() - accodato);
+            return futuro.get(restanteNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Un lavoro ancora in coda non parte piu'; uno in esecuzione riceve un'interruzione
+            futuro.cancel(true);
+            scaduti.increment();
+            logger.warn("Lavoro del servizio {} non terminato entro {} ms, abbandonato ({})",
+                    nome, attesaRispostaMassimaMs, getStatistiche());
+            throw new RichiestaRifiutataException("Servizio " + nome + " non ha risposto in tempo, riprovare piu' tardi",
+                    Math.max(RITENTA_MINIMO_MS, attesaRispostaMassimaMs / 10));
+        } catch (InterruptedException e) {
+            futuro.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Attesa del servizio " + nome + " interrotta", e);
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof RuntimeException r) {
+                throw r;
+            }
+            if (causa instanceof Error err) {
+                throw err;
+            }
+            throw new IllegalStateException(causa);
+        }
+    }
+
+    public Statistiche getStatistiche() {
+        long eseguiti = completati.sum() + inEsecuzione.get();
+        double attesaMedia = eseguiti == 0 ? 0 : attesaTotaleNanos.sum() / 1e6 / eseguiti;
+        return new Statistiche(nome, inEsecuzione.get(), esecutore.getQueue().size(), completati.sum(),
+                rifiutati.sum(), scaduti.sum(), attesaMedia, attesaMassimaNanos.get() / 1e6);
+    }
+
+    @Override
+    public int getInEsecuzione() {
+        return inEsecuzione.get();
+    }
+
+    @Override
+    public int getInCoda() {
+        return esecutore.getQueue().size();
+    }
+
+    @Override
+    public long getCompletati() {
+        return completati.sum();
+    }
+
+    @Override
+    public long getRifiutati() {
+        return rifiutati.sum();
+    }
+
+    @Override
+    public long getScaduti() {
+        return scaduti.sum();
+    }
+
+    @Override
+    public double getAttesaMediaMs() {
+        return getStatistiche().attesaMediaMs();
+    }
+
+    @Override
+    public double getAttesaMassimaMs() {
+        return attesaMassimaNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getAttesaRispostaMassimaMs() {
+        return attesaRispostaMassimaMs;
+    }
+
+    @Override
+    public void close() {
+        esecutore.shutdown();
+    }
+
+    private void registraAttesa(long nanos) {
+        attesaTotaleNanos.add(nanos);
+        attesaMassimaNanos.accumulateAndGet(nanos, Math::max);
+    }
+}
@@ -0,0 +1,24 @@
+package bookrecommender.server.utili;
+
+/**
+ * Vista JMX di un {@link EsecutoreLimitato}. I tempi sono in millisecondi, i contatori partono
+ * dall'avvio.
+ */
+public interface EsecutoreLimitatoMXBean {
+
+    int getInEsecuzione();
+
+    int getInCoda();
+
+    long getCompletati();
+
+    long getRifiutati();
+
+    long getScaduti();
+
+    double getAttesaMediaMs();
+
+    double getAttesaMassimaMs();
+
+    long getAttesaRispostaMassimaMs();
+}
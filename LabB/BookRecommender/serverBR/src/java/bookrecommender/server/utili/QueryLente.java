@@ -0,0 +1,240 @@
+package bookrecommender.server.utili;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registro delle query lente.
+ * <p>
+ * {@link DBConnectionPool} passa qui ogni statement creato dalle sue connessioni: il proxy
+ * restituito misura le chiamate {@code execute*} e, oltre la soglia, scrive nel log SQL e durata
+ * con i parametri oscurati (solo tipo e lunghezza: possono contenere password e dati personali).
+ * <p>
+ * Per un campione delle query lente di sola lettura si cattura il piano con {@code EXPLAIN} e gli
+ * stessi parametri, su un thread dedicato e in una transazione in sola lettura annullata al
+ * termine. Il semplice {@code EXPLAIN} non esegue la query; {@code EXPLAIN (ANALYZE, BUFFERS)}
+ * la riesegue davvero, occupando una connessione del pool delle richieste per tutta la sua
+ * durata, e si usa solo se richiesto nel costruttore. Il piano va sul logger
+ * {@value #LOGGER_EXPLAIN}, che log4j2.xml manda a un appender asincrono dedicato. La stessa
+ * query viene analizzata al massimo una volta per intervallo e, se il thread e' gia' occupato,
+ * l'analisi viene saltata: il percorso delle richieste non aspetta mai l'EXPLAIN.
+ */
+public final class QueryLente implements AutoCloseable {
+
+    static final String LOGGER_EXPLAIN = "bookrecommender.sql.explain";
+
+    private static final Logger logger = LogManager.getLogger(QueryLente.class);
+    private static final Logger loggerExplain = LogManager.getLogger(LOGGER_EXPLAIN);
+    // EXPLAIN in attesa oltre quello in esecuzione; i successivi vengono scartati
+    private static final int CODA_EXPLAIN = 8;
+    // Query distinte ricordate per l'intervallo tra due EXPLAIN
+    private static final int MASSIMO_QUERY_RICORDATE = 1_000;
+
+    private final long sogliaNanos;
+    private final double campioneExplain;
+    private final long intervalloExplainNanos;
+    private final String prefissoExplain;
+    private final ThreadPoolExecutor esecutoreExplain;
+    private final ConcurrentHashMap<String, Long> ultimoExplain = new ConcurrentHashMap<>();
+
+    /**
+     * @param sogliaMillis durata oltre la quale uno statement e' lento
+     * @param campioneExplain frazione delle query lente di cui catturare il piano, tra 0 e 1
+     * @param intervalloExplainMillis tempo minimo tra due EXPLAIN della stessa query
+     * @param explainAnalyze true per rieseguire le query con EXPLAIN (ANALYZE, BUFFERS), con tempi
+     *                       e buffer reali ma con il costo di una seconda esecuzione
+     */
+    public QueryLente(long sogliaMillis, double campioneExplain, long intervalloExplainMillis, boolean explainAnalyze) {
+        this.sogliaNanos = TimeUnit.MILLISECONDS.toNanos(sogliaMillis);
+        this.campioneExplain = campioneExplain;
+        this.intervalloExplainNanos = TimeUnit.MILLISECONDS.toNanos(intervalloExplainMillis);
+        this.prefissoExplain = explainAnalyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ";
+        this.esecutoreExplain = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(CODA_EXPLAIN), r -> {
+                    Thread t = new Thread(r, "query-lente-explain");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+        logger.info("Registro delle query lente: soglia {} ms, {}sul {}% delle query lente",
+                sogliaMillis, prefissoExplain, Math.round(campioneExplain * 100));
+    }
+
+    /**
+     * Avvolge lo statement appena creato da una connessione del pool
+     *
+     * @param tipo interfaccia restituita dal metodo che ha creato lo statement
+     * @param sql testo dei prepared statement, null per gli statement semplici
+     * @param pool pool da cui prendere la connessione per l'EXPLAIN
+     */
+    Statement cronometra(Statement statement, Class<?> tipo, String sql, DBConnectionPool pool) {
+        if (sql != null && sql.stripLeading().regionMatches(true, 0, "EXPLAIN", 0, 7)) {
+            return statement;
+        }
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{tipo},
+                new StatementCronometrato(statement, sql, pool));
+    }
+
+    @Override
+    public void close() {
+        esecutoreExplain.shutdownNow();
+    }
+
+    private void registra(String sql, Map<Integer, Object> parametri, long nanos, DBConnectionPool pool) {
+        logger.warn("Query lenta ({} ms): {} parametri {}", TimeUnit.NANOSECONDS.toMillis(nanos),
+                compatta(sql), oscura(parametri));
+        if (!isSolaLettura(sql) || ThreadLocalRandom.current().nextDouble() >= campioneExplain) {
+            return;
+        }
+        long adesso = System.nanoTime();
+        Long precedente = ultimoExplain.get(sql);
+        if (precedente != null && adesso - precedente < intervalloExplainNanos) {
+            return;
+        }
+        if (ultimoExplain.size() >= MASSIMO_QUERY_RICORDATE) {
+            ultimoExplain.clear();
+        }
+        ultimoExplain.put(sql, adesso);
+        Map<Integer, Object> copia = new TreeMap<>(parametri);
+        esecutoreExplain.execute(() -> spiega(sql, copia, nanos, pool));
+    }
+
+    private void spiega(String sql, Map<Integer, Object> parametri, long nanos, DBConnectionPool pool) {
+        List<String> piano = new ArrayList<>();
+        try (Connection connessione = pool.getConnection()) {
+            // La connessione torna al pool con autocommit e sola lettura ripristinati
+            connessione.setReadOnly(true);
+            connessione.setAutoCommit(false);
+            try (PreparedStatement stmt = connessione.prepareStatement(prefissoExplain + sql)) {
+                for (Map.Entry<Integer, Object> p : parametri.entrySet()) {
+                    stmt.setObject(p.getKey(), p.getValue());
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        piano.add(rs.getString(1));
+                    }
+                }
+            } finally {
+                connessione.rollback();
+            }
+        } catch (SQLException e) {
+            loggerExplain.warn("EXPLAIN non riuscito per {}: {}", compatta(sql), e.getMessage());
+            return;
+        }
+        loggerExplain.info("Query lenta ({} ms): {} parametri {}{}{}", TimeUnit.NANOSECONDS.toMillis(nanos),
+                compatta(sql), oscura(parametri), System.lineSeparator(), String.join(System.lineSeparator(), piano));
+    }
+
+    /**
+     * Solo le SELECT (anche con WITH) vengono analizzate: con ANALYZE la query viene eseguita davvero
+     */
+    private static boolean isSolaLettura(String sql) {
+        if (sql == null) {
+            return false;
+        }
+        String s = sql.stripLeading().toUpperCase(Locale.ROOT);
+        if (s.startsWith("SELECT")) {
+            return !s.contains(" FOR UPDATE") && !s.contains(" FOR SHARE");
+        }
+        return s.startsWith("WITH") && !s.matches("(?s).*\\b(INSERT|UPDATE|DELETE|MERGE)\\b.*");
+    }
+
+    private static String compatta(String sql) {
+        return sql == null ? "?" : sql.replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * @return posizione, tipo e lunghezza di ogni parametro, senza il valore
+     */
+    private static String oscura(Map<Integer, Object> parametri) {
+        StringBuilder sb = new StringBuilder("[");
+        for (Map.Entry<Integer, Object> p : parametri.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            Object v = p.getValue();
+            sb.append('$').append(p.getKey()).append('=');
+            if (v == null) {
+                sb.append("null");
+            } else if (v instanceof CharSequence testo) {
+                sb.append("String(").append(testo.length()).append(')');
+            } else {
+                sb.append(v.getClass().getSimpleName());
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Statement che misura le esecuzioni e ricorda i parametri impostati
+     */
+    private final class StatementCronometrato implements InvocationHandler {
+        private final Statement statement;
+        private final String sql;
+        private final DBConnectionPool pool;
+        private final Map<Integer, Object> parametri = new TreeMap<>();
+
+        StatementCronometrato(Statement statement, String sql, DBConnectionPool pool) {
+            this.statement = statement;
+            this.sql = sql;
+            this.pool = pool;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String nome = method.getName();
+            if (nome.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer indice
+                    && method.getParameterTypes()[0] == int.class) {
+                parametri.put(indice, nome.equals("setNull") ? null : args[1]);
+            } else if (nome.equals("clearParameters")) {
+                parametri.clear();
+            } else if (nome.equals("equals")) {
+                return proxy == args[0];
+            } else if (nome.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+
+            if (!nome.startsWith("execute")) {
+                return chiama(method, args);
+            }
+            long inizio = System.nanoTime();
+            try {
+                return chiama(method, args);
+            } finally {
+                long durata = System.nanoTime() - inizio;
+                if (durata >= sogliaNanos) {
+                    // Statement semplice: il testo arriva come primo argomento di execute*
+                    String eseguito = sql != null ? sql : (args != null && args.length > 0 && args[0] instanceof String s ? s : null);
+                    registra(eseguito, parametri, durata, pool);
+                }
+            }
+        }
+
+        private Object chiama(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
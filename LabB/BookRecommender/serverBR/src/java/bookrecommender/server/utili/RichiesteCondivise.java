@@ -0,0 +1,104 @@
+package bookrecommender.server.utili;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Accorpa le richieste identiche contemporanee ("single flight").
+ * <p>
+ * La prima richiesta per una chiave esegue il calcolo; quelle con la stessa chiave che arrivano
+ * mentre e' in corso ne attendono il risultato invece di ripeterlo, e ricevono lo stesso oggetto
+ * (o la stessa eccezione). Terminato il calcolo la chiave viene rimossa, quindi la richiesta
+ * successiva esegue di nuovo il calcolo: non e' una cache.
+ * <p>
+ * I contatori sono visibili via JMX tramite {@link RichiesteCondiviseMXBean}.
+ *
+ * @param <K> tipo delle chiavi; equals e hashCode devono identificare le richieste equivalenti
+ */
+public final class RichiesteCondivise<K> implements RichiesteCondiviseMXBean {
+
+    private static final Logger logger = LogManager.getLogger(RichiesteCondivise.class);
+
+    /**
+     * Contatori dall'avvio
+     *
+     * @param esecuzioni calcoli eseguiti
+     * @param condivise richieste che hanno atteso il calcolo di un'altra invece di eseguirlo
+     * @param inCorso calcoli in corso in questo momento
+     */
+    public record Statistiche(long esecuzioni, long condivise, int inCorso) { }
+
+    private final ConcurrentHashMap<K, CompletableFuture<Object>> inCorso = new ConcurrentHashMap<>();
+    private final AtomicLong esecuzioni = new AtomicLong();
+    private final AtomicLong condivise = new AtomicLong();
+
+    /**
+     * Esegue il calcolo, oppure attende quello gia' in corso per la stessa chiave.
+     *
+     * @return il risultato del calcolo, condiviso tra tutte le richieste accorpate
+     * @throws RuntimeException l'eccezione sollevata dal calcolo, anche per le richieste accorpate
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T esegui(K chiave, Supplier<T> calcolo) {
+        CompletableFuture<Object> nuovo = new CompletableFuture<>();
+        CompletableFuture<Object> esistente = inCorso.putIfAbsent(chiave, nuovo);
+        if (esistente != null) {
+            condivise.incrementAndGet();
+            logger.debug("Richiesta {} accorpata a una identica in corso", chiave);
+            return (T) attendi(esistente);
+        }
+
+        esecuzioni.incrementAndGet();
+        try {
+            T risultato = calcolo.get();
+            nuovo.complete(risultato);
+            return risultato;
+        } catch (RuntimeException | Error e) {
+            nuovo.completeExceptionally(e);
+            throw e;
+        } finally {
+            inCorso.remove(chiave, nuovo);
+        }
+    }
+
+    public Statistiche getStatistiche() {
+        return new Statistiche(esecuzioni.get(), condivise.get(), inCorso.size());
+    }
+
+    @Override
+    public long getEsecuzioni() {
+        return esecuzioni.get();
+    }
+
+    @Override
+    public long getCondivise() {
+        return condivise.get();
+    }
+
+    @Override
+    public int getInCorso() {
+        return inCorso.size();
+    }
+
+    private static Object attendi(CompletableFuture<Object> calcolo) {
+        try {
+            return calcolo.join();
+        } catch (CompletionException e) {
+            // Si ripropaga l'eccezione originale, come per la richiesta che ha eseguito il calcolo
+            Throwable causa = e.getCause();
+            if (causa instanceof RuntimeException r) {
+                throw r;
+            }
+            if (causa instanceof Error err) {
+                throw err;
+            }
+            throw e;
+        }
+    }
+}
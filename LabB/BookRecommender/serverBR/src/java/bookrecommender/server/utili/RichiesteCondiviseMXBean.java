@@ -0,0 +1,13 @@
+package bookrecommender.server.utili;
+
+/**
+ * Vista JMX di {@link RichiesteCondivise}. I contatori partono dall'avvio.
+ */
+public interface RichiesteCondiviseMXBean {
+
+    long getEsecuzioni();
+
+    long getCondivise();
+
+    int getInCorso();
+}